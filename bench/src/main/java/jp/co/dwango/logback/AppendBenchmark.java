@@ -0,0 +1,94 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.sun.net.httpserver.HttpServer;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * End-to-end append against an in-process HTTP stub which accepts everything.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+// the stub writes headers and body separately, which Nagle would delay by the delayed ACK of the client
+@Fork(jvmArgsAppend = "-Dsun.net.httpserver.nodelay=true")
+public class AppendBenchmark {
+    @Param({"false", "true"})
+    public boolean async;
+
+    @Param({"template", "script"})
+    public String renderer;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private SlackWebhookAppender appender;
+
+    private ILoggingEvent event;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            try (InputStream is = exchange.getRequestBody()) {
+                byte[] buffer = new byte[4096];
+                while (is.read(buffer) >= 0) {
+                    // discards
+                }
+            }
+            exchange.sendResponseHeaders(200, 2);
+            exchange.getResponseBody().write("ok".getBytes("UTF-8"));
+            exchange.close();
+        });
+        executor = Executors.newFixedThreadPool(16);
+        server.setExecutor(executor);
+        server.start();
+
+        appender = new SlackWebhookAppender();
+        appender.setContext(new LoggerContext());
+        appender.setName("bench");
+        appender.setJmx(false);
+        appender.setWebhookUrl("http://127.0.0.1:" + server.getAddress().getPort() + "/services/bench");
+        if (renderer.equals("script")) {
+            appender.setPayload(BenchmarkEvents.PAYLOAD);
+        } else {
+            appender.setTemplate(BenchmarkEvents.TEMPLATE);
+        }
+        appender.setAsync(async);
+        appender.setQueueSize(4096);
+        appender.start();
+        event = BenchmarkEvents.event("text \"quoted\"", false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        appender.stop();
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public void append() {
+        appender.doAppend(event);
+    }
+}
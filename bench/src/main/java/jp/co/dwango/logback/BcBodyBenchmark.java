@@ -0,0 +1,63 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Building the body in backward compatibility mode, with and without a layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BcBodyBenchmark {
+    @Param({"false", "true"})
+    public boolean layout;
+
+    private SlackWebhookAppenderBc appender;
+
+    private byte[] body;
+
+    private ILoggingEvent event;
+
+    @Setup
+    public void setUp() {
+        appender = new SlackWebhookAppenderBc() {
+            @Override
+            protected void post(byte[] body) {
+                BcBodyBenchmark.this.body = body;
+            }
+        };
+        appender.setWebhookUrl("http://127.0.0.1/");
+        appender.setChannel("#channel");
+        appender.setUsername("username");
+        appender.setIconEmoji(":ghost:");
+        if (layout) {
+            LoggerContext context = new LoggerContext();
+            PatternLayout patternLayout = new PatternLayout();
+            patternLayout.setContext(context);
+            patternLayout.setPattern("%-5level %logger{36} [%thread] %msg%n%ex");
+            patternLayout.start();
+            appender.setLayout(patternLayout);
+        }
+        appender.start();
+        event = BenchmarkEvents.event("text \"quoted\"", false);
+    }
+
+    @Benchmark
+    public byte[] append() {
+        appender.append(event);
+        return body;
+    }
+}
@@ -0,0 +1,90 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
+/**
+ * Logging events shared by the benchmarks.
+ */
+final class BenchmarkEvents {
+    /** payload script of the README sample */
+    static final String PAYLOAD =
+        "{ " +
+        "  \"channel\": \"#channel\", " +
+        "  \"username\": \"username\", " +
+        "  \"icon_emoji\": emoji, " +
+        "  \"link_names\": 1, " +
+        "  \"attachments\": [{ " +
+        "    \"title\": \"title - \" + hostname, " +
+        "    \"color\": color, " +
+        "    \"fields\": [{ " +
+        "      \"title\": \"Message\", " +
+        "      \"value\": event.getFormattedMessage(), " +
+        "      \"short\": false " +
+        "    }] " +
+        "  }] " +
+        "} ";
+
+    /** template equivalent to {@link #PAYLOAD} */
+    static final String TEMPLATE =
+        "{\"channel\":\"#channel\",\"username\":\"username\",\"icon_emoji\":${emoji},\"link_names\":1," +
+        "\"attachments\":[{\"title\":\"title - ${hostname}\",\"color\":${color}," +
+        "\"fields\":[{\"title\":\"Message\",\"value\":${message},\"short\":false}]}]}";
+
+    private BenchmarkEvents() {
+    }
+
+    /**
+     * Creates an event
+     *
+     * @param message message
+     * @param withThrowable whether the event has a stack trace
+     * @return logging event
+     */
+    static LoggingEvent event(String message, boolean withThrowable) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.ERROR);
+        event.setLoggerName("jp.co.dwango.logback.bench");
+        event.setThreadName("main");
+        event.setTimeStamp(System.currentTimeMillis());
+        event.setMessage(message);
+        event.setLoggerContextRemoteView(new LoggerContextVO("bench",
+            Collections.singletonMap("HOSTNAME", "bench.local"), 0L));
+        if (withThrowable) {
+            event.setThrowableProxy(new ThrowableProxy(deepException(32)));
+        }
+        return event;
+    }
+
+    /**
+     * Creates a multi-line message with quotes and non-ASCII characters
+     *
+     * @param lines number of lines
+     * @return message
+     */
+    static String multiLineMessage(int lines) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            sb.append("line ").append(i).append(": \"quoted\"\tvalue=日本語 \\path\\to\\file\n");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates an exception with a deep stack
+     *
+     * @param depth number of extra frames
+     * @return exception
+     */
+    static Exception deepException(int depth) {
+        if (depth == 0) {
+            return new IllegalStateException("failure in a deep stack", new IOException("cause"));
+        }
+        return deepException(depth - 1);
+    }
+}
@@ -0,0 +1,54 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+
+/**
+ * JSON escaping of large multi-line messages and stack traces.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class EscapeBenchmark {
+    @Param({"message", "stacktrace"})
+    public String input;
+
+    @Param({"10", "1000"})
+    public int lines;
+
+    private String text;
+
+    private final JsonBuffer buffer = new JsonBuffer(1024);
+
+    @Setup
+    public void setUp() {
+        if (input.equals("message")) {
+            text = BenchmarkEvents.multiLineMessage(lines);
+        } else {
+            text = ThrowableProxyUtil.asString(new ThrowableProxy(BenchmarkEvents.deepException(lines)));
+        }
+    }
+
+    @Benchmark
+    public int writeEscaped() {
+        buffer.reset();
+        buffer.writeEscaped(text);
+        return buffer.size();
+    }
+
+    @Benchmark
+    public byte[] escape() {
+        return JsonBuffer.escape(text);
+    }
+}
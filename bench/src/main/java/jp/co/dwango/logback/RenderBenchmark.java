@@ -0,0 +1,42 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Rendering a payload through the script engine, compared with the template.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RenderBenchmark {
+    @Param({"script", "template"})
+    public String renderer;
+
+    private PayloadRenderer payloadRenderer;
+
+    private ILoggingEvent event;
+
+    @Setup
+    public void setUp() throws Exception {
+        payloadRenderer = renderer.equals("script")
+            ? new PayloadScript(BenchmarkEvents.PAYLOAD)
+            : new PayloadTemplate(BenchmarkEvents.TEMPLATE);
+        event = BenchmarkEvents.event("text \"quoted\"", false);
+    }
+
+    @Benchmark
+    public byte[] render() throws Exception {
+        return payloadRenderer.render(event);
+    }
+}
@@ -0,0 +1,153 @@
+package jp.co.dwango.logback;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Counters and latency histograms of an appender.
+ * Recording is lock-free and does not allocate, except for remembering the last error.
+ */
+final class AppenderMetrics implements AppenderMetricsMXBean {
+    /** events which reached the filters */
+    final LongAdder seen = new LongAdder();
+
+    /** events denied by the filters or cancelled by the payload */
+    final LongAdder filtered = new LongAdder();
+
+    /** events counted as repeats */
+    final LongAdder suppressed = new LongAdder();
+
+    /** payloads rendered */
+    final LongAdder rendered = new LongAdder();
+
+    /** posts accepted */
+    final LongAdder posted = new LongAdder();
+
+    /** posts failed after all retries */
+    final LongAdder failed = new LongAdder();
+
+    /** posts rejected with 429 */
+    final LongAdder throttled = new LongAdder();
+
+    /** messages spooled */
+    final LongAdder spooled = new LongAdder();
+
+    /** messages discarded */
+    final LongAdder dropped = new LongAdder();
+
+    /** latency of rendering */
+    final LatencyHistogram render = new LatencyHistogram();
+
+    /** latency of merging batches */
+    final LatencyHistogram serialization = new LatencyHistogram();
+
+    /** latency of HTTP round trips */
+    final LatencyHistogram http = new LatencyHistogram();
+
+    /** number of queued messages */
+    private final IntSupplier queueDepth;
+
+    /** state of the circuit breaker */
+    private final Supplier<String> circuitState;
+
+    /** last error */
+    private volatile String lastError;
+
+    /**
+     * Creates metrics
+     *
+     * @param queueDepth number of queued messages
+     * @param circuitState state of the circuit breaker
+     */
+    AppenderMetrics(IntSupplier queueDepth, Supplier<String> circuitState) {
+        this.queueDepth = queueDepth;
+        this.circuitState = circuitState;
+    }
+
+    /**
+     * Remembers an error
+     *
+     * @param message description
+     * @param cause cause, or null
+     */
+    void error(String message, Throwable cause) {
+        this.lastError = Instant.now() + " " + message + (cause != null ? " " + cause : "");
+    }
+
+    @Override
+    public long getEventsSeen() {
+        return seen.sum();
+    }
+
+    @Override
+    public long getEventsFiltered() {
+        return filtered.sum();
+    }
+
+    @Override
+    public long getEventsSuppressed() {
+        return suppressed.sum();
+    }
+
+    @Override
+    public long getEventsRendered() {
+        return rendered.sum();
+    }
+
+    @Override
+    public long getEventsPosted() {
+        return posted.sum();
+    }
+
+    @Override
+    public long getEventsFailed() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getEventsThrottled() {
+        return throttled.sum();
+    }
+
+    @Override
+    public long getEventsSpooled() {
+        return spooled.sum();
+    }
+
+    @Override
+    public long getEventsDropped() {
+        return dropped.sum();
+    }
+
+    @Override
+    public LatencySnapshot getRenderLatency() {
+        return render.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getSerializationLatency() {
+        return serialization.snapshot();
+    }
+
+    @Override
+    public LatencySnapshot getHttpLatency() {
+        return http.snapshot();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    @Override
+    public String getCircuitState() {
+        return circuitState.get();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+}
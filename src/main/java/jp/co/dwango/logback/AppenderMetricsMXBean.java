@@ -0,0 +1,116 @@
+package jp.co.dwango.logback;
+
+/**
+ * Metrics of a {@link SlackWebhookAppender}, registered as an MXBean named
+ * <code>jp.co.dwango.logback:type=SlackWebhookAppender,name=&lt;appender name&gt;</code>.
+ *
+ * Counters are cumulative since the appender was created. Latencies are in microseconds.
+ */
+public interface AppenderMetricsMXBean {
+    /**
+     * Gets the number of events which reached the filters of the appender
+     *
+     * @return number of events seen
+     */
+    long getEventsSeen();
+
+    /**
+     * Gets the number of events denied by the filters or cancelled by the payload
+     *
+     * @return number of events filtered
+     */
+    long getEventsFiltered();
+
+    /**
+     * Gets the number of events counted as repeats of a previous one
+     *
+     * @return number of events suppressed
+     */
+    long getEventsSuppressed();
+
+    /**
+     * Gets the number of payloads rendered
+     *
+     * @return number of payloads rendered
+     */
+    long getEventsRendered();
+
+    /**
+     * Gets the number of posts Slack accepted
+     *
+     * @return number of posts
+     */
+    long getEventsPosted();
+
+    /**
+     * Gets the number of posts which failed after all retries
+     *
+     * @return number of failed posts
+     */
+    long getEventsFailed();
+
+    /**
+     * Gets the number of posts which Slack rejected with 429 Too Many Requests, including the ones
+     * posted again later
+     *
+     * @return number of throttled posts
+     */
+    long getEventsThrottled();
+
+    /**
+     * Gets the number of messages spooled to the disk
+     *
+     * @return number of spooled messages
+     */
+    long getEventsSpooled();
+
+    /**
+     * Gets the number of messages discarded because of a full queue, the rate limit or an open circuit
+     *
+     * @return number of dropped messages
+     */
+    long getEventsDropped();
+
+    /**
+     * Gets the latency of rendering a payload, which is evaluating the script and
+     * <code>JSON.stringify</code>, or expanding the template
+     *
+     * @return latency snapshot
+     */
+    LatencySnapshot getRenderLatency();
+
+    /**
+     * Gets the latency of merging batched payloads into one message
+     *
+     * @return latency snapshot
+     */
+    LatencySnapshot getSerializationLatency();
+
+    /**
+     * Gets the latency of an HTTP round trip to Slack
+     *
+     * @return latency snapshot
+     */
+    LatencySnapshot getHttpLatency();
+
+    /**
+     * Gets the number of messages waiting in the dispatch queue
+     *
+     * @return number of queued messages
+     */
+    int getQueueDepth();
+
+    /**
+     * Gets the state of the circuit breaker of the webhook
+     *
+     * @return CLOSED, OPEN or HALF_OPEN, or null if not started
+     */
+    String getCircuitState();
+
+    /**
+     * Gets the last error
+     *
+     * @return time and description of the last error, or null if none
+     */
+    String getLastError();
+}
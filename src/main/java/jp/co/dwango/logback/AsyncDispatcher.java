@@ -0,0 +1,356 @@
+package jp.co.dwango.logback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Hands events over to a dedicated sender thread which renders and posts them,
+ * so that appending never waits for Slack.
+ *
+ * With priority lanes, errors and events with the priority marker, warnings and the rest wait in
+ * separate lanes of the queue. The sender takes errors first, and a full queue sheds the lowest lane
+ * first, so that alerts are not stuck behind a backlog of chatter.
+ */
+final class AsyncDispatcher extends ContextAwareBase {
+    /** maximum time the sender sleeps before looking at the queue again */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** number of lanes with priority lanes */
+    static final int LANES = 3;
+
+    /** queue */
+    private final LaneQueue<Envelope> queue;
+
+    /** whether events wait in lanes by priority */
+    private final boolean priorityLanes;
+
+    /** marker which puts events into the highest lane, or null */
+    private final String priorityMarker;
+
+    /** drop policy */
+    private final DropPolicy dropPolicy;
+
+    /** messages below this level are dropped first under {@link DropPolicy#DROP_BELOW_LEVEL} */
+    private final Level dropThreshold;
+
+    /** maximum number of messages merged into one post */
+    private final int batchSize;
+
+    /** maximum time in nanos to wait for a batch to fill up */
+    private final long batchWindowNanos;
+
+    /** compiled payload script or template */
+    private final PayloadRenderer renderer;
+
+    /** delivery to the webhook */
+    private final Delivery delivery;
+
+    /** metrics */
+    private final AppenderMetrics metrics;
+
+    /** sender thread */
+    private final Thread worker;
+
+    /** whether the dispatcher accepts and sends messages */
+    private volatile boolean running;
+
+    /** whether the sender is parked waiting for messages */
+    private volatile boolean idle;
+
+    /** whether messages have been dropped since the queue was last drained */
+    private volatile boolean overflowing;
+
+    /** time in nanos until which the sender keeps draining after stop */
+    private volatile long flushDeadline;
+
+    /**
+     * Creates a dispatcher
+     *
+     * @param owner appender which status messages are reported as
+     * @param name name of the sender thread
+     * @param queueSize capacity of the queue
+     * @param dropPolicy drop policy
+     * @param dropThreshold level for {@link DropPolicy#DROP_BELOW_LEVEL}
+     * @param priorityLanes whether events wait in lanes by priority
+     * @param priorityMarker marker which puts events into the highest lane, or null
+     * @param laneWeights number of messages taken from each lane per turn, or null for strict priority
+     * @param batchSize maximum number of messages merged into one post
+     * @param batchWindow maximum time in milliseconds to wait for a batch to fill up
+     * @param renderer compiled payload script or template
+     * @param delivery delivery to the webhook
+     * @param metrics metrics
+     */
+    AsyncDispatcher(ContextAware owner, String name, int queueSize, DropPolicy dropPolicy, Level dropThreshold,
+            boolean priorityLanes, String priorityMarker, int[] laneWeights, int batchSize, long batchWindow,
+            PayloadRenderer renderer, Delivery delivery, AppenderMetrics metrics) {
+        super(owner);
+        setContext(owner.getContext());
+        this.queue = priorityLanes ? new LaneQueue<>(LANES, queueSize, laneWeights) : new LaneQueue<>(1, queueSize, null);
+        this.priorityLanes = priorityLanes;
+        this.priorityMarker = priorityMarker;
+        this.dropPolicy = dropPolicy;
+        this.dropThreshold = dropThreshold;
+        this.batchSize = Math.max(1, batchSize);
+        this.batchWindowNanos = TimeUnit.MILLISECONDS.toNanos(batchWindow);
+        this.renderer = renderer;
+        this.delivery = delivery;
+        this.metrics = metrics;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+    }
+
+    /**
+     * Starts the sender thread
+     */
+    void start() {
+        running = true;
+        worker.start();
+    }
+
+    /**
+     * Stops accepting messages and waits for the queue to be drained
+     *
+     * @param maxFlushTime maximum time in milliseconds to wait for the queue to be drained
+     */
+    void stop(long maxFlushTime) {
+        flushDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxFlushTime);
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(Math.max(1, maxFlushTime));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if(worker.isAlive()) {
+            worker.interrupt();
+            metrics.dropped.add(queue.size());
+            addWarn("Max flush time exceeded. " + queue.size() + " queued messages to slack were discarded.");
+        }
+    }
+
+    /**
+     * Enqueues a message
+     *
+     * @param envelope message
+     * @return false if the message was dropped
+     */
+    boolean offer(Envelope envelope) {
+        if(!running) {
+            return false;
+        }
+        boolean accepted = queue.offer(envelope.lane, envelope);
+        while(!accepted) {
+            int lowest = queue.lowestNonEmpty();
+            Envelope evicted;
+            if(lowest > envelope.lane) {
+                // sheds a lower lane
+                evicted = queue.poll(lowest);
+            } else if(dropPolicy != DropPolicy.DROP_NEWEST && !isBelowThreshold(envelope)) {
+                evicted = queue.poll(envelope.lane);
+            } else {
+                break;
+            }
+            if(evicted == null) {
+                // higher lanes hold the queue, or the sender took the element; tries once and gives up
+                accepted = queue.offer(envelope.lane, envelope);
+                break;
+            }
+            onDrop();
+            accepted = queue.offer(envelope.lane, envelope);
+        }
+        if(!accepted) {
+            onDrop();
+            return false;
+        }
+        if(idle) {
+            LockSupport.unpark(worker);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the number of queued messages
+     *
+     * @return number of queued messages
+     */
+    int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Gets the lane of an event, on the calling thread
+     *
+     * @param event logging event
+     * @return 0 for errors and events with the priority marker, 1 for warnings, otherwise 2;
+     *     or 0 without priority lanes
+     */
+    int laneOf(ILoggingEvent event) {
+        if(!priorityLanes) {
+            return 0;
+        }
+        if(priorityMarker != null) {
+            Marker marker = event.getMarker();
+            if(marker != null && marker.contains(priorityMarker)) {
+                return 0;
+            }
+        }
+        Level level = event.getLevel();
+        if(level == null) {
+            return LANES - 1;
+        }
+        if(level.isGreaterOrEqual(Level.ERROR)) {
+            return 0;
+        }
+        return level.isGreaterOrEqual(Level.WARN) ? 1 : 2;
+    }
+
+    /**
+     * Checks whether the message is dropped first under {@link DropPolicy#DROP_BELOW_LEVEL}
+     *
+     * @param envelope message
+     * @return true if the message should be dropped rather than evicting an older one
+     */
+    private boolean isBelowThreshold(Envelope envelope) {
+        return dropPolicy == DropPolicy.DROP_BELOW_LEVEL
+            && (envelope.level == null || !envelope.level.isGreaterOrEqual(dropThreshold));
+    }
+
+    /**
+     * Counts a dropped message and reports that the queue started overflowing
+     */
+    private void onDrop() {
+        metrics.dropped.increment();
+        if(!overflowing) {
+            overflowing = true;
+            addWarn("Queue of " + queue.capacity() + " messages to slack is full. Messages are being dropped.");
+        }
+    }
+
+    /**
+     * Main loop of the sender thread
+     */
+    private void run() {
+        while(running) {
+            long due = delivery.retryDue(this::isCancelled);
+            Envelope envelope = queue.poll();
+            if(envelope == null) {
+                overflowing = false;
+                idle = true;
+                if(queue.isEmpty() && running) {
+                    LockSupport.parkNanos(this, due >= 0 ? Math.min(due, IDLE_PARK_NANOS) : IDLE_PARK_NANOS);
+                }
+                idle = false;
+                continue;
+            }
+            dispatch(envelope);
+        }
+
+        // drains the rest until the deadline
+        Envelope envelope;
+        while(System.nanoTime() - flushDeadline < 0 && !Thread.currentThread().isInterrupted()
+                && (envelope = queue.poll()) != null) {
+            dispatch(envelope);
+        }
+        delivery.drain(this::isCancelled);
+    }
+
+    /**
+     * Sends a message, merged with the following ones if batching
+     *
+     * @param first first message
+     */
+    private void dispatch(Envelope first) {
+        byte[] firstBody = render(first);
+        if(firstBody == null) {
+            return;
+        }
+        if(batchSize == 1) {
+            send(firstBody);
+            return;
+        }
+
+        List<byte[]> batch = new ArrayList<>(batchSize);
+        batch.add(firstBody);
+        long deadline = System.nanoTime() + batchWindowNanos;
+        while(batch.size() < batchSize) {
+            Envelope envelope = queue.poll();
+            if(envelope != null) {
+                byte[] body = render(envelope);
+                if(body != null) {
+                    batch.add(body);
+                }
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if(!running || remaining <= 0) {
+                break;
+            }
+            idle = true;
+            if(queue.isEmpty() && running) {
+                LockSupport.parkNanos(this, remaining);
+            }
+            idle = false;
+        }
+
+        if(batch.size() == 1) {
+            send(firstBody);
+            return;
+        }
+        List<byte[]> merged = null;
+        long start = System.nanoTime();
+        try {
+            merged = PayloadMerger.merge(batch);
+        } catch (IllegalArgumentException e) {
+            addWarn("Failed to merge messages to slack. They are posted one by one.", e);
+        }
+        metrics.serialization.recordSince(start);
+        for(byte[] body : merged != null ? merged : batch) {
+            send(body);
+        }
+    }
+
+    /**
+     * Renders a message
+     *
+     * @param envelope message
+     * @return payload body in UTF-8 byte array, or null if posting is canceled or failed
+     */
+    private byte[] render(Envelope envelope) {
+        try {
+            return Pipeline.render(renderer, envelope.event, metrics);
+        } catch (Exception e) {
+            metrics.failed.increment();
+            metrics.error("Failed to post a log to slack.", e);
+            addError("Failed to post a log to slack.", e);
+            return null;
+        }
+    }
+
+    /**
+     * Sends a message
+     *
+     * @param body payload body in UTF-8 byte array
+     */
+    private void send(byte[] body) {
+        delivery.send(body, this::isCancelled);
+    }
+
+    /**
+     * Checks whether the sender should give up waiting to send
+     *
+     * @return true if stopped and the flush deadline has passed
+     */
+    private boolean isCancelled() {
+        return Thread.currentThread().isInterrupted()
+            || (!running && System.nanoTime() - flushDeadline >= 0);
+    }
+}
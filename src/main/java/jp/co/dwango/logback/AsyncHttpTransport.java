@@ -0,0 +1,167 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Keeps several posts in flight over persistent HTTP/1.1 connections.
+ *
+ * Each webhook has its own fixed set of I/O threads, so that up to that many requests to it are
+ * outstanding at once, whichever routes they come from, and the keep-alive cache holds a connection
+ * for each of them. The runtime keeps up to <code>http.maxConnections</code> idle connections per host
+ * (5 by default), which should not be lower than the number of threads.
+ *
+ * On Java 21 and later, posts may run on virtual threads instead, one per post, still up to the same
+ * number per webhook at once, so that blocking I/O does not hold platform threads.
+ *
+ * The transport does not order posts; senders which need their messages to arrive in order keep one
+ * post outstanding at a time.
+ */
+final class AsyncHttpTransport implements SlackTransport {
+    /**
+     * Webhook and the posts in flight to it
+     */
+    private static final class Endpoint {
+        /** transport to the webhook */
+        final HttpTransport transport;
+
+        /** threads which post to the webhook */
+        final ExecutorService executor;
+
+        /** permits of posts in flight on virtual threads, or null if the threads are the cap */
+        final Semaphore permits;
+
+        Endpoint(HttpTransport transport, ExecutorService executor, Semaphore permits) {
+            this.transport = transport;
+            this.executor = executor;
+            this.permits = permits;
+        }
+    }
+
+    /** prefix of the names of I/O threads */
+    private final String name;
+
+    /** connect timeout in milliseconds */
+    private final int connectTimeout;
+
+    /** read timeout in milliseconds */
+    private final int readTimeout;
+
+    /** maximum number of posts in flight per webhook */
+    private final int threads;
+
+    /** executor of virtual threads shared by the webhooks, or null if on platform threads */
+    private final ExecutorService virtualExecutor;
+
+    /** number of I/O threads created */
+    private final AtomicInteger count = new AtomicInteger();
+
+    /** webhooks by URL */
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    /** whether the transport is closed */
+    private volatile boolean closed;
+
+    /**
+     * Creates a transport
+     *
+     * @param name prefix of the names of I/O threads
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     * @param threads number of I/O threads per webhook, which is the maximum number of posts in flight to it
+     */
+    AsyncHttpTransport(String name, int connectTimeout, int readTimeout, int threads) {
+        this(name, connectTimeout, readTimeout, threads, false);
+    }
+
+    /**
+     * Creates a transport
+     *
+     * @param name prefix of the names of I/O threads
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     * @param threads maximum number of posts in flight per webhook
+     * @param virtual whether each post runs on a new virtual thread
+     * @throws UnsupportedOperationException if virtual and the runtime has no virtual threads
+     */
+    AsyncHttpTransport(String name, int connectTimeout, int readTimeout, int threads, boolean virtual) {
+        this.name = name;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.threads = Math.max(1, threads);
+        this.virtualExecutor = virtual ? DeliveryThreads.newVirtualThreadPerTaskExecutor(name + "-http-") : null;
+    }
+
+    /**
+     * @see jp.co.dwango.logback.SlackTransport#post(java.net.URL, byte[])
+     */
+    @Override
+    public CompletableFuture<Void> post(URL webhookUrl, byte[] body) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        if(closed) {
+            future.completeExceptionally(new IOException("Transport is closed"));
+            return future;
+        }
+        Endpoint endpoint = endpoints.computeIfAbsent(webhookUrl.toString(), key -> open(webhookUrl));
+        try {
+            endpoint.executor.execute(() -> {
+                if(endpoint.permits != null) {
+                    endpoint.permits.acquireUninterruptibly();
+                }
+                try {
+                    endpoint.transport.post(body);
+                    future.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    if(endpoint.permits != null) {
+                        endpoint.permits.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally(new IOException("Transport is closed", e));
+        }
+        return future;
+    }
+
+    /**
+     * Opens a webhook
+     *
+     * @param webhookUrl webhook URL
+     * @return webhook with no post in flight
+     */
+    private Endpoint open(URL webhookUrl) {
+        HttpTransport transport = new HttpTransport(webhookUrl, connectTimeout, readTimeout);
+        if(virtualExecutor != null) {
+            return new Endpoint(transport, virtualExecutor, new Semaphore(threads));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, name + "-http-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        return new Endpoint(transport, executor, null);
+    }
+
+    /**
+     * @see jp.co.dwango.logback.SlackTransport#close()
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if(virtualExecutor != null) {
+            virtualExecutor.shutdown();
+        }
+        for(Endpoint endpoint : endpoints.values()) {
+            endpoint.executor.shutdown();
+        }
+    }
+}
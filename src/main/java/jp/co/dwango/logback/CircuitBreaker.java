@@ -0,0 +1,128 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Circuit breaker shared by the appenders posting to the same webhook.
+ *
+ * It opens after consecutive transient failures, rejects posts while open,
+ * and lets a single probe through once the open duration has passed.
+ */
+final class CircuitBreaker {
+    /** breakers by webhook URL and settings */
+    private static final ConcurrentMap<String, CircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    /**
+     * State of a circuit breaker
+     */
+    enum State {
+        /** posts go through */
+        CLOSED,
+
+        /** posts are rejected */
+        OPEN,
+
+        /** a probe is in flight */
+        HALF_OPEN
+    }
+
+    /** number of consecutive failures which open the breaker */
+    private final int failureThreshold;
+
+    /** time in nanos the breaker stays open before probing */
+    private final long openNanos;
+
+    /** state */
+    private final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+
+    /** number of consecutive failures */
+    private final AtomicInteger failures = new AtomicInteger();
+
+    /** time in nanos when the breaker opened */
+    private volatile long openedAt;
+
+    /**
+     * Creates a circuit breaker
+     *
+     * @param failureThreshold number of consecutive failures which open the breaker, or 0 to never open
+     * @param openDuration time in milliseconds the breaker stays open before probing
+     */
+    CircuitBreaker(int failureThreshold, long openDuration) {
+        this.failureThreshold = failureThreshold;
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos(openDuration);
+    }
+
+    /**
+     * Gets the circuit breaker of a webhook
+     *
+     * @param webhookUrl URL of the webhook
+     * @param failureThreshold number of consecutive failures which open the breaker, or 0 to never open
+     * @param openDuration time in milliseconds the breaker stays open before probing
+     * @return breaker shared by the appenders posting to the webhook with the same settings
+     */
+    static CircuitBreaker forWebhook(String webhookUrl, int failureThreshold, long openDuration) {
+        return BREAKERS.computeIfAbsent(webhookUrl + '|' + failureThreshold + '|' + openDuration,
+            key -> new CircuitBreaker(failureThreshold, openDuration));
+    }
+
+    /**
+     * Gets state
+     *
+     * @return state
+     */
+    State getState() {
+        return state.get();
+    }
+
+    /**
+     * Asks for permission to post
+     *
+     * @return {@link State#CLOSED} if allowed, {@link State#HALF_OPEN} if allowed as the probe, or null if rejected
+     */
+    State tryAcquire() {
+        State current = state.get();
+        if(current == State.CLOSED) {
+            return State.CLOSED;
+        }
+        if(current == State.OPEN && System.nanoTime() - openedAt >= openNanos
+                && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+            return State.HALF_OPEN;
+        }
+        return null;
+    }
+
+    /**
+     * Records a post which reached Slack
+     *
+     * @return true if the breaker closed by this call
+     */
+    boolean onSuccess() {
+        failures.set(0);
+        return state.getAndSet(State.CLOSED) != State.CLOSED;
+    }
+
+    /**
+     * Records a transient failure
+     *
+     * @return true if the breaker opened by this call
+     */
+    boolean onFailure() {
+        int count = failures.incrementAndGet();
+        if(state.get() == State.HALF_OPEN) {
+            openedAt = System.nanoTime();
+            state.set(State.OPEN);
+            return true;
+        }
+        if(failureThreshold > 0 && count >= failureThreshold && state.get() == State.CLOSED) {
+            // written before opening, so that no one sees the breaker open with a stale time, and never while
+            // open, so that failures of posts which were in flight do not put the probe off
+            openedAt = System.nanoTime();
+            return state.compareAndSet(State.CLOSED, State.OPEN);
+        }
+        return false;
+    }
+}
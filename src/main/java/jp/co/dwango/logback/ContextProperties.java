@@ -0,0 +1,84 @@
+package jp.co.dwango.logback;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.qos.logback.classic.spi.LoggerContextVO;
+
+/**
+ * Snapshot of the properties of a logger context, falling back to system properties.
+ *
+ * A logger context creates a new {@link LoggerContextVO} whenever its properties change, so a
+ * snapshot is kept per value object identity. System properties are read once per snapshot.
+ */
+final class ContextProperties {
+    /** snapshot of the logger context last seen */
+    private static volatile ContextProperties last;
+
+    /** value object of the logger context, or null */
+    private final LoggerContextVO loggerContextVO;
+
+    /** properties looked up so far */
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    /** value of HOSTNAME, or null */
+    private final String hostname;
+
+    /**
+     * Takes a snapshot
+     *
+     * @param loggerContextVO value object of the logger context, or null
+     */
+    private ContextProperties(LoggerContextVO loggerContextVO) {
+        this.loggerContextVO = loggerContextVO;
+        if(loggerContextVO != null && loggerContextVO.getPropertyMap() != null) {
+            loggerContextVO.getPropertyMap().forEach((name, value) -> {
+                if(name != null && value != null) {
+                    values.put(name, value);
+                }
+            });
+        }
+        this.hostname = get("HOSTNAME");
+    }
+
+    /**
+     * Gets the snapshot of a logger context
+     *
+     * @param loggerContextVO value object of the logger context, or null
+     * @return snapshot
+     */
+    static ContextProperties of(LoggerContextVO loggerContextVO) {
+        ContextProperties properties = last;
+        if(properties == null || properties.loggerContextVO != loggerContextVO) {
+            properties = new ContextProperties(loggerContextVO);
+            last = properties;
+        }
+        return properties;
+    }
+
+    /**
+     * Gets a context property or a system property
+     *
+     * @param name name of the property
+     * @return value of the property, or null
+     */
+    String get(String name) {
+        String value = values.get(name);
+        if(value == null) {
+            value = System.getProperty(name);
+            if(value != null) {
+                values.put(name, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Gets hostname
+     *
+     * @return value of HOSTNAME, or null
+     */
+    String hostname() {
+        return hostname;
+    }
+}
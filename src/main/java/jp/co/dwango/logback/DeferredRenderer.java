@@ -0,0 +1,188 @@
+package jp.co.dwango.logback;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Renderer compiled on a background thread, so that starting the appender does not wait for
+ * the JavaScript engine to boot.
+ *
+ * The fields of events are worked out before compiling, so events can be captured and queued
+ * while the compilation is in progress. In async mode they wait in the dispatch queue and rendering
+ * waits for the compilation to complete. In sync mode they are held in a small queue instead, and the
+ * compiling thread posts them in order once it is done, so that logging threads do not wait for the
+ * JavaScript engine. If the compilation fails, the error is reported once, held events are dropped and
+ * every event renders to null.
+ */
+final class DeferredRenderer extends ContextAwareBase implements PayloadRenderer {
+    /** maximum number of events held while compiling in sync mode */
+    static final int MAX_HELD = 256;
+
+    /** fields of events which the compiled renderer reads */
+    private final EventFields fields;
+
+    /** compiles the renderer */
+    private final Callable<PayloadRenderer> compiler;
+
+    /** prefix of error messages */
+    private final String prefix;
+
+    /** metrics */
+    private final AppenderMetrics metrics;
+
+    /** compiled renderer */
+    private final CompletableFuture<PayloadRenderer> delegate = new CompletableFuture<>();
+
+    /** events held until the compilation and the posting of the ones before them complete */
+    private final Queue<ILoggingEvent> held = new ArrayDeque<>();
+
+    /** whether events are held rather than rendered */
+    private boolean holding = true;
+
+    /** posts held events on the compiling thread, or null if events are not held */
+    private volatile Consumer<ILoggingEvent> sink;
+
+    /**
+     * Creates a renderer which has not been compiled yet
+     *
+     * @param owner appender which status messages are reported as
+     * @param prefix prefix of error messages
+     * @param fields fields of events which the compiled renderer reads
+     * @param compiler compiles the renderer
+     * @param metrics metrics
+     */
+    DeferredRenderer(ContextAware owner, String prefix, EventFields fields, Callable<PayloadRenderer> compiler,
+            AppenderMetrics metrics) {
+        super(owner);
+        setContext(owner.getContext());
+        this.prefix = prefix;
+        this.fields = fields;
+        this.compiler = compiler;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts compiling on a daemon thread
+     *
+     * @param name name of the thread
+     * @param sink posts held events on the compiling thread, or null if events are not held
+     */
+    void start(String name, Consumer<ILoggingEvent> sink) {
+        this.sink = sink;
+        Thread thread = new Thread(this::compile, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Compiles the renderer, reporting errors
+     */
+    private void compile() {
+        try {
+            delegate.complete(compiler.call());
+        } catch (Exception | LinkageError e) {
+            addError(prefix + "Failed to compile the payload. Events are discarded. " + e.getMessage(), e);
+            synchronized(this) {
+                holding = false;
+                metrics.dropped.add(held.size());
+                held.clear();
+                delegate.completeExceptionally(e);
+            }
+            return;
+        }
+        release();
+    }
+
+    /**
+     * Posts held events in order until no more are held, then lets events be rendered as they come
+     */
+    private void release() {
+        while(true) {
+            List<ILoggingEvent> events;
+            synchronized(this) {
+                if(held.isEmpty()) {
+                    holding = false;
+                    return;
+                }
+                events = new ArrayList<>(held);
+                held.clear();
+            }
+            for(ILoggingEvent event : events) {
+                sink.accept(event);
+            }
+        }
+    }
+
+    /**
+     * Holds a snapshot of an event until the compilation completes, in sync mode
+     *
+     * @param event logging event
+     * @return false if the event should be rendered now
+     */
+    boolean hold(ILoggingEvent event) {
+        if(sink == null) {
+            return false;
+        }
+        synchronized(this) {
+            if(!holding) {
+                return false;
+            }
+            if(held.size() >= MAX_HELD) {
+                metrics.dropped.increment();
+            } else {
+                held.add(fields.capture(event));
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Checks whether the compilation has failed
+     *
+     * @return true if failed
+     */
+    boolean isFailed() {
+        return delegate.isCompletedExceptionally();
+    }
+
+    /**
+     * Renders a payload, waiting for the compilation to complete in async mode
+     *
+     * @param event logging event
+     * @return payload body in UTF-8 byte array, or null if posting is canceled, the compilation failed or
+     *     the thread was interrupted while waiting
+     * @throws Exception if the payload cannot be rendered
+     */
+    @Override
+    public byte[] render(ILoggingEvent event) throws Exception {
+        PayloadRenderer renderer;
+        try {
+            renderer = delegate.get();
+        } catch (ExecutionException e) {
+            // already reported
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return renderer.render(event);
+    }
+
+    /**
+     * @see jp.co.dwango.logback.PayloadRenderer#fields()
+     */
+    @Override
+    public EventFields fields() {
+        return fields;
+    }
+}
@@ -0,0 +1,568 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Posts rendered payloads to a webhook within its rate limit.
+ * The sender thread keeps up to <code>maxInFlight</code> posts outstanding, and their completions count
+ * the results and hand transient failures back to the sender thread to retry with backoff. A message
+ * waiting to be retried holds its permit, so with <code>maxInFlight</code> of 1 messages arrive in the
+ * order they were sent and a retried message blocks the ones behind it; with more, posts may overtake
+ * each other. Posts are rejected without trying while the circuit breaker of the webhook is open.
+ * Payloads over the size budget are split into several posts first.
+ * Payloads which cannot be delivered for transient reasons are spooled if a spool is given.
+ */
+final class Delivery extends ContextAwareBase {
+    /** pause when Slack responds 429 without Retry-After header */
+    private static final long DEFAULT_RETRY_AFTER_MILLIS = 1_000;
+
+    /** maximum number of times a message rejected with 429 is held and posted again */
+    static final int MAX_HOLDS = 10;
+
+    /** maximum time to sleep at once while waiting for a token */
+    private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * Destination of messages
+     */
+    interface Poster {
+        /**
+         * Starts posting to Slack
+         *
+         * @param body payload body in UTF-8 byte array
+         * @return future which completes exceptionally with {@link IOException} if the post fails
+         */
+        CompletableFuture<Void> post(byte[] body);
+    }
+
+    /**
+     * Message waiting to be posted again
+     */
+    private static final class Retry {
+        /** payload body in UTF-8 byte array */
+        final byte[] body;
+
+        /** number of retries so far */
+        final int retries;
+
+        /** number of times held after 429 so far */
+        final int holds;
+
+        /** time in nanos when the message is due */
+        final long due;
+
+        Retry(byte[] body, int retries, int holds, long due) {
+            this.body = body;
+            this.retries = retries;
+            this.holds = holds;
+            this.due = due;
+        }
+    }
+
+    /** poster */
+    private final Poster poster;
+
+    /** rate limiter of the webhook */
+    private final RateLimiter limiter;
+
+    /** circuit breaker of the webhook */
+    private final CircuitBreaker breaker;
+
+    /** retry policy of transient failures */
+    private final RetryPolicy retryPolicy;
+
+    /** spool of undeliverable messages, or null */
+    private final DiskSpool spool;
+
+    /** splitter of payloads over the size budget */
+    private final PayloadSplitter splitter;
+
+    /** metrics */
+    private final AppenderMetrics metrics;
+
+    /** permits of posts in flight, including the ones waiting to be retried */
+    private final Semaphore window;
+
+    /** maximum number of posts in flight */
+    private final int maxInFlight;
+
+    /** messages waiting to be retried, in order */
+    private final Queue<Retry> retries = new ConcurrentLinkedQueue<>();
+
+    /** thread which issues posts in async mode */
+    private volatile Thread sender;
+
+    /** whether completions spool rather than retry, after the sender stopped */
+    private volatile boolean closed;
+
+    /** whether messages have been dropped since the last post on the calling thread */
+    private volatile boolean throttling;
+
+    /** whether messages have been spooled since the last successful post */
+    private volatile boolean spooling;
+
+    /**
+     * Creates a delivery
+     *
+     * @param owner appender which status messages are reported as
+     * @param poster destination of messages
+     * @param limiter rate limiter of the webhook
+     * @param breaker circuit breaker of the webhook
+     * @param retryPolicy retry policy of transient failures
+     * @param spool spool of undeliverable messages, or null
+     * @param splitter splitter of payloads over the size budget
+     * @param maxInFlight maximum number of posts in flight in async mode
+     * @param metrics metrics
+     */
+    Delivery(ContextAware owner, Poster poster, RateLimiter limiter, CircuitBreaker breaker, RetryPolicy retryPolicy,
+            DiskSpool spool, PayloadSplitter splitter, int maxInFlight, AppenderMetrics metrics) {
+        super(owner);
+        setContext(owner.getContext());
+        this.poster = poster;
+        this.limiter = limiter;
+        this.breaker = breaker;
+        this.retryPolicy = retryPolicy;
+        this.spool = spool;
+        this.splitter = splitter;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.window = new Semaphore(this.maxInFlight);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Posts on the calling thread without waiting or retrying.
+     * Messages over the rate limit or rejected by the circuit breaker are spooled if possible, otherwise dropped.
+     *
+     * @param body payload body in UTF-8 byte array
+     * @return true if posted
+     */
+    boolean sendNow(byte[] body) {
+        boolean posted = true;
+        for(byte[] part : splitter.split(body)) {
+            posted &= sendPartNow(part);
+        }
+        return posted;
+    }
+
+    /**
+     * Posts a message within the size budget on the calling thread
+     *
+     * @param body payload body in UTF-8 byte array
+     * @return true if posted
+     */
+    private boolean sendPartNow(byte[] body) {
+        if(limiter.tryAcquire() > 0) {
+            if(!throttling) {
+                throttling = true;
+                addWarn("Rate limit of slack webhook exceeded. Messages are being "
+                    + (spool != null ? "spooled." : "dropped."));
+            }
+            spool(body);
+            return false;
+        }
+        throttling = false;
+        if(breaker.tryAcquire() == null) {
+            spool(body);
+            return false;
+        }
+        try {
+            await(post(body));
+            onSuccess();
+            return true;
+        } catch (Exception e) {
+            updateBreaker(e);
+            if(isRateLimited(e)) {
+                // nothing to hold it in on the calling thread
+                onThrottled((SlackResponseException) e);
+            } else {
+                onFailure(e);
+            }
+            if(isTransient(e)) {
+                spool(body);
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Issues posts on the sender thread, waiting for a token, for the pause requested by Slack to end and
+     * for a post in flight to complete if too many are. Transient failures are retried with backoff.
+     *
+     * @param body payload body in UTF-8 byte array
+     * @param cancelled tells when to give up waiting
+     * @return false if a part was spooled or dropped without being posted
+     */
+    boolean send(byte[] body, BooleanSupplier cancelled) {
+        this.sender = Thread.currentThread();
+        boolean issued = true;
+        for(byte[] part : splitter.split(body)) {
+            if(!acquire(cancelled)) {
+                spool(part);
+                issued = false;
+                continue;
+            }
+            issued &= issue(part, 0, 0, cancelled);
+        }
+        return issued;
+    }
+
+    /**
+     * Posts messages whose backoff has elapsed, on the sender thread
+     *
+     * @param cancelled tells when to give up waiting
+     * @return nanos until the next retry is due, or -1 if none is waiting
+     */
+    long retryDue(BooleanSupplier cancelled) {
+        Retry retry;
+        while((retry = retries.peek()) != null) {
+            long wait = retry.due - System.nanoTime();
+            if(cancelled.getAsBoolean()) {
+                retries.poll();
+                spool(retry.body);
+                window.release();
+                continue;
+            }
+            if(wait > 0) {
+                return wait;
+            }
+            retries.poll();
+            issue(retry.body, retry.retries, retry.holds, cancelled);
+        }
+        return -1;
+    }
+
+    /**
+     * Waits for the posts in flight and the retries, on the sender thread when it stops
+     *
+     * @param cancelled tells when to give up waiting
+     */
+    void drain(BooleanSupplier cancelled) {
+        while(window.availablePermits() < maxInFlight && !cancelled.getAsBoolean()) {
+            long wait = retryDue(cancelled);
+            LockSupport.parkNanos(this, wait >= 0 ? Math.min(wait, MAX_PARK_NANOS) : MAX_PARK_NANOS);
+        }
+        closed = true;
+        retryDue(() -> true);
+    }
+
+    /**
+     * Takes a permit of a post in flight, retrying due messages while waiting
+     *
+     * @param cancelled tells when to give up waiting
+     * @return false if cancelled
+     */
+    private boolean acquire(BooleanSupplier cancelled) {
+        while(!window.tryAcquire()) {
+            if(cancelled.getAsBoolean()) {
+                return false;
+            }
+            long wait = retryDue(cancelled);
+            if(window.tryAcquire()) {
+                return true;
+            }
+            LockSupport.parkNanos(this, wait >= 0 ? Math.min(wait, MAX_PARK_NANOS) : MAX_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Issues a post holding a permit, which is released when the message is finally posted or given up
+     *
+     * @param body payload body in UTF-8 byte array
+     * @param retried number of retries so far
+     * @param held number of times held after 429 so far
+     * @param cancelled tells when to give up waiting
+     * @return false if spooled or dropped without being posted
+     */
+    private boolean issue(byte[] body, int retried, int held, BooleanSupplier cancelled) {
+        long wait;
+        while((wait = limiter.tryAcquire()) > 0) {
+            if(cancelled.getAsBoolean()) {
+                spool(body);
+                window.release();
+                return false;
+            }
+            LockSupport.parkNanos(this, Math.min(wait, MAX_PARK_NANOS));
+        }
+        if(breaker.tryAcquire() == null) {
+            spool(body);
+            window.release();
+            return false;
+        }
+        post(body).whenComplete((result, error) -> complete(body, retried, held, error));
+        return true;
+    }
+
+    /**
+     * Handles the completion of a post issued by {@link #issue(byte[], int, int, BooleanSupplier)}
+     *
+     * @param body payload body in UTF-8 byte array
+     * @param retried number of retries so far
+     * @param held number of times held after 429 so far
+     * @param error cause of the failure, or null if posted
+     */
+    private void complete(byte[] body, int retried, int held, Throwable error) {
+        if(error == null) {
+            onSuccess();
+            release();
+            return;
+        }
+        Exception e = unwrap(error);
+        updateBreaker(e);
+        if(isRateLimited(e)) {
+            onThrottled((SlackResponseException) e);
+            if(held >= MAX_HOLDS) {
+                spool(body);
+                release();
+                return;
+            }
+            // holds the message until Slack accepts it again
+            retry(body, retried, held + 1, 0);
+            return;
+        }
+        if(!isTransient(e)) {
+            onFailure(e);
+            release();
+            return;
+        }
+        if(retried >= retryPolicy.maxRetries || breaker.getState() != CircuitBreaker.State.CLOSED) {
+            onFailure(e);
+            spool(body);
+            release();
+            return;
+        }
+        retry(body, retried + 1, held, retryPolicy.backoffNanos(retried));
+    }
+
+    /**
+     * Hands a message back to the sender thread to retry
+     *
+     * @param body payload body in UTF-8 byte array
+     * @param retried number of retries including this one
+     * @param held number of times held after 429 including this one
+     * @param backoffNanos backoff in nanos
+     */
+    private void retry(byte[] body, int retried, int held, long backoffNanos) {
+        if(closed) {
+            spool(body);
+            release();
+            return;
+        }
+        retries.add(new Retry(body, retried, held, System.nanoTime() + backoffNanos));
+        Thread sender = this.sender;
+        if(sender != null) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    /**
+     * Releases a permit of a post in flight and wakes the sender thread up
+     */
+    private void release() {
+        window.release();
+        Thread sender = this.sender;
+        if(sender != null) {
+            LockSupport.unpark(sender);
+        }
+    }
+
+    /**
+     * Posts spooled messages until the spool is empty or a post fails
+     */
+    void replay() {
+        if(spool == null) {
+            return;
+        }
+        byte[] body;
+        while((body = spool.peek()) != null) {
+            if(limiter.tryAcquire() > 0 || breaker.tryAcquire() == null) {
+                return;
+            }
+            try {
+                await(post(body));
+                spool.commit();
+                onSuccess();
+            } catch (Exception e) {
+                updateBreaker(e);
+                if(isTransient(e)) {
+                    if(isRateLimited(e)) {
+                        onThrottled((SlackResponseException) e);
+                    } else if(e instanceof SlackResponseException) {
+                        onFailure(e);
+                    }
+                    return;
+                }
+                // Slack will never accept it
+                spool.commit();
+                metrics.failed.increment();
+                metrics.error("Discarded a spooled log which slack rejected.", e);
+                addError("Discarded a spooled log which slack rejected.", e);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a failure may succeed if retried
+     *
+     * @param e cause
+     * @return true if an I/O error, 429 or 5xx
+     */
+    static boolean isTransient(Exception e) {
+        if(e instanceof SlackResponseException) {
+            int statusCode = ((SlackResponseException) e).getStatusCode();
+            return statusCode == 429 || statusCode >= 500;
+        }
+        return e instanceof IOException;
+    }
+
+    /**
+     * Checks whether Slack rejected a post with 429
+     *
+     * @param e cause
+     * @return true if rate limited
+     */
+    private static boolean isRateLimited(Exception e) {
+        return e instanceof SlackResponseException && ((SlackResponseException) e).isRateLimited();
+    }
+
+    /**
+     * Starts posting, measuring the round trip
+     *
+     * @param body payload body in UTF-8 byte array
+     * @return future of the post
+     */
+    private CompletableFuture<Void> post(byte[] body) {
+        long start = System.nanoTime();
+        CompletableFuture<Void> future;
+        try {
+            future = poster.post(body);
+        } catch (RuntimeException e) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        return future.whenComplete((result, error) -> metrics.http.recordSince(start));
+    }
+
+    /**
+     * Waits for a post to complete
+     *
+     * @param future future of the post
+     * @throws Exception if the post failed
+     */
+    private static void await(CompletableFuture<Void> future) throws Exception {
+        try {
+            future.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while posting", e);
+        }
+    }
+
+    /**
+     * Gets the cause of a failed future
+     *
+     * @param error error the future completed with
+     * @return cause
+     */
+    private static Exception unwrap(Throwable error) {
+        Throwable cause = error;
+        while((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause instanceof Exception ? (Exception) cause : new IOException(cause);
+    }
+
+    /**
+     * Spools an undeliverable message
+     *
+     * @param body payload body in UTF-8 byte array
+     */
+    private void spool(byte[] body) {
+        if(spool == null) {
+            metrics.dropped.increment();
+            return;
+        }
+        try {
+            if(!spool.append(body)) {
+                metrics.dropped.increment();
+                addWarn("A log is too large to spool. It is discarded.");
+                return;
+            }
+            metrics.spooled.increment();
+            if(!spooling) {
+                spooling = true;
+                addInfo("Logs undeliverable to slack are being spooled.");
+            }
+        } catch (IOException e) {
+            metrics.dropped.increment();
+            metrics.error("Failed to spool a log.", e);
+            addError("Failed to spool a log.", e);
+        }
+    }
+
+    /**
+     * Handles a successful post
+     */
+    private void onSuccess() {
+        metrics.posted.increment();
+        spooling = false;
+        if(breaker.onSuccess()) {
+            addInfo("Circuit breaker of slack webhook closed. Posting is resumed.");
+        }
+    }
+
+    /**
+     * Tells the circuit breaker whether a failed post reached Slack
+     *
+     * @param e cause
+     */
+    private void updateBreaker(Exception e) {
+        if(isTransient(e) && !isRateLimited(e)) {
+            if(breaker.onFailure()) {
+                addWarn("Circuit breaker of slack webhook opened. Messages are being "
+                    + (spool != null ? "spooled" : "dropped") + " until a probe succeeds.");
+            }
+        } else if(breaker.onSuccess()) {
+            // Slack answered, even if it did not accept the message
+            addInfo("Circuit breaker of slack webhook closed. Posting is resumed.");
+        }
+    }
+
+    /**
+     * Pauses posting for the period Slack asked for with 429, which is not counted as a failure
+     *
+     * @param e 429 response
+     */
+    private void onThrottled(SlackResponseException e) {
+        metrics.throttled.increment();
+        long retryAfter = e.getRetryAfterMillis();
+        limiter.pause(retryAfter >= 0 ? retryAfter : DEFAULT_RETRY_AFTER_MILLIS);
+        addWarn("Slack webhook is rate limited. Posting is paused for "
+            + (retryAfter >= 0 ? retryAfter : DEFAULT_RETRY_AFTER_MILLIS) + " milliseconds.");
+    }
+
+    /**
+     * Handles a failed post
+     *
+     * @param e cause
+     */
+    private void onFailure(Exception e) {
+        metrics.failed.increment();
+        metrics.error("Failed to post a log to slack.", e);
+        addError("Failed to post a log to slack.", e);
+    }
+}
@@ -0,0 +1,34 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Creates virtual threads which posts run on, where the runtime has them.
+ *
+ * This is the version for Java 8, which has no virtual threads. The multi-release jar replaces it
+ * with the one in <code>src/main/java21</code> when running on Java 21 or later.
+ */
+final class DeliveryThreads {
+    private DeliveryThreads() {
+    }
+
+    /**
+     * Checks whether the runtime has virtual threads
+     *
+     * @return false
+     */
+    static boolean isVirtualSupported() {
+        return false;
+    }
+
+    /**
+     * Creates an executor which runs each task on a new virtual thread
+     *
+     * @param name prefix of the names of threads
+     * @return executor
+     * @throws UnsupportedOperationException always
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        throw new UnsupportedOperationException("Virtual threads require Java 21 or later");
+    }
+}
@@ -0,0 +1,350 @@
+package jp.co.dwango.logback;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Counts events instead of posting them, and publishes a summary of the busiest ones per interval.
+ *
+ * Events are counted per level, logger and message pattern in a fixed table of striped counters.
+ * When the slots an event hashes to are taken by others, the one with the smallest count is handed
+ * over to it with its count, as in the Space-Saving algorithm. So heavy hitters stay in the table,
+ * memory does not grow with the number of distinct events, and counts are at most overestimated by
+ * what the slot had when taken over.
+ */
+final class DigestAggregator extends ContextAwareBase {
+    /** number of slots an event may be counted in */
+    private static final int PROBES = 8;
+
+    /** number of slots per row of the summary */
+    private static final int SLOTS_PER_ROW = 16;
+
+    /** maximum interval in milliseconds between checks whether a digest is due */
+    private static final long MAX_CHECK_INTERVAL_MILLIS = 1_000;
+
+    /** levels in ascending order */
+    private static final Level[] LEVELS = { Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR };
+
+    /**
+     * Level, logger and message pattern counted in a slot
+     */
+    private static final class Entry {
+        /** hash of the level, logger and message pattern */
+        final long key;
+
+        /** level */
+        final Level level;
+
+        /** logger name */
+        final String logger;
+
+        /** message pattern */
+        final String pattern;
+
+        /** count the slot had when taken over, by which the count may be overestimated */
+        final long error;
+
+        Entry(long key, ILoggingEvent event, long error) {
+            this.key = key;
+            this.level = event.getLevel();
+            this.logger = event.getLoggerName();
+            this.pattern = event.getMessage();
+            this.error = error;
+        }
+    }
+
+    /**
+     * Counters of an interval
+     */
+    private static final class Table {
+        /** time in milliseconds when the interval started */
+        final long startedAt;
+
+        /** entries of the slots */
+        final AtomicReferenceArray<Entry> entries;
+
+        /** counts of the slots */
+        final LongAdder[] counts;
+
+        /** counts per level in {@link #LEVELS} */
+        final LongAdder[] levels = new LongAdder[LEVELS.length];
+
+        /** logger context of the counted events, for payloads reading its properties */
+        volatile LoggerContextVO loggerContextVO;
+
+        Table(int capacity, long startedAt) {
+            this.startedAt = startedAt;
+            this.entries = new AtomicReferenceArray<>(capacity);
+            this.counts = new LongAdder[capacity];
+            for(int i = 0; i < capacity; i++) {
+                counts[i] = new LongAdder();
+            }
+            for(int i = 0; i < levels.length; i++) {
+                levels[i] = new LongAdder();
+            }
+        }
+    }
+
+    /** length of intervals in milliseconds */
+    private final long interval;
+
+    /** events at or below this level are counted */
+    private final Level maxLevel;
+
+    /** maximum number of rows of a summary */
+    private final int rows;
+
+    /** number of slots, a power of 2 */
+    private final int capacity;
+
+    /** where summaries are published */
+    private final Consumer<ILoggingEvent> publisher;
+
+    /** counters of the current interval */
+    private final AtomicReference<Table> table = new AtomicReference<>();
+
+    /** time in milliseconds of the next check when no scheduler is available */
+    private final AtomicLong nextCheck = new AtomicLong();
+
+    /** publisher scheduled on the context */
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * Creates an aggregator
+     *
+     * @param owner appender which status messages are reported as
+     * @param interval length of intervals in milliseconds
+     * @param maxLevel events at or below this level are counted
+     * @param rows maximum number of rows of a summary
+     * @param publisher where summaries are published
+     */
+    DigestAggregator(ContextAware owner, long interval, Level maxLevel, int rows, Consumer<ILoggingEvent> publisher) {
+        super(owner);
+        setContext(owner.getContext());
+        this.interval = Math.max(1, interval);
+        this.maxLevel = maxLevel;
+        this.rows = Math.max(1, rows);
+        this.capacity = Math.max(PROBES, Integer.highestOneBit(this.rows * SLOTS_PER_ROW - 1) << 1);
+        this.publisher = publisher;
+    }
+
+    /**
+     * Starts publishing summaries periodically if the context has a scheduler
+     */
+    void start() {
+        long now = System.currentTimeMillis();
+        table.set(new Table(capacity, now));
+        nextCheck.set(now + Math.min(interval, MAX_CHECK_INTERVAL_MILLIS));
+        if(getContext() != null) {
+            ScheduledExecutorService scheduler = getContext().getScheduledExecutorService();
+            this.scheduled = scheduler.scheduleAtFixedRate(() -> publish(false), interval, interval, TimeUnit.MILLISECONDS);
+            getContext().addScheduledFuture(scheduled);
+        }
+    }
+
+    /**
+     * Stops publishing and publishes the summary of the current interval
+     */
+    void stop() {
+        if(scheduled != null) {
+            scheduled.cancel(false);
+            scheduled = null;
+        }
+        publish(true);
+    }
+
+    /**
+     * Counts an event if it is digested
+     *
+     * @param event logging event
+     * @return true if counted, false if the event should be posted
+     */
+    boolean count(ILoggingEvent event) {
+        Level level = event.getLevel();
+        if(level == null || !maxLevel.isGreaterOrEqual(level)) {
+            return false;
+        }
+        if(scheduled == null) {
+            publishIfDue(System.currentTimeMillis());
+        }
+        Table current = table.get();
+        if(current == null) {
+            return false;
+        }
+        current.levels[levelIndex(level)].increment();
+        if(current.loggerContextVO == null) {
+            current.loggerContextVO = event.getLoggerContextVO();
+        }
+
+        long key = Fingerprint.mix(Fingerprint.mix(Fingerprint.mix(Fingerprint.SEED, event.getLoggerName()),
+            level.levelStr), event.getMessage());
+        int mask = capacity - 1;
+        int start = (int) (key ^ (key >>> 32)) & mask;
+        for(int probe = 0; probe < PROBES; probe++) {
+            int i = (start + probe) & mask;
+            Entry entry = current.entries.get(i);
+            if(entry == null) {
+                if(current.entries.compareAndSet(i, null, new Entry(key, event, 0))) {
+                    current.counts[i].increment();
+                    return true;
+                }
+                entry = current.entries.get(i);
+            }
+            if(entry.key == key) {
+                current.counts[i].increment();
+                return true;
+            }
+        }
+
+        // takes over the slot with the smallest count
+        int victim = start;
+        long min = Long.MAX_VALUE;
+        for(int probe = 0; probe < PROBES; probe++) {
+            int i = (start + probe) & mask;
+            long count = current.counts[i].sum();
+            if(count < min) {
+                min = count;
+                victim = i;
+            }
+        }
+        Entry replaced = current.entries.get(victim);
+        if(replaced == null || replaced.key == key
+                || current.entries.compareAndSet(victim, replaced, new Entry(key, event, min))) {
+            current.counts[victim].increment();
+        }
+        return true;
+    }
+
+    /**
+     * Publishes a summary if the time has come, when no scheduler is available
+     *
+     * @param now current time in milliseconds
+     */
+    private void publishIfDue(long now) {
+        long due = nextCheck.get();
+        if(now >= due && nextCheck.compareAndSet(due, now + Math.min(interval, MAX_CHECK_INTERVAL_MILLIS))) {
+            Table current = table.get();
+            if(current != null && now - current.startedAt >= interval) {
+                publish(false);
+            }
+        }
+    }
+
+    /**
+     * Starts a new interval and publishes the summary of the last one
+     *
+     * @param last if true, no new interval is started
+     */
+    private void publish(boolean last) {
+        long now = System.currentTimeMillis();
+        Table closed = table.getAndSet(last ? null : new Table(capacity, now));
+        if(closed == null) {
+            return;
+        }
+        ILoggingEvent summary = summarize(closed, now);
+        if(summary == null) {
+            return;
+        }
+        try {
+            publisher.accept(summary);
+        } catch (Exception e) {
+            addError("Failed to publish a digest of logs.", e);
+        }
+    }
+
+    /**
+     * Creates a summary event of an interval
+     *
+     * @param closed counters of the interval
+     * @param now current time in milliseconds
+     * @return summary event, or null if nothing was counted
+     */
+    private ILoggingEvent summarize(Table closed, long now) {
+        long total = 0;
+        Level highest = null;
+        StringBuilder totals = new StringBuilder();
+        for(int i = LEVELS.length - 1; i >= 0; i--) {
+            long count = closed.levels[i].sum();
+            if(count > 0) {
+                total += count;
+                highest = highest != null ? highest : LEVELS[i];
+                totals.append(totals.length() > 0 ? ", " : "").append(LEVELS[i].levelStr).append(' ')
+                    .append(String.format(Locale.ROOT, "%,d", count));
+            }
+        }
+        if(total == 0) {
+            return null;
+        }
+
+        List<Integer> slots = new ArrayList<>();
+        long[] counts = new long[capacity];
+        for(int i = 0; i < capacity; i++) {
+            counts[i] = closed.counts[i].sum();
+            if(closed.entries.get(i) != null && counts[i] > 0) {
+                slots.add(i);
+            }
+        }
+        slots.sort((a, b) -> Long.compare(counts[b], counts[a]));
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "Digest of %,d logs in %d s (%s)", total,
+            Math.max(1, TimeUnit.MILLISECONDS.toSeconds(now - closed.startedAt)), totals));
+        long shown = 0;
+        for(int n = 0; n < slots.size() && n < rows; n++) {
+            int i = slots.get(n);
+            Entry entry = closed.entries.get(i);
+            shown += counts[i];
+            sb.append(String.format(Locale.ROOT, "\n%s%,d  %s  %s  %s", entry.error > 0 ? "~" : "", counts[i],
+                entry.level, entry.logger, entry.pattern));
+        }
+        if(total > shown) {
+            sb.append(String.format(Locale.ROOT, "\n+%,d others", total - shown));
+        }
+
+        LoggingEvent summary = new LoggingEvent();
+        summary.setLevel(highest);
+        summary.setLoggerName(DigestAggregator.class.getName());
+        summary.setThreadName(Thread.currentThread().getName());
+        summary.setTimeStamp(now);
+        summary.setMessage(sb.toString());
+        summary.setLoggerContextRemoteView(closed.loggerContextVO);
+        return summary;
+    }
+
+    /**
+     * Gets the index of a level in {@link #LEVELS}
+     *
+     * @param level level
+     * @return index
+     */
+    private static int levelIndex(Level level) {
+        switch(level.toInt()) {
+        case Level.TRACE_INT:
+            return 0;
+        case Level.DEBUG_INT:
+            return 1;
+        case Level.INFO_INT:
+            return 2;
+        case Level.WARN_INT:
+            return 3;
+        default:
+            return 4;
+        }
+    }
+}
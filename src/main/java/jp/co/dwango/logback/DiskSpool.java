@@ -0,0 +1,357 @@
+package jp.co.dwango.logback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only journal of undeliverable payloads in memory-mapped segment files.
+ *
+ * A record is the length and the CRC-32 of the payload followed by the payload. Records are appended
+ * to the newest segment and read from the checkpointed offset, which survives restarts. When the
+ * journal grows over its cap, the oldest segment is discarded.
+ */
+final class DiskSpool {
+    /** size of a record header; length and CRC-32 */
+    private static final int HEADER_SIZE = 8;
+
+    /** size of the checkpoint; segment, position and CRC-32 */
+    private static final int CHECKPOINT_SIZE = 20;
+
+    /** prefix of segment file names */
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    /** suffix of segment file names */
+    private static final String SEGMENT_SUFFIX = ".spool";
+
+    /** name of the checkpoint file */
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    /** directory */
+    private final File directory;
+
+    /** size of a segment in bytes */
+    private final int segmentSize;
+
+    /** maximum number of segments */
+    private final int maxSegments;
+
+    /** indexes of existing segments, oldest first */
+    private final Deque<Long> segments = new ArrayDeque<>();
+
+    /** checksum calculator */
+    private final CRC32 crc = new CRC32();
+
+    /** checkpoint */
+    private final MappedByteBuffer checkpoint;
+
+    /** segment being written */
+    private MappedByteBuffer writeBuffer;
+
+    /** index of the segment being written */
+    private long writeSegment;
+
+    /** segment being read */
+    private MappedByteBuffer readBuffer;
+
+    /** index of the segment being read */
+    private long readSegment;
+
+    /** offset of the next record to read */
+    private int readPosition;
+
+    /** offset just after the record returned by {@link #peek()}, or -1 */
+    private int peekedEnd = -1;
+
+    /** number of records discarded because the journal was full */
+    private long discarded;
+
+    /**
+     * Opens a spool, resuming from the checkpoint if the directory has one
+     *
+     * @param directory directory
+     * @param segmentSize size of a segment in bytes
+     * @param maxSize maximum size of the journal in bytes
+     * @throws IOException if an I/O exception occurs.
+     */
+    DiskSpool(File directory, int segmentSize, long maxSize) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create spool directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.maxSegments = (int) Math.max(2, maxSize / segmentSize);
+
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        long[] indexes = new long[files != null ? files.length : 0];
+        for(int i = 0; i < indexes.length; i++) {
+            String name = files[i].getName();
+            indexes[i] = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        }
+        Arrays.sort(indexes);
+        for(long index : indexes) {
+            segments.addLast(index);
+        }
+        if(segments.isEmpty()) {
+            segments.addLast(0L);
+        }
+
+        this.checkpoint = map(new File(directory, CHECKPOINT_FILE), CHECKPOINT_SIZE);
+        long savedSegment = checkpoint.getLong(0);
+        int savedPosition = (int) checkpoint.getLong(8);
+        crc.reset();
+        for(int i = 0; i < 16; i++) {
+            crc.update(checkpoint.get(i));
+        }
+        if((int) crc.getValue() != checkpoint.getInt(16) || savedSegment < segments.peekFirst() || savedSegment > segments.peekLast()) {
+            savedSegment = segments.peekFirst();
+            savedPosition = 0;
+        }
+
+        this.writeSegment = segments.peekLast();
+        this.writeBuffer = mapSegment(writeSegment);
+        writeBuffer.position(scanEnd(writeBuffer));
+
+        this.readSegment = savedSegment;
+        this.readBuffer = readSegment == writeSegment ? writeBuffer : mapSegment(readSegment);
+        this.readPosition = readSegment == writeSegment ? Math.min(savedPosition, writeBuffer.position()) : savedPosition;
+
+        // deletes segments which were read before the restart
+        while(segments.peekFirst() < readSegment) {
+            segmentFile(segments.removeFirst()).delete();
+        }
+    }
+
+    /**
+     * Appends a payload
+     *
+     * @param body payload body in UTF-8 byte array
+     * @return false if the payload is larger than a segment
+     * @throws IOException if an I/O exception occurs.
+     */
+    synchronized boolean append(byte[] body) throws IOException {
+        if(body.length > segmentSize - HEADER_SIZE * 2) {
+            return false;
+        }
+        if(writeBuffer.remaining() < HEADER_SIZE + body.length + HEADER_SIZE) {
+            rotate();
+        }
+        crc.reset();
+        crc.update(body, 0, body.length);
+        int position = writeBuffer.position();
+        writeBuffer.putInt(position + 4, (int) crc.getValue());
+        writeBuffer.position(position + HEADER_SIZE);
+        writeBuffer.put(body);
+        // the length is written last, so that readers never see a partial record
+        writeBuffer.putInt(position, body.length);
+        return true;
+    }
+
+    /**
+     * Reads the oldest payload without removing it
+     *
+     * @return payload body in UTF-8 byte array, or null if the journal is empty
+     */
+    synchronized byte[] peek() {
+        for(;;) {
+            int length = readPosition + HEADER_SIZE <= segmentSize ? readBuffer.getInt(readPosition) : 0;
+            if(length <= 0 || readPosition + HEADER_SIZE + length > segmentSize) {
+                if(readSegment == writeSegment || !nextReadSegment()) {
+                    return null;
+                }
+                continue;
+            }
+            byte[] body = new byte[length];
+            ByteBuffer record = readBuffer.duplicate();
+            record.position(readPosition + HEADER_SIZE);
+            record.get(body);
+            crc.reset();
+            crc.update(body, 0, length);
+            if((int) crc.getValue() != readBuffer.getInt(readPosition + 4)) {
+                // torn or corrupted record; the rest of the segment cannot be trusted
+                if(readSegment == writeSegment || !nextReadSegment()) {
+                    return null;
+                }
+                continue;
+            }
+            peekedEnd = readPosition + HEADER_SIZE + length;
+            return body;
+        }
+    }
+
+    /**
+     * Removes the payload returned by the last {@link #peek()} and checkpoints the read offset
+     */
+    synchronized void commit() {
+        if(peekedEnd < 0) {
+            return;
+        }
+        readPosition = peekedEnd;
+        peekedEnd = -1;
+        saveCheckpoint();
+    }
+
+    /**
+     * Checks whether the journal is empty
+     *
+     * @return true if there is nothing to replay
+     */
+    synchronized boolean isEmpty() {
+        return readSegment == writeSegment
+            && (readPosition + HEADER_SIZE > segmentSize || readBuffer.getInt(readPosition) <= 0);
+    }
+
+    /**
+     * Gets the number of records discarded because the journal was full
+     *
+     * @return number of discarded records
+     */
+    synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * Flushes mapped segments to the disk
+     */
+    synchronized void flush() {
+        writeBuffer.force();
+        checkpoint.force();
+    }
+
+    /**
+     * Starts a new segment, discarding the oldest one if the journal is full
+     *
+     * @throws IOException if an I/O exception occurs.
+     */
+    private void rotate() throws IOException {
+        writeSegment++;
+        segments.addLast(writeSegment);
+        writeBuffer = mapSegment(writeSegment);
+        while(segments.size() > maxSegments) {
+            long oldest = segments.peekFirst();
+            if(oldest == readSegment) {
+                discarded += countRecords(readBuffer, readPosition);
+                nextReadSegment();
+            } else {
+                segments.removeFirst();
+                segmentFile(oldest).delete();
+            }
+        }
+    }
+
+    /**
+     * Moves the reader to the next segment and deletes the finished one
+     *
+     * @return false if there is no next segment
+     */
+    private boolean nextReadSegment() {
+        if(readSegment == writeSegment) {
+            return false;
+        }
+        long finished = readSegment;
+        segments.remove(finished);
+        segmentFile(finished).delete();
+        readSegment = segments.peekFirst();
+        try {
+            readBuffer = readSegment == writeSegment ? writeBuffer : mapSegment(readSegment);
+        } catch (IOException e) {
+            // skips an unreadable segment
+            segments.remove(readSegment);
+            return nextReadSegment();
+        }
+        readPosition = 0;
+        peekedEnd = -1;
+        saveCheckpoint();
+        return true;
+    }
+
+    /**
+     * Saves the read offset
+     */
+    private void saveCheckpoint() {
+        checkpoint.putLong(0, readSegment);
+        checkpoint.putLong(8, readPosition);
+        crc.reset();
+        for(int i = 0; i < 16; i++) {
+            crc.update(checkpoint.get(i));
+        }
+        checkpoint.putInt(16, (int) crc.getValue());
+    }
+
+    /**
+     * Finds the end of the valid records in the segment to write, and clears a record torn by a crash
+     * after them, so that new records overwrite it instead of being appended behind it
+     *
+     * @param buffer segment
+     * @return offset just after the last valid record
+     */
+    private int scanEnd(MappedByteBuffer buffer) {
+        int position = 0;
+        while(position + HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || position + HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            ByteBuffer record = buffer.duplicate();
+            record.limit(position + HEADER_SIZE + length);
+            record.position(position + HEADER_SIZE);
+            crc.reset();
+            crc.update(record);
+            if((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+        }
+        if(position + HEADER_SIZE <= segmentSize && buffer.getInt(position) != 0) {
+            byte[] zeros = new byte[Math.min(4096, segmentSize - position)];
+            for(int i = position; i < segmentSize; i += zeros.length) {
+                ByteBuffer tail = buffer.duplicate();
+                tail.position(i);
+                tail.put(zeros, 0, Math.min(zeros.length, segmentSize - i));
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Counts records from an offset
+     *
+     * @param buffer segment
+     * @param from offset
+     * @return number of records
+     */
+    private int countRecords(MappedByteBuffer buffer, int from) {
+        int count = 0;
+        int position = from;
+        while(position + HEADER_SIZE <= segmentSize) {
+            int length = buffer.getInt(position);
+            if(length <= 0 || position + HEADER_SIZE + length > segmentSize) {
+                break;
+            }
+            position += HEADER_SIZE + length;
+            count++;
+        }
+        return count;
+    }
+
+    private MappedByteBuffer mapSegment(long index) throws IOException {
+        return map(segmentFile(index), segmentSize);
+    }
+
+    private File segmentFile(long index) {
+        return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package jp.co.dwango.logback;
+
+/**
+ * What to discard when the dispatch queue of {@link SlackWebhookAppender} is full.
+ */
+public enum DropPolicy {
+    /** discards the message being appended */
+    DROP_NEWEST,
+
+    /** discards the oldest queued message to make room */
+    DROP_OLDEST,
+
+    /**
+     * discards the message being appended if its level is below the drop threshold,
+     * otherwise discards the oldest queued message to make room
+     */
+    DROP_BELOW_LEVEL
+}
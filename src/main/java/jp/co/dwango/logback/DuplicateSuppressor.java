@@ -0,0 +1,242 @@
+package jp.co.dwango.logback;
+
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Suppresses repeated events before they are rendered.
+ *
+ * The first occurrence of an event opens a window. Repeats within the window are only counted,
+ * and a summary is published when the window closes. Windows are kept in a bounded cache
+ * which evicts with the clock (second chance) algorithm.
+ */
+final class DuplicateSuppressor extends ContextAwareBase {
+    /** maximum interval in milliseconds between sweeps of closed windows */
+    private static final long MAX_SWEEP_INTERVAL_MILLIS = 1_000;
+
+    /**
+     * Window opened by the first occurrence of an event
+     */
+    private static final class Window {
+        /** first occurrence */
+        final ILoggingEvent first;
+
+        /** time in milliseconds when the window opened */
+        final long openedAt;
+
+        /** number of repeats */
+        final AtomicInteger repeats = new AtomicInteger();
+
+        /** whether the window was hit since the clock hand last passed */
+        volatile boolean referenced;
+
+        Window(ILoggingEvent first, long openedAt) {
+            this.first = first;
+            this.openedAt = openedAt;
+        }
+    }
+
+    /** windows by fingerprint */
+    private final ConcurrentHashMap<Long, Window> windows = new ConcurrentHashMap<>();
+
+    /** length of windows in milliseconds */
+    private final long window;
+
+    /** maximum number of windows */
+    private final int capacity;
+
+    /** number of top stack frames in fingerprints */
+    private final int stackDepth;
+
+    /** where summaries are published */
+    private final Consumer<ILoggingEvent> publisher;
+
+    /** time in milliseconds of the next sweep when no scheduler is available */
+    private final AtomicLong nextSweep = new AtomicLong();
+
+    /** sweeper scheduled on the context */
+    private ScheduledFuture<?> sweeper;
+
+    /**
+     * Creates a suppressor
+     *
+     * @param owner appender which status messages are reported as
+     * @param window length of windows in milliseconds
+     * @param capacity maximum number of windows
+     * @param stackDepth number of top stack frames in fingerprints
+     * @param publisher where summaries are published
+     */
+    DuplicateSuppressor(ContextAware owner, long window, int capacity, int stackDepth, Consumer<ILoggingEvent> publisher) {
+        super(owner);
+        setContext(owner.getContext());
+        this.window = window;
+        this.capacity = Math.max(1, capacity);
+        this.stackDepth = stackDepth;
+        this.publisher = publisher;
+    }
+
+    /**
+     * Starts sweeping closed windows periodically if the context has a scheduler
+     */
+    void start() {
+        long interval = Math.min(window, MAX_SWEEP_INTERVAL_MILLIS);
+        nextSweep.set(System.currentTimeMillis() + interval);
+        if(getContext() != null) {
+            ScheduledExecutorService scheduler = getContext().getScheduledExecutorService();
+            this.sweeper = scheduler.scheduleAtFixedRate(() -> sweep(false), interval, interval, TimeUnit.MILLISECONDS);
+            getContext().addScheduledFuture(sweeper);
+        }
+    }
+
+    /**
+     * Stops sweeping and publishes the summaries of all windows
+     */
+    void stop() {
+        if(sweeper != null) {
+            sweeper.cancel(false);
+            sweeper = null;
+        }
+        sweep(true);
+    }
+
+    /**
+     * Decides whether an event should be posted
+     *
+     * @param event logging event
+     * @return false if the event repeats one in an open window
+     */
+    boolean shouldPost(ILoggingEvent event) {
+        long now = System.currentTimeMillis();
+        if(sweeper == null) {
+            sweepIfDue(now);
+        }
+
+        Long fingerprint = Fingerprint.of(event, stackDepth);
+        Window current = windows.get(fingerprint);
+        if(current != null && now - current.openedAt < window) {
+            current.repeats.incrementAndGet();
+            current.referenced = true;
+            return false;
+        }
+
+        if(windows.size() >= capacity) {
+            evict();
+        }
+        event.prepareForDeferredProcessing();
+        Window opened = new Window(event, now);
+        if(current != null ? windows.replace(fingerprint, current, opened) : windows.putIfAbsent(fingerprint, opened) == null) {
+            if(current != null) {
+                close(current);
+            }
+            return true;
+        }
+        // another thread opened the window first
+        Window other = windows.get(fingerprint);
+        if(other != null) {
+            other.repeats.incrementAndGet();
+        }
+        return false;
+    }
+
+    /**
+     * Sweeps if the time has come, when no scheduler is available
+     *
+     * @param now current time in milliseconds
+     */
+    private void sweepIfDue(long now) {
+        long due = nextSweep.get();
+        if(now >= due && nextSweep.compareAndSet(due, now + Math.min(window, MAX_SWEEP_INTERVAL_MILLIS))) {
+            sweep(false);
+        }
+    }
+
+    /**
+     * Removes closed windows and publishes their summaries
+     *
+     * @param all if true, removes all windows
+     */
+    private void sweep(boolean all) {
+        long now = System.currentTimeMillis();
+        for(Iterator<Map.Entry<Long, Window>> it = windows.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, Window> entry = it.next();
+            if(all || now - entry.getValue().openedAt >= window) {
+                if(windows.remove(entry.getKey(), entry.getValue())) {
+                    close(entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes room for a new window, preferring closed and unreferenced ones
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        for(int pass = 0; pass < 2 && windows.size() >= capacity; pass++) {
+            for(Map.Entry<Long, Window> entry : windows.entrySet()) {
+                Window candidate = entry.getValue();
+                if(now - candidate.openedAt < window && candidate.referenced) {
+                    // second chance
+                    candidate.referenced = false;
+                    continue;
+                }
+                if(windows.remove(entry.getKey(), candidate)) {
+                    close(candidate);
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Publishes the summary of a window if the event was repeated
+     *
+     * @param closed closed window
+     */
+    private void close(Window closed) {
+        int repeats = closed.repeats.get();
+        if(repeats == 0) {
+            return;
+        }
+        try {
+            publisher.accept(summarize(closed.first, repeats, System.currentTimeMillis() - closed.openedAt));
+        } catch (Exception e) {
+            addError("Failed to publish a summary of repeated logs.", e);
+        }
+    }
+
+    /**
+     * Creates a summary event of repeats
+     *
+     * @param first first occurrence
+     * @param repeats number of repeats
+     * @param elapsed elapsed time in milliseconds since the first occurrence
+     * @return summary event
+     */
+    private static ILoggingEvent summarize(ILoggingEvent first, int repeats, long elapsed) {
+        LoggingEvent summary = new LoggingEvent();
+        summary.setLevel(first.getLevel());
+        summary.setLoggerName(first.getLoggerName());
+        summary.setThreadName(first.getThreadName());
+        summary.setLoggerContextRemoteView(first.getLoggerContextVO());
+        summary.setMarker(first.getMarker());
+        summary.setMDCPropertyMap(first.getMDCPropertyMap());
+        summary.setTimeStamp(System.currentTimeMillis());
+        summary.setMessage(String.format(Locale.ROOT, "%s (repeated %,d times in %d s)",
+            first.getFormattedMessage(), repeats, Math.max(1, TimeUnit.MILLISECONDS.toSeconds(elapsed))));
+        return summary;
+    }
+}
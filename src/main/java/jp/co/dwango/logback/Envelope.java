@@ -0,0 +1,30 @@
+package jp.co.dwango.logback;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * A message waiting in the dispatch queue.
+ */
+final class Envelope {
+    /** snapshot of the event to render on the sender thread */
+    final ILoggingEvent event;
+
+    /** level of the event */
+    final Level level;
+
+    /** lane of the dispatch queue */
+    final int lane;
+
+    /**
+     * Creates an envelope
+     * 
+     * @param event snapshot of the event
+     * @param lane lane of the dispatch queue
+     */
+    Envelope(ILoggingEvent event, int lane) {
+        this.event = event;
+        this.level = event.getLevel();
+        this.lane = lane;
+    }
+}
@@ -0,0 +1,193 @@
+package jp.co.dwango.logback;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Set of event accessors which a payload uses, worked out when the payload is compiled.
+ *
+ * Events are captured into {@link EventSnapshot}s holding only these fields before they are handed
+ * over to another thread, so the calling thread does not format messages, copy MDC or walk the stack
+ * for a payload which never reads them. The level is always captured for the drop policy.
+ */
+final class EventFields {
+    /** {@link ILoggingEvent#getLevel()} */
+    static final int LEVEL = 1;
+
+    /** {@link ILoggingEvent#getFormattedMessage()} */
+    static final int MESSAGE = 1 << 1;
+
+    /** {@link ILoggingEvent#getMessage()} and {@link ILoggingEvent#getArgumentArray()} */
+    static final int ARGUMENTS = 1 << 2;
+
+    /** {@link ILoggingEvent#getTimeStamp()} */
+    static final int TIMESTAMP = 1 << 3;
+
+    /** {@link ILoggingEvent#getLoggerName()} */
+    static final int LOGGER = 1 << 4;
+
+    /** {@link ILoggingEvent#getThreadName()} */
+    static final int THREAD = 1 << 5;
+
+    /** {@link ILoggingEvent#getLoggerContextVO()}, which holds context properties */
+    static final int CONTEXT = 1 << 6;
+
+    /** whole {@link ILoggingEvent#getMDCPropertyMap()} */
+    static final int MDC = 1 << 7;
+
+    /** {@link ILoggingEvent#getMarker()} */
+    static final int MARKER = 1 << 8;
+
+    /** {@link ILoggingEvent#getThrowableProxy()} */
+    static final int THROWABLE = 1 << 9;
+
+    /** {@link ILoggingEvent#getCallerData()} */
+    static final int CALLER_DATA = 1 << 10;
+
+    /** all fields */
+    static final int ALL = (1 << 11) - 1;
+
+    /** captured fields */
+    private int mask = LEVEL;
+
+    /** MDC keys captured one by one when the whole MDC is not */
+    private final Set<String> mdcKeys = new LinkedHashSet<>();
+
+    /**
+     * Creates a set of all fields
+     *
+     * @return set of all fields
+     */
+    static EventFields all() {
+        return new EventFields().require(ALL);
+    }
+
+    /**
+     * Adds fields
+     *
+     * @param fields bitwise OR of fields
+     * @return this
+     */
+    EventFields require(int fields) {
+        mask |= fields;
+        return this;
+    }
+
+    /**
+     * Adds an MDC key
+     *
+     * @param key MDC key
+     * @return this
+     */
+    EventFields requireMdc(String key) {
+        mdcKeys.add(key);
+        return this;
+    }
+
+    /**
+     * Checks whether a field is captured
+     *
+     * @param field field
+     * @return true if the field is captured
+     */
+    boolean has(int field) {
+        return (mask & field) == field;
+    }
+
+    /**
+     * Captures the fields of an event on the calling thread
+     *
+     * @param event logging event
+     * @return snapshot
+     */
+    EventSnapshot capture(ILoggingEvent event) {
+        return new EventSnapshot(event, mask, has(MDC) ? null : mdcKeys.toArray(new String[0]));
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        String[] names = { "level", "message", "arguments", "timestamp", "logger", "thread", "context", "mdc",
+            "marker", "throwable", "callerData" };
+        for(int i = 0; i < names.length; i++) {
+            if(has(1 << i)) {
+                sb.append(sb.length() > 0 ? "," : "").append(names[i]);
+            }
+        }
+        if(!has(MDC)) {
+            for(String key : mdcKeys) {
+                sb.append(",mdc:").append(key);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Gets the field read by an accessor of {@link ILoggingEvent}
+     *
+     * @param accessor name of a method, or of a bean property as scripts may refer to
+     * @return field, or {@link #ALL} if unknown
+     */
+    static int ofAccessor(String accessor) {
+        switch(accessor) {
+        case "getLevel":
+        case "level":
+            return LEVEL;
+        case "getFormattedMessage":
+        case "formattedMessage":
+            return MESSAGE;
+        case "getMessage":
+        case "message":
+        case "getArgumentArray":
+        case "argumentArray":
+            return ARGUMENTS;
+        case "getTimeStamp":
+        case "timeStamp":
+            return TIMESTAMP;
+        case "getLoggerName":
+        case "loggerName":
+            return LOGGER;
+        case "getThreadName":
+        case "threadName":
+            return THREAD;
+        case "getLoggerContextVO":
+        case "loggerContextVO":
+            return CONTEXT;
+        case "getMDCPropertyMap":
+        case "MDCPropertyMap":
+        case "getMdc":
+        case "mdc":
+            return MDC;
+        case "getMarker":
+        case "marker":
+            return MARKER;
+        case "getThrowableProxy":
+        case "throwableProxy":
+            return THROWABLE;
+        case "getCallerData":
+        case "callerData":
+        case "hasCallerData":
+            return CALLER_DATA;
+        default:
+            return ALL;
+        }
+    }
+
+    /**
+     * Reads an MDC value of an event
+     *
+     * @param event logging event
+     * @param key MDC key
+     * @return value, or null
+     */
+    static String mdc(ILoggingEvent event, String key) {
+        Map<String, String> mdc = event.getMDCPropertyMap();
+        return mdc != null ? mdc.get(key) : null;
+    }
+}
@@ -0,0 +1,127 @@
+package jp.co.dwango.logback;
+
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Declarative rules which discard events before they are rendered.
+ *
+ * Rules are checked from the cheapest one, and the message is formatted only when a pattern is given.
+ */
+final class EventFilter {
+    /** minimum level as an integer */
+    private final int minLevel;
+
+    /** logger name prefixes to accept, or null to accept all */
+    private final PrefixTrie includes;
+
+    /** logger name prefixes to discard, or null */
+    private final PrefixTrie excludes;
+
+    /** marker which events must have, or null */
+    private final String marker;
+
+    /** MDC key which events must have, or null */
+    private final String mdcKey;
+
+    /** matchers of the message pattern by thread, or null */
+    private final ThreadLocal<Matcher> matchers;
+
+    private EventFilter(int minLevel, PrefixTrie includes, PrefixTrie excludes, String marker, String mdcKey,
+            Pattern messagePattern) {
+        this.minLevel = minLevel;
+        this.includes = includes;
+        this.excludes = excludes;
+        this.marker = marker;
+        this.mdcKey = mdcKey;
+        this.matchers = messagePattern != null ? ThreadLocal.withInitial(() -> messagePattern.matcher("")) : null;
+    }
+
+    /**
+     * Compiles rules
+     *
+     * @param minLevel minimum level, or null
+     * @param includeLoggers comma separated logger name prefixes to accept, or null
+     * @param excludeLoggers comma separated logger name prefixes to discard, or null
+     * @param marker marker which events must have, or null
+     * @param mdcKey MDC key which events must have, or null
+     * @param messagePattern regular expression which messages must contain, or null
+     * @return filter, or null if no rule is given
+     * @throws IllegalArgumentException if the level or the pattern is invalid
+     */
+    static EventFilter compile(String minLevel, String includeLoggers, String excludeLoggers, String marker,
+            String mdcKey, String messagePattern) {
+        if(minLevel == null && isBlank(includeLoggers) && isBlank(excludeLoggers) && marker == null && mdcKey == null
+                && messagePattern == null) {
+            return null;
+        }
+        int level = Level.ALL_INT;
+        if(minLevel != null) {
+            Level parsed = Level.toLevel(minLevel, null);
+            if(parsed == null) {
+                throw new IllegalArgumentException("Invalid minLevel " + minLevel + ".");
+            }
+            level = parsed.toInt();
+        }
+        PrefixTrie includes = null;
+        if(!isBlank(includeLoggers)) {
+            includes = new PrefixTrie();
+            includes.addAll(includeLoggers, 1);
+        }
+        PrefixTrie excludes = null;
+        if(!isBlank(excludeLoggers)) {
+            excludes = new PrefixTrie();
+            excludes.addAll(excludeLoggers, 1);
+        }
+        // throws PatternSyntaxException, which is an IllegalArgumentException
+        Pattern pattern = messagePattern != null ? Pattern.compile(messagePattern) : null;
+        return new EventFilter(level, includes, excludes, marker, mdcKey, pattern);
+    }
+
+    /**
+     * Checks an event against the rules
+     *
+     * @param event logging event
+     * @return true if the event passes all rules
+     */
+    boolean accepts(ILoggingEvent event) {
+        Level level = event.getLevel();
+        if(level == null || level.toInt() < minLevel) {
+            return false;
+        }
+        String logger = event.getLoggerName();
+        if(includes != null && includes.match(logger) == 0) {
+            return false;
+        }
+        if(excludes != null && excludes.match(logger) != 0) {
+            return false;
+        }
+        if(marker != null) {
+            Marker eventMarker = event.getMarker();
+            if(eventMarker == null || !eventMarker.contains(marker)) {
+                return false;
+            }
+        }
+        if(mdcKey != null) {
+            Map<String, String> mdc = event.getMDCPropertyMap();
+            if(mdc == null || !mdc.containsKey(mdcKey)) {
+                return false;
+            }
+        }
+        if(matchers != null) {
+            String message = event.getFormattedMessage();
+            return message != null && matchers.get().reset(message).find();
+        }
+        return true;
+    }
+
+    private static boolean isBlank(String s) {
+        return s == null || s.trim().isEmpty();
+    }
+}
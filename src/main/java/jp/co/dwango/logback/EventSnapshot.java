@@ -0,0 +1,230 @@
+package jp.co.dwango.logback;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+
+/**
+ * Immutable flat copy of the fields of an event which a payload uses.
+ *
+ * Unlike {@link ILoggingEvent#prepareForDeferredProcessing()}, only the fields in {@link EventFields}
+ * are read on the calling thread. Accessors of the other fields return null, or an empty map for MDC.
+ */
+final class EventSnapshot implements ILoggingEvent {
+    /** level */
+    private final Level level;
+
+    /** formatted message */
+    private final String formattedMessage;
+
+    /** raw message */
+    private final String message;
+
+    /** message arguments */
+    private final Object[] argumentArray;
+
+    /** timestamp in milliseconds */
+    private final long timeStamp;
+
+    /** logger name */
+    private final String loggerName;
+
+    /** thread name */
+    private final String threadName;
+
+    /** logger context */
+    private final LoggerContextVO loggerContextVO;
+
+    /** whole MDC, or null if captured key by key */
+    private final Map<String, String> mdc;
+
+    /** MDC keys captured one by one */
+    private final String[] mdcKeys;
+
+    /** MDC values of {@link #mdcKeys} */
+    private final String[] mdcValues;
+
+    /** marker */
+    private final Marker marker;
+
+    /** throwable */
+    private final IThrowableProxy throwableProxy;
+
+    /** caller data */
+    private final StackTraceElement[] callerData;
+
+    /**
+     * Captures an event
+     *
+     * @param event logging event
+     * @param fields bitwise OR of {@link EventFields} to capture
+     * @param mdcKeys MDC keys to capture one by one, or null to capture the whole MDC
+     */
+    EventSnapshot(ILoggingEvent event, int fields, String[] mdcKeys) {
+        this.level = event.getLevel();
+        this.formattedMessage = (fields & EventFields.MESSAGE) != 0 ? event.getFormattedMessage() : null;
+        boolean arguments = (fields & EventFields.ARGUMENTS) != 0;
+        this.message = arguments ? event.getMessage() : null;
+        this.argumentArray = arguments ? event.getArgumentArray() : null;
+        this.timeStamp = (fields & EventFields.TIMESTAMP) != 0 ? event.getTimeStamp() : 0;
+        this.loggerName = (fields & EventFields.LOGGER) != 0 ? event.getLoggerName() : null;
+        this.threadName = (fields & EventFields.THREAD) != 0 ? event.getThreadName() : null;
+        this.loggerContextVO = (fields & EventFields.CONTEXT) != 0 ? event.getLoggerContextVO() : null;
+        this.marker = (fields & EventFields.MARKER) != 0 ? event.getMarker() : null;
+        this.throwableProxy = (fields & EventFields.THROWABLE) != 0 ? event.getThrowableProxy() : null;
+        this.callerData = (fields & EventFields.CALLER_DATA) != 0 ? event.getCallerData() : null;
+        if(mdcKeys == null) {
+            this.mdc = event.getMDCPropertyMap();
+            this.mdcKeys = null;
+            this.mdcValues = null;
+        } else {
+            this.mdc = null;
+            this.mdcKeys = mdcKeys;
+            this.mdcValues = new String[mdcKeys.length];
+            for(int i = 0; i < mdcKeys.length; i++) {
+                mdcValues[i] = EventFields.mdc(event, mdcKeys[i]);
+            }
+        }
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getThreadName()
+     */
+    @Override
+    public String getThreadName() {
+        return threadName;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getLevel()
+     */
+    @Override
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getMessage()
+     */
+    @Override
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getArgumentArray()
+     */
+    @Override
+    public Object[] getArgumentArray() {
+        return argumentArray;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getFormattedMessage()
+     */
+    @Override
+    public String getFormattedMessage() {
+        return formattedMessage;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getLoggerName()
+     */
+    @Override
+    public String getLoggerName() {
+        return loggerName;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getLoggerContextVO()
+     */
+    @Override
+    public LoggerContextVO getLoggerContextVO() {
+        return loggerContextVO;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getThrowableProxy()
+     */
+    @Override
+    public IThrowableProxy getThrowableProxy() {
+        return throwableProxy;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getCallerData()
+     */
+    @Override
+    public StackTraceElement[] getCallerData() {
+        return callerData;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#hasCallerData()
+     */
+    @Override
+    public boolean hasCallerData() {
+        return callerData != null;
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getMarker()
+     */
+    @Override
+    public Marker getMarker() {
+        return marker;
+    }
+
+    /**
+     * Gets the captured MDC
+     *
+     * @return whole MDC, or a map of the keys captured one by one
+     */
+    @Override
+    public Map<String, String> getMDCPropertyMap() {
+        if(mdc != null) {
+            return mdc;
+        }
+        if(mdcKeys == null || mdcKeys.length == 0) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> map = new HashMap<>();
+        for(int i = 0; i < mdcKeys.length; i++) {
+            if(mdcValues[i] != null) {
+                map.put(mdcKeys[i], mdcValues[i]);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * @deprecated Replaced by {@link #getMDCPropertyMap()}
+     */
+    @Override
+    @Deprecated
+    public Map<String, String> getMdc() {
+        return getMDCPropertyMap();
+    }
+
+    /**
+     * @see ch.qos.logback.classic.spi.ILoggingEvent#getTimeStamp()
+     */
+    @Override
+    public long getTimeStamp() {
+        return timeStamp;
+    }
+
+    /**
+     * Does nothing, since a snapshot is immutable
+     */
+    @Override
+    public void prepareForDeferredProcessing() {
+    }
+}
@@ -0,0 +1,94 @@
+package jp.co.dwango.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+
+/**
+ * 64-bit FNV-1a hashes identifying where logging events come from.
+ */
+final class Fingerprint {
+    /** FNV offset basis */
+    static final long SEED = 0xcbf29ce484222325L;
+
+    /** FNV prime */
+    private static final long PRIME = 0x100000001b3L;
+
+    private Fingerprint() {
+    }
+
+    /**
+     * Fingerprints an event by its logger, level, message pattern, throwable class and top frames
+     *
+     * @param event logging event
+     * @param frames number of top stack frames to take into account
+     * @return fingerprint
+     */
+    static long of(ILoggingEvent event, int frames) {
+        long hash = SEED;
+        hash = mix(hash, event.getLoggerName());
+        hash = mix(hash, event.getLevel() != null ? event.getLevel().levelStr : null);
+        hash = mix(hash, event.getMessage());
+        IThrowableProxy throwable = event.getThrowableProxy();
+        if(throwable != null) {
+            hash = mix(hash, throwable.getClassName());
+            hash = mixFrames(hash, throwable.getStackTraceElementProxyArray(), frames);
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes stack frames into a hash
+     *
+     * @param hash hash
+     * @param frames stack frames, may be null
+     * @param depth number of top frames to mix
+     * @return hash
+     */
+    static long mixFrames(long hash, StackTraceElementProxy[] frames, int depth) {
+        if(frames == null) {
+            return hash;
+        }
+        int n = Math.min(depth, frames.length);
+        for(int i = 0; i < n; i++) {
+            StackTraceElement frame = frames[i].getStackTraceElement();
+            hash = mix(hash, frame.getClassName());
+            hash = mix(hash, frame.getMethodName());
+            hash = mix(hash, frame.getLineNumber());
+        }
+        return hash;
+    }
+
+    /**
+     * Mixes a string into a hash
+     *
+     * @param hash hash
+     * @param s string, may be null
+     * @return hash
+     */
+    static long mix(long hash, String s) {
+        if(s == null) {
+            return mix(hash, -1);
+        }
+        int length = s.length();
+        for(int i = 0; i < length; i++) {
+            hash = (hash ^ s.charAt(i)) * PRIME;
+        }
+        // separates adjacent strings
+        return (hash ^ 0xff) * PRIME;
+    }
+
+    /**
+     * Mixes an int into a hash
+     *
+     * @param hash hash
+     * @param value value
+     * @return hash
+     */
+    static long mix(long hash, int value) {
+        for(int i = 0; i < 4; i++) {
+            hash = (hash ^ ((value >>> (i * 8)) & 0xff)) * PRIME;
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,115 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+
+/**
+ * Posts to a webhook over persistent HTTP/1.1 connections.
+ *
+ * {@link HttpURLConnection} returns a connection to the keep-alive cache of the runtime only when
+ * its response has been read to the end, so every response body is drained, errors included.
+ * The cache keeps up to <code>http.maxConnections</code> idle connections per host (5 by default),
+ * and TLS sessions are resumed by the default SSL context.
+ */
+final class HttpTransport {
+    /** size of the buffer used to drain responses */
+    private static final int DRAIN_BUFFER_SIZE = 512;
+
+    /** webhook URL */
+    private final URL url;
+
+    /** connect timeout in milliseconds */
+    private final int connectTimeout;
+
+    /** read timeout in milliseconds */
+    private final int readTimeout;
+
+    /**
+     * Creates a transport
+     *
+     * @param url webhook URL
+     * @param connectTimeout connect timeout in milliseconds
+     * @param readTimeout read timeout in milliseconds
+     */
+    HttpTransport(URL url, int connectTimeout, int readTimeout) {
+        this.url = url;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Gets url
+     *
+     * @return webhook URL
+     */
+    URL getUrl() {
+        return url;
+    }
+
+    /**
+     * Posts to the webhook
+     *
+     * @param body payload body in UTF-8 byte array
+     * @throws IOException if an I/O exception occurs.
+     * @throws SlackResponseException if Slack responds with a status other than 200 OK
+     */
+    void post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(readTimeout);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setDoOutput(true);
+        connection.setRequestMethod("POST");
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try(OutputStream os = connection.getOutputStream()) {
+            os.write(body);
+            os.flush();
+        }
+
+        int statusCode = connection.getResponseCode();
+        drain(connection, statusCode);
+        if (statusCode != HttpURLConnection.HTTP_OK) {
+            // the body is left out, so that a failure does not copy a large payload once more
+            throw new SlackResponseException(connection.getResponseMessage() + " (" + body.length + " bytes posted to " + url.getHost() + ")",
+                statusCode, SlackResponseException.parseRetryAfter(connection.getHeaderField("Retry-After")));
+        }
+    }
+
+    /**
+     * Resolves the host and opens a connection, so that the first post does not pay for the handshake
+     *
+     * @throws IOException if an I/O exception occurs.
+     */
+    void warmUp() throws IOException {
+        InetAddress.getAllByName(url.getHost());
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setReadTimeout(readTimeout);
+        connection.setConnectTimeout(connectTimeout);
+        connection.setRequestMethod("HEAD");
+        drain(connection, connection.getResponseCode());
+    }
+
+    /**
+     * Reads a response to the end and closes it, which returns the connection to the keep-alive cache
+     *
+     * @param connection connection
+     * @param statusCode status code of the response
+     */
+    private static void drain(HttpURLConnection connection, int statusCode) {
+        try(InputStream is = statusCode < HttpURLConnection.HTTP_BAD_REQUEST ? connection.getInputStream() : connection.getErrorStream()) {
+            if(is == null) {
+                return;
+            }
+            byte[] buffer = new byte[DRAIN_BUFFER_SIZE];
+            while(is.read(buffer) >= 0) {
+                // discards
+            }
+        } catch (IOException e) {
+            // the connection is not reused
+        }
+    }
+}
@@ -0,0 +1,285 @@
+package jp.co.dwango.logback;
+
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer which JSON strings are escaped and encoded into as UTF-8
+ * without intermediate Strings.
+ */
+final class JsonBuffer {
+    /** buffers larger than this are not kept for reuse */
+    private static final int MAX_RETAINED_CAPACITY = 64 * 1024;
+
+    /** hexadecimal digits */
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+    /** literal null */
+    private static final byte[] NULL = "null".getBytes();
+
+    /** marker of truncated strings; horizontal ellipsis in UTF-8 */
+    static final byte[] TRUNCATION_MARKER = { (byte) 0xe2, (byte) 0x80, (byte) 0xa6 };
+
+    /** maximum number of bytes a char is escaped into */
+    private static final int MAX_ESCAPED_CHAR_SIZE = 6;
+
+    /** bytes */
+    private byte[] bytes;
+
+    /** number of bytes written */
+    private int size;
+
+    /**
+     * Creates a buffer
+     *
+     * @param initialCapacity initial capacity in bytes
+     */
+    JsonBuffer(int initialCapacity) {
+        this.bytes = new byte[initialCapacity];
+    }
+
+    /**
+     * Discards the content so that the buffer can be reused
+     */
+    void reset() {
+        if(bytes.length > MAX_RETAINED_CAPACITY) {
+            bytes = new byte[MAX_RETAINED_CAPACITY];
+        }
+        size = 0;
+    }
+
+    /**
+     * Gets the number of bytes written
+     *
+     * @return number of bytes written
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Discards bytes written after a mark
+     *
+     * @param mark size to go back to
+     */
+    void truncate(int mark) {
+        size = mark;
+    }
+
+    /**
+     * Copies the content
+     *
+     * @return content in UTF-8 byte array
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * Writes a byte
+     *
+     * @param b byte
+     */
+    void write(int b) {
+        ensureCapacity(1);
+        bytes[size++] = (byte) b;
+    }
+
+    /**
+     * Writes bytes
+     *
+     * @param b bytes
+     */
+    void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Writes bytes
+     *
+     * @param b bytes
+     * @param offset offset in b
+     * @param length number of bytes to write
+     */
+    void write(byte[] b, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(b, offset, bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * Writes a string as a quoted JSON string, or null
+     *
+     * @param s string
+     */
+    void writeQuoted(CharSequence s) {
+        if(s == null) {
+            write(NULL);
+            return;
+        }
+        write('"');
+        writeEscaped(s);
+        write('"');
+    }
+
+    /**
+     * Writes the escaped content of a JSON string without quotes
+     *
+     * @param s string
+     */
+    void writeEscaped(CharSequence s) {
+        if(s == null) {
+            return;
+        }
+        int length = s.length();
+        ensureCapacity(length);
+        for(int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if(c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+                if(size == bytes.length) {
+                    ensureCapacity(length - i);
+                }
+                bytes[size++] = (byte) c;
+            } else if(c < 0x80) {
+                writeEscapedAscii(c);
+            } else if(c < 0x800) {
+                ensureCapacity(2);
+                bytes[size++] = (byte) (0xc0 | (c >> 6));
+                bytes[size++] = (byte) (0x80 | (c & 0x3f));
+            } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                ensureCapacity(4);
+                bytes[size++] = (byte) (0xf0 | (cp >> 18));
+                bytes[size++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                bytes[size++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                bytes[size++] = (byte) (0x80 | (cp & 0x3f));
+            } else if(Character.isSurrogate(c)) {
+                // unpaired surrogate, same as String#getBytes
+                write('?');
+            } else {
+                ensureCapacity(3);
+                bytes[size++] = (byte) (0xe0 | (c >> 12));
+                bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                bytes[size++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+    }
+
+    /**
+     * Writes the escaped content of a JSON string without quotes, truncated with a marker
+     * at a character boundary if it would take more than the given number of bytes
+     *
+     * @param s string
+     * @param maxBytes maximum number of bytes to write, or 0 if unlimited
+     * @return false if truncated
+     */
+    boolean writeEscaped(CharSequence s, int maxBytes) {
+        if(s == null) {
+            return true;
+        }
+        int length = s.length();
+        if(maxBytes <= 0 || (long) length * MAX_ESCAPED_CHAR_SIZE <= maxBytes) {
+            writeEscaped(s);
+            return true;
+        }
+        int mark = size;
+        int budget = Math.max(0, maxBytes - TRUNCATION_MARKER.length);
+        int fit = mark;
+        for(int i = 0; i < length;) {
+            if(size - mark <= budget) {
+                fit = size;
+            }
+            i = writeEscapedChar(s, i, length);
+            if(size - mark > maxBytes) {
+                size = fit;
+                write(TRUNCATION_MARKER);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes an escaped character, or a surrogate pair
+     *
+     * @param s string
+     * @param i index of the character
+     * @param length length of the string
+     * @return index of the next character
+     */
+    private int writeEscapedChar(CharSequence s, int i, int length) {
+        char c = s.charAt(i);
+        ensureCapacity(4);
+        if(c >= 0x20 && c < 0x80 && c != '"' && c != '\\') {
+            bytes[size++] = (byte) c;
+        } else if(c < 0x80) {
+            writeEscapedAscii(c);
+        } else if(c < 0x800) {
+            bytes[size++] = (byte) (0xc0 | (c >> 6));
+            bytes[size++] = (byte) (0x80 | (c & 0x3f));
+        } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(i + 1));
+            bytes[size++] = (byte) (0xf0 | (cp >> 18));
+            bytes[size++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            bytes[size++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            bytes[size++] = (byte) (0x80 | (cp & 0x3f));
+            return i + 2;
+        } else if(Character.isSurrogate(c)) {
+            // unpaired surrogate, same as String#getBytes
+            bytes[size++] = '?';
+        } else {
+            bytes[size++] = (byte) (0xe0 | (c >> 12));
+            bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            bytes[size++] = (byte) (0x80 | (c & 0x3f));
+        }
+        return i + 1;
+    }
+
+    /**
+     * Escapes a string into a JSON string content in UTF-8 byte array
+     *
+     * @param s string
+     * @return escaped content without quotes
+     */
+    static byte[] escape(CharSequence s) {
+        JsonBuffer buffer = new JsonBuffer(s.length() + 16);
+        buffer.writeEscaped(s);
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Writes an ASCII character which needs escaping
+     *
+     * @param c quote, backslash or control character
+     */
+    private void writeEscapedAscii(char c) {
+        ensureCapacity(6);
+        bytes[size++] = '\\';
+        switch(c) {
+        case '"':  bytes[size++] = '"';  break;
+        case '\\': bytes[size++] = '\\'; break;
+        case '\b': bytes[size++] = 'b';  break;
+        case '\f': bytes[size++] = 'f';  break;
+        case '\n': bytes[size++] = 'n';  break;
+        case '\r': bytes[size++] = 'r';  break;
+        case '\t': bytes[size++] = 't';  break;
+        default:
+            bytes[size++] = 'u';
+            bytes[size++] = '0';
+            bytes[size++] = '0';
+            bytes[size++] = HEX[c >> 4];
+            bytes[size++] = HEX[c & 0xf];
+        }
+    }
+
+    /**
+     * Grows the buffer if needed
+     *
+     * @param additional number of bytes to be written
+     */
+    private void ensureCapacity(int additional) {
+        int required = size + additional;
+        if(required > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(required, bytes.length * 2));
+        }
+    }
+}
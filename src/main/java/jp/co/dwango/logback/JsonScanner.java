@@ -0,0 +1,219 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates values in serialized JSON without building a tree.
+ *
+ * Values are reported as byte ranges of the original array,
+ * so that they can be copied into another payload as they are.
+ */
+final class JsonScanner {
+
+    private JsonScanner() {
+    }
+
+    /**
+     * Finds a member of the top-level object
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param name name of the member
+     * @return start and end offsets of the value, or null if the member is not found
+     * @throws IllegalArgumentException if json is not an object
+     */
+    static int[] member(byte[] json, String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int i = skipWhitespace(json, 0);
+        expect(json, i, '{');
+        i = skipWhitespace(json, i + 1);
+        if(i < json.length && json[i] == '}') {
+            return null;
+        }
+        for(;;) {
+            expect(json, i, '"');
+            int keyStart = i + 1;
+            int keyEnd = skipValue(json, i) - 1;
+            i = skipWhitespace(json, keyEnd + 1);
+            expect(json, i, ':');
+            int valueStart = skipWhitespace(json, i + 1);
+            int valueEnd = skipValue(json, valueStart);
+            if(regionEquals(json, keyStart, keyEnd, key)) {
+                return new int[] { valueStart, valueEnd };
+            }
+            i = skipWhitespace(json, valueEnd);
+            if(i < json.length && json[i] == ',') {
+                i = skipWhitespace(json, i + 1);
+                continue;
+            }
+            expect(json, i, '}');
+            return null;
+        }
+    }
+
+    /**
+     * Collects the members of the top-level object except some of them
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param excluded names of the members to leave out
+     * @return the other members as they are, separated by commas, in UTF-8 byte array
+     * @throws IllegalArgumentException if json is not an object
+     */
+    static byte[] others(byte[] json, String... excluded) {
+        byte[][] keys = new byte[excluded.length][];
+        for(int k = 0; k < excluded.length; k++) {
+            keys[k] = excluded[k].getBytes(StandardCharsets.UTF_8);
+        }
+        JsonBuffer out = new JsonBuffer(json.length);
+        int i = skipWhitespace(json, 0);
+        expect(json, i, '{');
+        i = skipWhitespace(json, i + 1);
+        if(i < json.length && json[i] == '}') {
+            return out.toByteArray();
+        }
+        boolean first = true;
+        for(;;) {
+            expect(json, i, '"');
+            int memberStart = i;
+            int keyEnd = skipValue(json, i) - 1;
+            i = skipWhitespace(json, keyEnd + 1);
+            expect(json, i, ':');
+            int valueEnd = skipValue(json, skipWhitespace(json, i + 1));
+            boolean kept = true;
+            for(byte[] key : keys) {
+                if(regionEquals(json, memberStart + 1, keyEnd, key)) {
+                    kept = false;
+                    break;
+                }
+            }
+            if(kept) {
+                if(!first) {
+                    out.write(',');
+                }
+                out.write(json, memberStart, valueEnd - memberStart);
+                first = false;
+            }
+            i = skipWhitespace(json, valueEnd);
+            if(i < json.length && json[i] == ',') {
+                i = skipWhitespace(json, i + 1);
+                continue;
+            }
+            expect(json, i, '}');
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Splits an array into its elements
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param start start offset of the array
+     * @param end end offset of the array
+     * @return start and end offsets of each element
+     * @throws IllegalArgumentException if the range is not an array
+     */
+    static List<int[]> elements(byte[] json, int start, int end) {
+        List<int[]> elements = new ArrayList<>();
+        expect(json, start, '[');
+        int i = skipWhitespace(json, start + 1);
+        if(i < end && json[i] == ']') {
+            return elements;
+        }
+        for(;;) {
+            int elementEnd = skipValue(json, i);
+            elements.add(new int[] { i, elementEnd });
+            i = skipWhitespace(json, elementEnd);
+            if(i < end && json[i] == ',') {
+                i = skipWhitespace(json, i + 1);
+                continue;
+            }
+            expect(json, i, ']');
+            return elements;
+        }
+    }
+
+    /**
+     * Skips a value
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param start start offset of the value
+     * @return offset just after the value
+     * @throws IllegalArgumentException if the value is malformed
+     */
+    static int skipValue(byte[] json, int start) {
+        if(start >= json.length) {
+            throw new IllegalArgumentException("Unexpected end of JSON");
+        }
+        byte first = json[start];
+        if(first == '"') {
+            for(int i = start + 1; i < json.length; i++) {
+                if(json[i] == '\\') {
+                    i++;
+                } else if(json[i] == '"') {
+                    return i + 1;
+                }
+            }
+            throw new IllegalArgumentException("Unclosed string in JSON");
+        }
+        if(first == '{' || first == '[') {
+            int depth = 0;
+            for(int i = start; i < json.length; i++) {
+                byte b = json[i];
+                if(b == '"') {
+                    i = skipValue(json, i) - 1;
+                } else if(b == '{' || b == '[') {
+                    depth++;
+                } else if((b == '}' || b == ']') && --depth == 0) {
+                    return i + 1;
+                }
+            }
+            throw new IllegalArgumentException("Unclosed " + (char) first + " in JSON");
+        }
+        int i = start;
+        while(i < json.length && json[i] != ',' && json[i] != '}' && json[i] != ']' && !isWhitespace(json[i])) {
+            i++;
+        }
+        if(i == start) {
+            throw new IllegalArgumentException("Unexpected '" + (char) first + "' at " + start + " in JSON");
+        }
+        return i;
+    }
+
+    /**
+     * Skips whitespaces
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param start start offset
+     * @return offset of the first non-whitespace byte
+     */
+    private static int skipWhitespace(byte[] json, int start) {
+        int i = start;
+        while(i < json.length && isWhitespace(json[i])) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static void expect(byte[] json, int i, char expected) {
+        if(i >= json.length || json[i] != expected) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at " + i + " in JSON");
+        }
+    }
+
+    private static boolean regionEquals(byte[] json, int start, int end, byte[] key) {
+        if(end - start != key.length) {
+            return false;
+        }
+        for(int i = 0; i < key.length; i++) {
+            if(json[start + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,188 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded queue split into lanes of descending priority which share one capacity.
+ *
+ * Lane 0 has the highest priority. The consumer takes from the highest non-empty lane, or if weights
+ * are given, takes up to the weight of each lane in turn (deficit round robin) so that lower lanes
+ * are not starved. Producers make room by evicting from the lowest non-empty lane first.
+ *
+ * Producers reserve a slot in the shared capacity before adding to a lane, and the slot is
+ * released after an element is taken, so that concurrent producers never exceed the capacity.
+ *
+ * @param <E> type of elements
+ */
+final class LaneQueue<E> {
+    /** lanes in descending priority */
+    private final RingBuffer<E>[] lanes;
+
+    /** maximum number of elements in all lanes */
+    private final int capacity;
+
+    /** number of reserved slots of the capacity, which is not less than the number of elements */
+    private final AtomicInteger reserved = new AtomicInteger();
+
+    /** number of elements taken from a lane per turn, or null for strict priority */
+    private final int[] weights;
+
+    /** number of elements which may still be taken from each lane in this turn, owned by the consumer */
+    private final int[] credits;
+
+    /**
+     * Creates a queue
+     *
+     * @param lanes number of lanes
+     * @param capacity maximum number of elements in all lanes
+     * @param weights number of elements taken from a lane per turn, or null for strict priority
+     * @throws IllegalArgumentException if capacity is less than 1, or weights do not match lanes
+     */
+    LaneQueue(int lanes, int capacity, int[] weights) {
+        if(weights != null && weights.length != lanes) {
+            throw new IllegalArgumentException(lanes + " lane weights are required: " + weights.length);
+        }
+        @SuppressWarnings("unchecked")
+        RingBuffer<E>[] buffers = (RingBuffer<E>[]) new RingBuffer<?>[Math.max(1, lanes)];
+        // any lane may hold the whole capacity, so each preallocates it
+        for(int i = 0; i < buffers.length; i++) {
+            buffers[i] = new RingBuffer<>(capacity);
+        }
+        this.lanes = buffers;
+        this.capacity = capacity;
+        this.weights = weights;
+        this.credits = weights != null ? weights.clone() : null;
+    }
+
+    /**
+     * Adds an element to a lane if there is room in the queue
+     *
+     * @param lane lane
+     * @param element element
+     * @return false if the queue is full
+     */
+    boolean offer(int lane, E element) {
+        if(lanes.length == 1) {
+            return lanes[0].offer(element);
+        }
+        for(;;) {
+            int n = reserved.get();
+            if(n >= capacity) {
+                return false;
+            }
+            if(reserved.compareAndSet(n, n + 1)) {
+                break;
+            }
+        }
+        if(!lanes[lane].offer(element)) {
+            reserved.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes the next element by priority, from the consumer
+     *
+     * @return element, or null if empty
+     */
+    E poll() {
+        if(weights == null) {
+            for(RingBuffer<E> lane : lanes) {
+                E element = lane.poll();
+                if(element != null) {
+                    return released(element);
+                }
+            }
+            return null;
+        }
+        for(int round = 0; round < 2; round++) {
+            for(int i = 0; i < lanes.length; i++) {
+                if(credits[i] > 0) {
+                    E element = lanes[i].poll();
+                    if(element != null) {
+                        credits[i]--;
+                        return released(element);
+                    }
+                }
+            }
+            // every lane with elements has used up its turn
+            System.arraycopy(weights, 0, credits, 0, weights.length);
+        }
+        return null;
+    }
+
+    /**
+     * Takes the oldest element of a lane
+     *
+     * @param lane lane
+     * @return element, or null if the lane is empty
+     */
+    E poll(int lane) {
+        E element = lanes[lane].poll();
+        return element != null ? released(element) : null;
+    }
+
+    /**
+     * Releases the slot of a taken element
+     *
+     * @param element element taken from a lane
+     * @return element
+     */
+    private E released(E element) {
+        if(lanes.length > 1) {
+            reserved.decrementAndGet();
+        }
+        return element;
+    }
+
+    /**
+     * Gets the lowest lane which has elements
+     *
+     * @return lane, or -1 if empty
+     */
+    int lowestNonEmpty() {
+        for(int i = lanes.length - 1; i >= 0; i--) {
+            if(!lanes[i].isEmpty()) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the approximate number of elements
+     *
+     * @return number of elements
+     */
+    int size() {
+        int size = 0;
+        for(RingBuffer<E> lane : lanes) {
+            size += lane.size();
+        }
+        return size;
+    }
+
+    /**
+     * Gets whether all lanes are empty
+     *
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        for(RingBuffer<E> lane : lanes) {
+            if(!lane.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets capacity
+     *
+     * @return capacity
+     */
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,134 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of latencies in log-linear buckets.
+ *
+ * Every power of two is split into {@value #SUB_BUCKETS} linear buckets like HdrHistogram,
+ * so that a recorded value is reported with a relative error of at most 12.5%.
+ * Recording never locks nor allocates.
+ */
+final class LatencyHistogram {
+    /** number of bits of sub-buckets */
+    private static final int SUB_BUCKET_BITS = 3;
+
+    /** number of linear buckets in a power of two */
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** number of buckets enough for any positive long */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    /** counts by bucket */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /** number of recorded values */
+    private final LongAdder count = new LongAdder();
+
+    /** sum of recorded values in nanos */
+    private final LongAdder sum = new LongAdder();
+
+    /** maximum recorded value in nanos */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Records a latency
+     *
+     * @param nanos latency in nanos
+     */
+    void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while(value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retries
+        }
+    }
+
+    /**
+     * Records the latency since a start time
+     *
+     * @param startNanos start time in {@link System#nanoTime()}
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Takes a snapshot in microseconds
+     *
+     * @return snapshot
+     */
+    LatencySnapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        long n = count.sum();
+        long maxValue = max.get();
+        // the upper bound of the last bucket may exceed the maximum
+        return new LatencySnapshot(total,
+            n > 0 ? TimeUnit.NANOSECONDS.toMicros(sum.sum() / n) : 0,
+            toMicros(Math.min(maxValue, percentile(copy, total, 0.50))),
+            toMicros(Math.min(maxValue, percentile(copy, total, 0.90))),
+            toMicros(Math.min(maxValue, percentile(copy, total, 0.99))),
+            toMicros(maxValue));
+    }
+
+    /**
+     * Finds the bucket of a value
+     *
+     * @param value non-negative value
+     * @return index of the bucket
+     */
+    static int bucketOf(long value) {
+        if(value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * Gets the largest value of a bucket
+     *
+     * @param bucket index of a bucket
+     * @return largest value which falls in the bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if(bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lower = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+        return lower + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    private static long percentile(long[] counts, long total, double quantile) {
+        if(total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * quantile);
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) {
+                return upperBoundOf(i);
+            }
+        }
+        return upperBoundOf(counts.length - 1);
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,105 @@
+package jp.co.dwango.logback;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * Snapshot of a latency histogram in microseconds.
+ */
+public final class LatencySnapshot {
+    /** number of recorded latencies */
+    private final long count;
+
+    /** mean */
+    private final long mean;
+
+    /** median */
+    private final long p50;
+
+    /** 90th percentile */
+    private final long p90;
+
+    /** 99th percentile */
+    private final long p99;
+
+    /** maximum */
+    private final long max;
+
+    /**
+     * Creates a snapshot
+     *
+     * @param count number of recorded latencies
+     * @param mean mean in microseconds
+     * @param p50 median in microseconds
+     * @param p90 90th percentile in microseconds
+     * @param p99 99th percentile in microseconds
+     * @param max maximum in microseconds
+     */
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+    public LatencySnapshot(long count, long mean, long p50, long p90, long p99, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    /**
+     * Gets count
+     *
+     * @return number of recorded latencies
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets mean
+     *
+     * @return mean in microseconds
+     */
+    public long getMean() {
+        return mean;
+    }
+
+    /**
+     * Gets p50
+     *
+     * @return median in microseconds
+     */
+    public long getP50() {
+        return p50;
+    }
+
+    /**
+     * Gets p90
+     *
+     * @return 90th percentile in microseconds
+     */
+    public long getP90() {
+        return p90;
+    }
+
+    /**
+     * Gets p99
+     *
+     * @return 99th percentile in microseconds
+     */
+    public long getP99() {
+        return p99;
+    }
+
+    /**
+     * Gets max
+     *
+     * @return maximum in microseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", mean=" + mean + "us, p50=" + p50 + "us, p90=" + p90 + "us, p99=" + p99 + "us, max=" + max + "us";
+    }
+}
@@ -0,0 +1,60 @@
+package jp.co.dwango.logback;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Color and emoji according to log level.
+ */
+enum LevelStyle {
+    /** FATAL, ERROR */
+    DANGER("danger", ":ng_woman:"),
+
+    /** WARN */
+    WARNING("warning", ":ok_woman:"),
+
+    /** INFO, DEBUG, TRACE */
+    GOOD("good", ":white_circle:");
+
+    /** color of attachments */
+    final String color;
+
+    /** emoji */
+    final String emoji;
+
+    /** color in escaped UTF-8 byte array */
+    final byte[] colorBytes;
+
+    /** emoji in escaped UTF-8 byte array */
+    final byte[] emojiBytes;
+
+    /**
+     * @param color color of attachments
+     * @param emoji emoji
+     */
+    LevelStyle(String color, String emoji) {
+        this.color = color;
+        this.emoji = emoji;
+        this.colorBytes = JsonBuffer.escape(color);
+        this.emojiBytes = JsonBuffer.escape(emoji);
+    }
+
+    /**
+     * Gets the style of a level
+     *
+     * @param level level
+     * @return style
+     */
+    static LevelStyle of(Level level) {
+        if(level == null) {
+            return GOOD;
+        }
+        switch(level.toInt()) {
+        case Level.ERROR_INT:
+            return DANGER;
+        case Level.WARN_INT:
+            return WARNING;
+        default:
+            return GOOD;
+        }
+    }
+}
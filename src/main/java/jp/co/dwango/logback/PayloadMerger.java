@@ -0,0 +1,212 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Merges several payloads into one message.
+ *
+ * The first payload is the base message. If it has <code>attachments</code> or <code>blocks</code>,
+ * the attachments or blocks of the payloads are concatenated into it, and the <code>text</code> of
+ * each payload is wrapped into an attachment of its own. Otherwise their <code>text</code> are
+ * concatenated line by line. Only the payloads whose other members, such as <code>channel</code>,
+ * <code>username</code> and <code>icon_emoji</code>, are byte-equal to those of the base message
+ * are merged, so that no message is posted under another's name. Items over the limit of Slack are
+ * replaced with a "+N more" marker, and text over the limit continues in another message.
+ * Payloads which are not merged into the base message are posted as they are.
+ */
+final class PayloadMerger {
+    /** maximum number of attachments in a message */
+    static final int MAX_ATTACHMENTS = 100;
+
+    /** maximum number of blocks in a message */
+    static final int MAX_BLOCKS = 50;
+
+    /** maximum size of the escaped text of a message in bytes, as Slack truncates text over 40,000 characters */
+    static final int MAX_TEXT_BYTES = 40_000;
+
+    /** initial capacity of merged payloads */
+    private static final int INITIAL_BUFFER_CAPACITY = 4096;
+
+    private static final byte[] TEXT_ATTACHMENT_PREFIX = "{\"text\":".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] ESCAPED_NEWLINE = "\\n".getBytes(StandardCharsets.UTF_8);
+
+    private PayloadMerger() {
+    }
+
+    /**
+     * Merges payloads
+     *
+     * @param payloads payloads in UTF-8 byte array
+     * @return merged messages followed by the payloads which cannot be merged, or null if the first payload
+     *     has none of attachments, blocks and text
+     * @throws IllegalArgumentException if a payload is not a JSON object
+     */
+    static List<byte[]> merge(List<byte[]> payloads) {
+        byte[] base = payloads.get(0);
+        int[] attachments = JsonScanner.member(base, "attachments");
+        if(attachments != null && base[attachments[0]] == '[') {
+            return mergeItems(payloads, "attachments", MAX_ATTACHMENTS, "attachments", "text");
+        }
+        int[] blocks = JsonScanner.member(base, "blocks");
+        if(blocks != null && base[blocks[0]] == '[') {
+            return mergeItems(payloads, "blocks", MAX_BLOCKS, "blocks");
+        }
+        int[] text = JsonScanner.member(base, "text");
+        if(text != null && base[text[0]] == '"') {
+            return mergeText(payloads, text);
+        }
+        return null;
+    }
+
+    /**
+     * Concatenates array members of payloads
+     *
+     * @param payloads payloads
+     * @param name name of the array member
+     * @param limit maximum number of items
+     * @param merged names of the members which are merged, and may differ between the payloads
+     * @return merged payload followed by the payloads which cannot be merged
+     */
+    private static List<byte[]> mergeItems(List<byte[]> payloads, String name, int limit, String... merged) {
+        byte[] envelope = JsonScanner.others(payloads.get(0), merged);
+        boolean wrapsText = name.equals("attachments");
+        List<byte[]> messages = new ArrayList<>();
+        List<byte[]> sources = new ArrayList<>();
+        List<int[]> items = new ArrayList<>();
+        int omitted = 0;
+        for(byte[] payload : payloads) {
+            if(!Arrays.equals(envelope, JsonScanner.others(payload, merged))) {
+                messages.add(payload);
+                continue;
+            }
+            int count = items.size();
+            int[] text = wrapsText ? JsonScanner.member(payload, "text") : null;
+            if(text != null && payload[text[0]] == '"') {
+                // wraps a plain message into an attachment
+                sources.add(payload);
+                items.add(text);
+            }
+            int[] array = JsonScanner.member(payload, name);
+            if(array != null && payload[array[0]] == '[') {
+                for(int[] item : JsonScanner.elements(payload, array[0], array[1])) {
+                    sources.add(payload);
+                    items.add(item);
+                }
+            }
+            if(items.size() == count) {
+                messages.add(payload);
+            }
+        }
+
+        if(items.size() > limit) {
+            omitted += items.size() - (limit - 1);
+            items = items.subList(0, limit - 1);
+        }
+
+        JsonBuffer out = new JsonBuffer(INITIAL_BUFFER_CAPACITY);
+        out.write('{');
+        out.write(envelope);
+        if(envelope.length > 0) {
+            out.write(',');
+        }
+        out.write(('"' + name + "\":[").getBytes(StandardCharsets.UTF_8));
+        for(int i = 0; i < items.size(); i++) {
+            if(i > 0) {
+                out.write(',');
+            }
+            byte[] source = sources.get(i);
+            int[] item = items.get(i);
+            if(source[item[0]] == '{') {
+                out.write(source, item[0], item[1] - item[0]);
+            } else {
+                out.write(TEXT_ATTACHMENT_PREFIX);
+                out.write(source, item[0], item[1] - item[0]);
+                out.write('}');
+            }
+        }
+        if(omitted > 0) {
+            if(!items.isEmpty()) {
+                out.write(',');
+            }
+            out.write(moreItem(name, omitted));
+        }
+        out.write(']');
+        out.write('}');
+        messages.add(0, out.toByteArray());
+        return messages;
+    }
+
+    /**
+     * Creates an item which tells how many items were omitted
+     *
+     * @param name name of the array member, "attachments" or "blocks"
+     * @param omitted number of omitted items
+     * @return item in UTF-8 byte array
+     */
+    static byte[] moreItem(String name, int omitted) {
+        if(name.equals("blocks")) {
+            return ("{\"type\":\"context\",\"elements\":[{\"type\":\"mrkdwn\",\"text\":\"+" + omitted + " more\"}]}")
+                .getBytes(StandardCharsets.UTF_8);
+        }
+        return ("{\"text\":\"+" + omitted + " more\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Concatenates text members of payloads line by line, into as few messages as fit the limit of Slack
+     *
+     * @param payloads payloads
+     * @param range range of the text in the first payload
+     * @return merged messages followed by the payloads which cannot be merged
+     */
+    private static List<byte[]> mergeText(List<byte[]> payloads, int[] range) {
+        byte[] base = payloads.get(0);
+        byte[] envelope = JsonScanner.others(base, "text");
+        List<byte[]> messages = new ArrayList<>();
+        List<byte[]> separate = new ArrayList<>();
+        JsonBuffer out = null;
+        int length = 0;
+        for(byte[] payload : payloads) {
+            int[] text = payload == base ? range : JsonScanner.member(payload, "text");
+            if(text == null || payload[text[0]] != '"'
+                    || payload != base && !Arrays.equals(envelope, JsonScanner.others(payload, "text"))) {
+                separate.add(payload);
+                continue;
+            }
+            int size = text[1] - text[0] - 2;
+            if(out != null && length + ESCAPED_NEWLINE.length + size > MAX_TEXT_BYTES) {
+                messages.add(closeText(out, base, range));
+                out = null;
+            }
+            if(out == null) {
+                out = new JsonBuffer(INITIAL_BUFFER_CAPACITY);
+                out.write(base, 0, range[0] + 1);
+                length = 0;
+            } else {
+                out.write(ESCAPED_NEWLINE);
+                length += ESCAPED_NEWLINE.length;
+            }
+            out.write(payload, text[0] + 1, size);
+            length += size;
+        }
+        messages.add(closeText(out, base, range));
+        messages.addAll(separate);
+        return messages;
+    }
+
+    /**
+     * Writes the rest of the first payload after the concatenated text
+     *
+     * @param out buffer holding the first payload up to the concatenated text
+     * @param base first payload
+     * @param range range of the text in the first payload
+     * @return merged message
+     */
+    private static byte[] closeText(JsonBuffer out, byte[] base, int[] range) {
+        out.write(base, range[1] - 1, base.length - range[1] + 1);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,24 @@
+package jp.co.dwango.logback;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Renders logging events into payloads to send to Slack.
+ */
+interface PayloadRenderer {
+    /**
+     * Renders a payload
+     *
+     * @param event logging event
+     * @return payload body in UTF-8 byte array, or null if posting is canceled
+     * @throws Exception if the payload cannot be rendered
+     */
+    byte[] render(ILoggingEvent event) throws Exception;
+
+    /**
+     * Gets the fields of events which rendering reads
+     *
+     * @return fields to capture before handing events over to another thread
+     */
+    EventFields fields();
+}
@@ -0,0 +1,332 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+
+/**
+ * Payload script compiled once and evaluated in pooled global scopes.
+ *
+ * A {@link ScriptEngine} is not guaranteed to be thread-safe, so a thread takes
+ * {@link Bindings} of its own from a lock-free pool to evaluate the compiled script in,
+ * and returns them afterwards. Scopes are not tied to threads, so they are collected
+ * along with the script when the appender is stopped or reconfigured, and only as many
+ * are kept as there are processors.
+ */
+final class PayloadScript implements PayloadRenderer {
+    /**
+     * Holder of the {@link ScriptEngineManager}, which scans the class path for engines
+     * when first used rather than when payloads are analyzed
+     */
+    private static final class Engines {
+        /** {@link ScriptEngineManager} */
+        static final ScriptEngineManager SCRIPT_MANAGER = new ScriptEngineManager();
+    }
+
+    /** name of the variable which the event is bound to */
+    private static final String EVENT = "event";
+
+    /** name of the variable which the renderer of stack traces is bound to */
+    private static final String THROWABLES = "__throwables";
+
+    /** name of the variable which the lookup of property snapshots is bound to */
+    private static final String PROPERTIES = "__properties";
+
+    /** name of the variable which the formatter of timestamps is bound to */
+    private static final String TIMESTAMPS = "__timestamps";
+
+    /** maximum number of idle global scopes kept for reuse */
+    private static final int MAX_IDLE_BINDINGS = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    /** fields read by the definitions around the payload whichever variables it uses */
+    private static final int PRELUDE_FIELDS = EventFields.CONTEXT | EventFields.LEVEL;
+
+    /** variable holding the formatted message, which is only defined if the payload refers to it */
+    private static final String MESSAGE = "message";
+
+    /** variable holding the formatted timestamp, which is only defined if the payload refers to it */
+    private static final String TIMESTAMP = "timestamp";
+
+    /** variable holding the renderer of the stack trace, which reads the throwable when called */
+    private static final String STACKTRACE = "stacktrace";
+
+    /** reference to the event, followed by the name of a member if any */
+    private static final Pattern EVENT_REFERENCE = Pattern.compile("(?<![\\w$.])" + EVENT + "(?![\\w$])(?:\\s*\\.\\s*([A-Za-z_$][\\w$]*))?");
+
+    /** ways to reach the event which the analysis cannot follow */
+    private static final Pattern INDIRECT_REFERENCE = Pattern.compile("(?<![\\w$.])(?:arguments|eval|Function|this)(?![\\w$])");
+
+    /** {@link ScriptEngine} */
+    private final ScriptEngine engine;
+
+    /** fields of events which the script reads */
+    private final EventFields fields;
+
+    /** renderer of stack traces */
+    private final ThrowableRenderer throwables;
+
+    /** formatter of timestamps */
+    private final TimestampFormatter timestamps = new TimestampFormatter();
+
+    /** defines formatTimestamp and payload functions */
+    private final CompiledScript definitions;
+
+    /** calls payload function and stringifies its result */
+    private final CompiledScript invoker;
+
+    /** idle global scopes in which {@link #definitions} were evaluated */
+    private final Queue<Bindings> idle = new ConcurrentLinkedQueue<>();
+
+    /** number of idle global scopes */
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+    /**
+     * Compiles a payload script with the default limits of stack traces
+     *
+     * @param payload payload script
+     * @throws ScriptException if an error occurs in payload script.
+     * @throws IllegalStateException if payload is null or empty, or no JavaScript engine is available
+     */
+    PayloadScript(String payload) throws ScriptException {
+        this(payload, new ThrowableRenderer(null, ThrowableRenderer.DEFAULT_MAX_DEPTH, ThrowableRenderer.DEFAULT_MAX_LENGTH));
+    }
+
+    /**
+     * Compiles a payload script
+     *
+     * @param payload payload script
+     * @param throwables renderer of stack traces
+     * @throws ScriptException if an error occurs in payload script.
+     * @throws IllegalStateException if payload is null or empty, or no JavaScript engine is available
+     */
+    PayloadScript(String payload, ThrowableRenderer throwables) throws ScriptException {
+        if(payload == null) {
+            throw new IllegalStateException("Payload is null");
+        }
+        payload = payload.trim();
+        if(payload.isEmpty()) {
+            throw new IllegalStateException("Payload is empty");
+        }
+
+        this.fields = analyze(payload);
+        this.throwables = throwables;
+
+        // looks up and creates JavaScript engine
+        this.engine = Engines.SCRIPT_MANAGER.getEngineByName("js");
+        if(engine == null) {
+            throw new IllegalStateException("JavaScript engine is not available");
+        }
+        if(!(engine instanceof Compilable)) {
+            throw new IllegalStateException("JavaScript engine does not support compilation");
+        }
+        Compilable compilable = (Compilable) engine;
+
+        StringBuilder function = new StringBuilder();
+
+        // define formatTimestamp function
+        function.append(
+            "function formatTimestamp(timestamp) { " +
+            "    return " + TIMESTAMPS + ".apply(timestamp); " +
+            "}\n"
+        );
+
+        // colors and emoji by level, and the property lookup of the logger context last seen in this scope
+        function.append("var __styles = {");
+        function.append(  "FATAL: " + style(LevelStyle.DANGER) + ",");
+        function.append(  "ERROR: " + style(LevelStyle.DANGER) + ",");
+        function.append(  "WARN: " + style(LevelStyle.WARNING));
+        function.append("}, __defaultStyle = " + style(LevelStyle.GOOD) + ",");
+        function.append(  "__lcvo = {}, __property, __hostname;\n");
+
+        // define payload function
+        function.append("function payload(event) {");
+        function.append(  "var lcvo = event.getLoggerContextVO();");
+        function.append(  "if(lcvo !== __lcvo) {");
+        function.append(    "__property = (function(properties) {");
+        function.append(      "return function(name) {");
+        function.append(        "if(!name && name !== 0) {");
+        function.append(          "return 'Property_HAS_NO_KEY';");
+        function.append(        "}");
+        function.append(        "return properties.apply('' + name);");
+        function.append(      "};");
+        function.append(    "})(" + PROPERTIES + ".apply(lcvo));");
+        function.append(    "__hostname = __property('HOSTNAME');");
+        function.append(    "__lcvo = lcvo;");
+        function.append(  "}");
+        function.append(  "var property = __property, color, emoji,");
+        function.append(    STACKTRACE + " = function() {");
+        function.append(      "return " + THROWABLES + ".apply(event.getThrowableProxy());");
+        function.append(    "},");
+        function.append(    "hostname = __hostname,");
+        function.append(    "level = event.getLevel().toString(),");
+        // formats only what the payload may use
+        boolean indirect = INDIRECT_REFERENCE.matcher(payload).find();
+        if(indirect || refersTo(payload, TIMESTAMP)) {
+            function.append("timestamp = formatTimestamp(event.getTimeStamp()),");
+        }
+        if(indirect || refersTo(payload, MESSAGE)) {
+            function.append("message = event.getFormattedMessage(),");
+        }
+        function.append(    "__style = __styles[level] || __defaultStyle;");
+        function.append(  "color = __style.color; emoji = __style.emoji;");
+        if(payload.startsWith("{")) {
+            function.append("return ");
+            function.append(payload);
+            function.append(";");
+        } else {
+            function.append(payload);
+        }
+        function.append("\n}");
+        this.definitions = compilable.compile(function.toString());
+
+        this.invoker = compilable.compile(
+            "(function() { " +
+            "    var payloadObj = payload(" + EVENT + "); " +
+            "    return payloadObj == null ? null : JSON.stringify(payloadObj); " +
+            "})()"
+        );
+
+        // fails fast on errors which only show up when evaluated
+        release(createBindings());
+    }
+
+    /**
+     * @see jp.co.dwango.logback.PayloadRenderer#render(ch.qos.logback.classic.spi.ILoggingEvent)
+     */
+    @Override
+    public byte[] render(ILoggingEvent event) throws ScriptException {
+        Bindings bindings = acquire();
+        bindings.put(EVENT, event);
+        try {
+            Object payload = invoker.eval(bindings);
+            return payload != null ? payload.toString().getBytes(StandardCharsets.UTF_8) : null;
+        } finally {
+            bindings.remove(EVENT);
+            release(bindings);
+        }
+    }
+
+    /**
+     * Takes an idle global scope, or creates one if none is idle
+     *
+     * @return global scope used by the calling thread only
+     */
+    private Bindings acquire() {
+        Bindings bindings = idle.poll();
+        if(bindings == null) {
+            return createBindings();
+        }
+        idleCount.decrementAndGet();
+        return bindings;
+    }
+
+    /**
+     * Returns a global scope to the pool, or discards it if enough are idle
+     *
+     * @param bindings global scope
+     */
+    private void release(Bindings bindings) {
+        if(idleCount.incrementAndGet() > MAX_IDLE_BINDINGS) {
+            idleCount.decrementAndGet();
+            return;
+        }
+        idle.offer(bindings);
+    }
+
+    /**
+     * @see jp.co.dwango.logback.PayloadRenderer#fields()
+     */
+    @Override
+    public EventFields fields() {
+        return fields;
+    }
+
+    /**
+     * Works out which fields of events a payload script reads from the members of <code>event</code>
+     * and the variables such as <code>message</code> it refers to. If the event is referred to in any
+     * other way, all fields are assumed to be read.
+     *
+     * @param payload payload script
+     * @return fields
+     */
+    static EventFields analyze(String payload) {
+        if(INDIRECT_REFERENCE.matcher(payload).find()) {
+            return EventFields.all();
+        }
+        EventFields fields = new EventFields().require(PRELUDE_FIELDS);
+        if(refersTo(payload, TIMESTAMP)) {
+            fields.require(EventFields.TIMESTAMP);
+        }
+        if(refersTo(payload, MESSAGE)) {
+            fields.require(EventFields.MESSAGE);
+        }
+        if(refersTo(payload, STACKTRACE)) {
+            fields.require(EventFields.THROWABLE);
+        }
+        Matcher matcher = EVENT_REFERENCE.matcher(payload);
+        while(matcher.find()) {
+            String member = matcher.group(1);
+            if(member == null) {
+                return EventFields.all();
+            }
+            fields.require(EventFields.ofAccessor(member));
+        }
+        return fields;
+    }
+
+    /**
+     * Tells whether a payload script may refer to a variable
+     *
+     * @param payload payload script
+     * @param name name of the variable
+     * @return false if no identifier of the name appears outside member accesses
+     */
+    private static boolean refersTo(String payload, String name) {
+        return Pattern.compile("(?<![\\w$.])" + name + "(?![\\w$])").matcher(payload).find();
+    }
+
+    /**
+     * Writes the color and emoji of a level as a JavaScript object literal
+     *
+     * @param style style of a level
+     * @return object literal
+     */
+    private static String style(LevelStyle style) {
+        return "{ color: '" + style.color + "', emoji: '" + style.emoji + "' }";
+    }
+
+    /**
+     * Creates a global scope in which the functions are defined
+     *
+     * @return global scope
+     */
+    private Bindings createBindings() {
+        Bindings bindings = engine.createBindings();
+        TimestampFormatter timestamps = this.timestamps;
+        // scripts can only call public types, so the renderer is exposed as a function
+        bindings.put(THROWABLES, (Function<IThrowableProxy, String>) throwables::render);
+        bindings.put(PROPERTIES, (Function<LoggerContextVO, Function<String, String>>) lcvo -> ContextProperties.of(lcvo)::get);
+        bindings.put(TIMESTAMPS, (Function<Number, String>) timestamp -> timestamps.format(timestamp.longValue()));
+        try {
+            definitions.eval(bindings);
+        } catch (ScriptException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        return bindings;
+    }
+}
@@ -0,0 +1,232 @@
+package jp.co.dwango.logback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits payloads over the size budget into a sequence of messages.
+ *
+ * If a payload has more than one <code>attachments</code> or <code>blocks</code>, they are packed
+ * into as few messages as fit. Otherwise its <code>text</code> is cut into parts, at line breaks
+ * if possible and never inside an escape sequence or a UTF-8 sequence. Items or text over the
+ * maximum number of messages are replaced with a "+N more" item or an ellipsis.
+ */
+final class PayloadSplitter {
+    /** minimum number of bytes of text per part worth splitting into */
+    private static final int MIN_TEXT_PART_SIZE = 16;
+
+    /** maximum size of a message in bytes, or 0 if unlimited */
+    private final int maxBytes;
+
+    /** maximum number of messages a payload is split into */
+    private final int maxParts;
+
+    /**
+     * Creates a splitter
+     *
+     * @param maxBytes maximum size of a message in bytes, or 0 if unlimited
+     * @param maxParts maximum number of messages a payload is split into
+     */
+    PayloadSplitter(int maxBytes, int maxParts) {
+        this.maxBytes = Math.max(0, maxBytes);
+        this.maxParts = Math.max(1, maxParts);
+    }
+
+    /**
+     * Splits a payload
+     *
+     * @param body payload body in UTF-8 byte array
+     * @return messages to post in order; the payload itself if it fits or cannot be split
+     */
+    List<byte[]> split(byte[] body) {
+        if(maxBytes == 0 || body.length <= maxBytes) {
+            return Collections.singletonList(body);
+        }
+        try {
+            for(String name : new String[] { "attachments", "blocks" }) {
+                int[] array = JsonScanner.member(body, name);
+                if(array != null && body[array[0]] == '[') {
+                    List<int[]> items = JsonScanner.elements(body, array[0], array[1]);
+                    if(items.size() > 1) {
+                        return splitItems(body, name, array, items);
+                    }
+                }
+            }
+            int[] text = JsonScanner.member(body, "text");
+            if(text != null && body[text[0]] == '"') {
+                return splitText(body, text[0] + 1, text[1] - 1);
+            }
+        } catch (IllegalArgumentException e) {
+            // not a JSON object
+        }
+        return Collections.singletonList(body);
+    }
+
+    /**
+     * Packs array items into messages
+     *
+     * @param body payload
+     * @param name name of the array member
+     * @param array range of the array
+     * @param items ranges of the items
+     * @return messages
+     */
+    private List<byte[]> splitItems(byte[] body, String name, int[] array, List<int[]> items) {
+        int overhead = body.length - (array[1] - array[0]) + 2;
+        List<byte[]> parts = new ArrayList<>();
+        int from = 0;
+        while(from < items.size()) {
+            boolean last = parts.size() == maxParts - 1;
+            byte[] more = last ? PayloadMerger.moreItem(name, items.size()) : null;
+            int size = overhead + length(items.get(from)) + (more != null ? more.length + 1 : 0);
+            int to = from + 1;
+            while(to < items.size() && size + 1 + length(items.get(to)) <= maxBytes) {
+                size += 1 + length(items.get(to));
+                to++;
+            }
+            if(!last || to == items.size()) {
+                more = null;
+            } else {
+                more = PayloadMerger.moreItem(name, items.size() - to);
+            }
+
+            JsonBuffer out = new JsonBuffer(size);
+            out.write(body, 0, array[0]);
+            out.write('[');
+            for(int i = from; i < to; i++) {
+                if(i > from) {
+                    out.write(',');
+                }
+                int[] item = items.get(i);
+                out.write(body, item[0], item[1] - item[0]);
+            }
+            if(more != null) {
+                out.write(',');
+                out.write(more);
+            }
+            out.write(']');
+            out.write(body, array[1], body.length - array[1]);
+            parts.add(out.toByteArray());
+            if(last) {
+                break;
+            }
+            from = to;
+        }
+        return parts;
+    }
+
+    /**
+     * Cuts the content of a JSON string into messages
+     *
+     * @param body payload
+     * @param start start offset of the content, just after the opening quote
+     * @param end end offset of the content, at the closing quote
+     * @return messages
+     */
+    private List<byte[]> splitText(byte[] body, int start, int end) {
+        int overhead = body.length - (end - start);
+        int chunk = maxBytes - overhead;
+        if(chunk < MIN_TEXT_PART_SIZE) {
+            return Collections.singletonList(body);
+        }
+        List<byte[]> parts = new ArrayList<>();
+        int from = start;
+        while(from < end) {
+            boolean last = parts.size() == maxParts - 1;
+            int to;
+            boolean truncated = false;
+            if(end - from <= chunk) {
+                to = end;
+            } else if(last) {
+                to = boundary(body, from, from + chunk - JsonBuffer.TRUNCATION_MARKER.length, end, false);
+                truncated = true;
+            } else {
+                to = boundary(body, from, from + chunk, end, true);
+            }
+
+            JsonBuffer out = new JsonBuffer(overhead + (to - from) + JsonBuffer.TRUNCATION_MARKER.length);
+            out.write(body, 0, start);
+            out.write(body, from, to - from);
+            if(truncated) {
+                out.write(JsonBuffer.TRUNCATION_MARKER);
+            }
+            out.write(body, end, body.length - end);
+            parts.add(out.toByteArray());
+            if(truncated) {
+                break;
+            }
+            from = skipLineBreak(body, to, end);
+        }
+        return parts;
+    }
+
+    /**
+     * Finds where to cut the content of a JSON string
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param from offset where the part starts
+     * @param limit offset which the part must not go beyond
+     * @param end end offset of the content
+     * @param preferLineBreak whether to cut at the last line break in the second half of the part
+     * @return offset to cut at, after an escape sequence or a UTF-8 sequence
+     */
+    static int boundary(byte[] json, int from, int limit, int end, boolean preferLineBreak) {
+        int i = from;
+        int lineBreak = -1;
+        while(i < end) {
+            int length = tokenLength(json, i);
+            if(i + length > limit) {
+                break;
+            }
+            if(length == 2 && json[i + 1] == 'n') {
+                lineBreak = i;
+            }
+            i += length;
+        }
+        if(preferLineBreak && lineBreak > from + (limit - from) / 2) {
+            return lineBreak;
+        }
+        return i > from ? i : Math.min(end, from + tokenLength(json, from));
+    }
+
+    /**
+     * Skips an escaped line break at which a part was cut
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param i offset
+     * @param end end offset of the content
+     * @return offset after the line break, or i
+     */
+    private static int skipLineBreak(byte[] json, int i, int end) {
+        return i + 1 < end && json[i] == '\\' && json[i + 1] == 'n' ? i + 2 : i;
+    }
+
+    /**
+     * Gets the length of the escape sequence or the UTF-8 sequence at an offset
+     *
+     * @param json JSON in UTF-8 byte array
+     * @param i offset
+     * @return length in bytes
+     */
+    private static int tokenLength(byte[] json, int i) {
+        int b = json[i] & 0xff;
+        if(b == '\\') {
+            return i + 1 < json.length && json[i + 1] == 'u' ? 6 : 2;
+        }
+        if(b >= 0xf0) {
+            return 4;
+        }
+        if(b >= 0xe0) {
+            return 3;
+        }
+        if(b >= 0xc0) {
+            return 2;
+        }
+        return 1;
+    }
+
+    private static int length(int[] range) {
+        return range[1] - range[0];
+    }
+}
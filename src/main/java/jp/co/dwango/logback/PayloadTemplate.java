@@ -0,0 +1,294 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Declarative payload template compiled into pre-encoded constant fragments and dynamic slots.
+ *
+ * A template is JSON with placeholders such as <code>${level}</code> or <code>${mdc:KEY}</code>.
+ * A placeholder inside a JSON string is replaced with the escaped value, and a placeholder outside
+ * a JSON string is replaced with the value as a quoted JSON string.
+ */
+final class PayloadTemplate implements PayloadRenderer {
+    /** initial capacity of per-thread buffers */
+    private static final int INITIAL_BUFFER_CAPACITY = 1024;
+
+    /** prefix of placeholders referring to properties */
+    private static final String PROPERTY_PREFIX = "property:";
+
+    /** prefix of placeholders referring to MDC */
+    private static final String MDC_PREFIX = "mdc:";
+
+    /**
+     * A part of a template
+     */
+    interface Fragment {
+        /**
+         * Writes this fragment
+         *
+         * @param event logging event
+         * @param out buffer to write to
+         */
+        void write(ILoggingEvent event, JsonBuffer out);
+    }
+
+    /**
+     * A value of a placeholder
+     */
+    interface Slot {
+        /**
+         * Writes the escaped value without quotes
+         *
+         * @param event logging event
+         * @param out buffer to write to
+         * @return false if the value is missing
+         */
+        boolean write(ILoggingEvent event, JsonBuffer out);
+    }
+
+    /** fragments */
+    private final Fragment[] fragments;
+
+    /** fields of events which the placeholders read */
+    private final EventFields fields = new EventFields();
+
+    /** per-thread buffer */
+    private final ThreadLocal<JsonBuffer> buffers = ThreadLocal.withInitial(() -> new JsonBuffer(INITIAL_BUFFER_CAPACITY));
+
+    /**
+     * Compiles a template with the default limits of stack traces
+     *
+     * @param template template
+     * @throws IllegalStateException if template is null, empty or malformed
+     */
+    PayloadTemplate(String template) {
+        this(template, new ThrowableRenderer(null, ThrowableRenderer.DEFAULT_MAX_DEPTH, ThrowableRenderer.DEFAULT_MAX_LENGTH), 0);
+    }
+
+    /**
+     * Compiles a template
+     *
+     * @param template template
+     * @param throwables renderer of stack traces
+     * @param maxFieldBytes maximum size in bytes of a placeholder value, or 0 if unlimited
+     * @throws IllegalStateException if template is null, empty or malformed
+     */
+    PayloadTemplate(String template, ThrowableRenderer throwables, int maxFieldBytes) {
+        if(template == null) {
+            throw new IllegalStateException("Template is null");
+        }
+        template = template.trim();
+        if(template.isEmpty()) {
+            throw new IllegalStateException("Template is empty");
+        }
+        this.fragments = compile(template, fields, throwables, maxFieldBytes);
+    }
+
+    /**
+     * @see jp.co.dwango.logback.PayloadRenderer#render(ch.qos.logback.classic.spi.ILoggingEvent)
+     */
+    @Override
+    public byte[] render(ILoggingEvent event) {
+        JsonBuffer out = buffers.get();
+        out.reset();
+        for(Fragment fragment : fragments) {
+            fragment.write(event, out);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @see jp.co.dwango.logback.PayloadRenderer#fields()
+     */
+    @Override
+    public EventFields fields() {
+        return fields;
+    }
+
+    /**
+     * Compiles a template into fragments
+     *
+     * @param template template
+     * @param fields fields to which the ones read by the placeholders are added
+     * @param throwables renderer of stack traces
+     * @param maxFieldBytes maximum size in bytes of a placeholder value, or 0 if unlimited
+     * @return fragments
+     */
+    private static Fragment[] compile(String template, EventFields fields, ThrowableRenderer throwables, int maxFieldBytes) {
+        List<Fragment> fragments = new ArrayList<>();
+        StringBuilder constant = new StringBuilder();
+        boolean inString = false;
+        int length = template.length();
+        for(int i = 0; i < length; i++) {
+            char c = template.charAt(i);
+            if(c == '$' && i + 1 < length && template.charAt(i + 1) == '{') {
+                int end = template.indexOf('}', i + 2);
+                if(end < 0) {
+                    throw new IllegalStateException("Unclosed placeholder at " + i + " in template");
+                }
+                if(constant.length() > 0) {
+                    fragments.add(constant(constant.toString()));
+                    constant.setLength(0);
+                }
+                Slot slot = slot(template.substring(i + 2, end).trim(), fields, throwables, maxFieldBytes);
+                fragments.add(inString ? unquoted(slot) : quoted(slot));
+                i = end;
+                continue;
+            }
+            if(inString && c == '\\' && i + 1 < length) {
+                constant.append(c).append(template.charAt(++i));
+                continue;
+            }
+            if(c == '"') {
+                inString = !inString;
+            }
+            constant.append(c);
+        }
+        if(inString) {
+            throw new IllegalStateException("Unclosed string in template");
+        }
+        if(constant.length() > 0) {
+            fragments.add(constant(constant.toString()));
+        }
+        return fragments.toArray(new Fragment[0]);
+    }
+
+    /**
+     * Creates a constant fragment
+     *
+     * @param text JSON text
+     * @return fragment
+     */
+    private static Fragment constant(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        return (event, out) -> out.write(bytes);
+    }
+
+    /**
+     * Creates a fragment of a placeholder inside a JSON string
+     *
+     * @param slot slot
+     * @return fragment
+     */
+    private static Fragment unquoted(Slot slot) {
+        return slot::write;
+    }
+
+    /**
+     * Creates a fragment of a placeholder outside a JSON string
+     *
+     * @param slot slot
+     * @return fragment
+     */
+    private static Fragment quoted(Slot slot) {
+        return (event, out) -> {
+            int mark = out.size();
+            out.write('"');
+            if(slot.write(event, out)) {
+                out.write('"');
+            } else {
+                out.truncate(mark);
+                out.writeQuoted(null);
+            }
+        };
+    }
+
+    /**
+     * Creates a slot of a placeholder
+     *
+     * @param name name of the placeholder
+     * @param fields fields to which the ones read by the placeholder are added
+     * @param throwables renderer of stack traces
+     * @param max maximum size in bytes of the value, or 0 if unlimited
+     * @return slot
+     * @throws IllegalStateException if the placeholder is unknown
+     */
+    private static Slot slot(String name, EventFields fields, ThrowableRenderer throwables, int max) {
+        if(name.startsWith(PROPERTY_PREFIX)) {
+            String key = name.substring(PROPERTY_PREFIX.length());
+            fields.require(EventFields.CONTEXT);
+            return (event, out) -> writeValue(ContextProperties.of(event.getLoggerContextVO()).get(key), max, out);
+        }
+        if(name.startsWith(MDC_PREFIX)) {
+            String key = name.substring(MDC_PREFIX.length());
+            fields.requireMdc(key);
+            return (event, out) -> writeValue(EventFields.mdc(event, key), max, out);
+        }
+        fields.require(fieldOf(name));
+        switch(name) {
+        case "level":
+            return (event, out) -> writeValue(event.getLevel() != null ? event.getLevel().toString() : null, max, out);
+        case "hostname":
+            return (event, out) -> writeValue(ContextProperties.of(event.getLoggerContextVO()).hostname(), max, out);
+        case "message":
+            return (event, out) -> writeValue(event.getFormattedMessage(), max, out);
+        case "timestamp":
+            TimestampFormatter timestamps = new TimestampFormatter();
+            return (event, out) -> writeValue(timestamps.format(event.getTimeStamp()), max, out);
+        case "logger":
+            return (event, out) -> writeValue(event.getLoggerName(), max, out);
+        case "thread":
+            return (event, out) -> writeValue(event.getThreadName(), max, out);
+        case "stacktrace":
+            return (event, out) -> throwables.writeEscaped(event.getThrowableProxy(), out);
+        case "color":
+            return (event, out) -> {
+                out.write(LevelStyle.of(event.getLevel()).colorBytes);
+                return true;
+            };
+        case "emoji":
+            return (event, out) -> {
+                out.write(LevelStyle.of(event.getLevel()).emojiBytes);
+                return true;
+            };
+        default:
+            throw new IllegalStateException("Unknown placeholder ${" + name + "} in template");
+        }
+    }
+
+    /**
+     * Gets the field of events which a placeholder reads
+     *
+     * @param name name of the placeholder
+     * @return field
+     */
+    private static int fieldOf(String name) {
+        switch(name) {
+        case "hostname":
+            return EventFields.CONTEXT;
+        case "message":
+            return EventFields.MESSAGE;
+        case "timestamp":
+            return EventFields.TIMESTAMP;
+        case "logger":
+            return EventFields.LOGGER;
+        case "thread":
+            return EventFields.THREAD;
+        case "stacktrace":
+            return EventFields.THROWABLE;
+        default:
+            // level, color and emoji
+            return EventFields.LEVEL;
+        }
+    }
+
+    /**
+     * Writes an escaped value, truncated if over the budget
+     *
+     * @param value value
+     * @param max maximum size in bytes of the value, or 0 if unlimited
+     * @param out buffer to write to
+     * @return false if value is null
+     */
+    private static boolean writeValue(String value, int max, JsonBuffer out) {
+        if(value == null) {
+            return false;
+        }
+        out.writeEscaped(value, max);
+        return true;
+    }
+}
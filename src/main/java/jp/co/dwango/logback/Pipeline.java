@@ -0,0 +1,188 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAware;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+/**
+ * Renders events and delivers them to one webhook, through its own queue and sender in async mode.
+ *
+ * In async mode, the calling thread only captures the fields which the renderer reads,
+ * and the sender thread renders them.
+ */
+final class Pipeline extends ContextAwareBase {
+    /** compiled payload script or template */
+    private final PayloadRenderer renderer;
+
+    /** fields of events which the renderer reads */
+    private final EventFields fields;
+
+    /** circuit breaker of the webhook */
+    private final CircuitBreaker breaker;
+
+    /** delivery to the webhook */
+    private final Delivery delivery;
+
+    /** spool of undeliverable messages, or null */
+    private final DiskSpool spool;
+
+    /** dispatcher, or null if posting on the calling thread */
+    private final AsyncDispatcher dispatcher;
+
+    /** metrics */
+    private final AppenderMetrics metrics;
+
+    /** replay of the spool scheduled on the context */
+    private ScheduledFuture<?> spoolReplay;
+
+    /**
+     * Creates a pipeline
+     *
+     * @param owner appender which status messages are reported as
+     * @param renderer compiled payload script or template
+     * @param breaker circuit breaker of the webhook
+     * @param delivery delivery to the webhook
+     * @param spool spool of undeliverable messages, or null
+     * @param dispatcher dispatcher, or null if posting on the calling thread
+     * @param metrics metrics
+     */
+    Pipeline(ContextAware owner, PayloadRenderer renderer, CircuitBreaker breaker, Delivery delivery, DiskSpool spool,
+            AsyncDispatcher dispatcher, AppenderMetrics metrics) {
+        super(owner);
+        setContext(owner.getContext());
+        this.renderer = renderer;
+        this.fields = renderer.fields();
+        this.breaker = breaker;
+        this.delivery = delivery;
+        this.spool = spool;
+        this.dispatcher = dispatcher;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Starts the sender and the replay of the spool
+     *
+     * @param spoolReplayInterval interval in milliseconds between replays of the spool
+     */
+    void start(long spoolReplayInterval) {
+        if (spool != null) {
+            if (getContext() != null) {
+                this.spoolReplay = getContext().getScheduledExecutorService().scheduleWithFixedDelay(
+                    delivery::replay, 0, spoolReplayInterval, TimeUnit.MILLISECONDS);
+                getContext().addScheduledFuture(spoolReplay);
+            } else {
+                addWarn("Spooled logs are not replayed without a logger context.");
+            }
+        }
+        if (dispatcher != null) {
+            dispatcher.start();
+        }
+    }
+
+    /**
+     * Drains the queue and flushes the spool
+     *
+     * @param maxFlushTime maximum time in milliseconds to drain the queue
+     */
+    void stop(long maxFlushTime) {
+        if (dispatcher != null) {
+            dispatcher.stop(maxFlushTime);
+        }
+        if (spoolReplay != null) {
+            spoolReplay.cancel(false);
+            spoolReplay = null;
+        }
+        if (spool != null) {
+            spool.flush();
+        }
+    }
+
+    /**
+     * Renders an event and posts it, or in async mode enqueues a snapshot of it to render on the sender thread
+     *
+     * @param eventObject logging event
+     */
+    void publish(ILoggingEvent eventObject) {
+        if (renderer instanceof DeferredRenderer) {
+            DeferredRenderer deferred = (DeferredRenderer) renderer;
+            if (deferred.isFailed()) {
+                metrics.dropped.increment();
+                return;
+            }
+            if (dispatcher == null && deferred.hold(eventObject)) {
+                return;
+            }
+        }
+        if (dispatcher != null) {
+            try {
+                dispatcher.offer(new Envelope(fields.capture(eventObject), dispatcher.laneOf(eventObject)));
+            } catch (Exception e) {
+                metrics.failed.increment();
+                metrics.error("Failed to post a log to slack.", e);
+                addError("Failed to post a log to slack.", e);
+            }
+            return;
+        }
+        publishNow(eventObject);
+    }
+
+    /**
+     * Renders an event and posts it on the calling thread
+     *
+     * @param eventObject logging event
+     */
+    void publishNow(ILoggingEvent eventObject) {
+        try {
+            byte[] bodyBytes = render(renderer, eventObject, metrics);
+            if(bodyBytes != null) {
+                delivery.sendNow(bodyBytes);
+            }
+        } catch (Exception e) {
+            metrics.failed.increment();
+            metrics.error("Failed to post a log to slack.", e);
+            addError("Failed to post a log to slack.", e);
+        }
+    }
+
+    /**
+     * Renders an event, recording the time taken
+     *
+     * @param renderer compiled payload script or template
+     * @param event logging event
+     * @param metrics metrics
+     * @return payload body in UTF-8 byte array, or null if posting is canceled
+     * @throws Exception if the payload cannot be rendered
+     */
+    static byte[] render(PayloadRenderer renderer, ILoggingEvent event, AppenderMetrics metrics) throws Exception {
+        long start = System.nanoTime();
+        byte[] bodyBytes = renderer.render(event);
+        metrics.render.recordSince(start);
+        if(bodyBytes == null) {
+            metrics.filtered.increment();
+        } else {
+            metrics.rendered.increment();
+        }
+        return bodyBytes;
+    }
+
+    /**
+     * Gets the number of queued messages
+     *
+     * @return number of queued messages, or 0 if not in async mode
+     */
+    int getQueueDepth() {
+        return dispatcher != null ? dispatcher.getQueueDepth() : 0;
+    }
+
+    /**
+     * Gets the state of the circuit breaker
+     *
+     * @return state
+     */
+    CircuitBreaker.State getCircuitState() {
+        return breaker.getState();
+    }
+}
@@ -0,0 +1,119 @@
+package jp.co.dwango.logback;
+
+import java.util.Arrays;
+
+/**
+ * Trie of logger name prefixes, each tagged with a bit set.
+ *
+ * A prefix matches a logger name when the name equals it or continues with a dot,
+ * so <code>com.example</code> matches <code>com.example.Foo</code> but not <code>com.examples</code>.
+ * Lookups walk the name once and do not allocate.
+ */
+final class PrefixTrie {
+    /**
+     * Node of the trie
+     */
+    private static final class Node {
+        /** characters of the children */
+        char[] keys = new char[0];
+
+        /** children */
+        Node[] children = new Node[0];
+
+        /** bits of the prefixes ending here */
+        long bits;
+
+        Node child(char c) {
+            char[] keys = this.keys;
+            for(int i = 0; i < keys.length; i++) {
+                if(keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char c) {
+            Node child = child(c);
+            if(child == null) {
+                child = new Node();
+                keys = Arrays.copyOf(keys, keys.length + 1);
+                keys[keys.length - 1] = c;
+                children = Arrays.copyOf(children, children.length + 1);
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    /** root, whose bits match every name */
+    private final Node root = new Node();
+
+    /** whether no prefix has been added */
+    private boolean empty = true;
+
+    /**
+     * Adds a prefix
+     *
+     * @param prefix logger name prefix; an empty prefix matches every name
+     * @param bits bits to tag the prefix with
+     */
+    void add(String prefix, long bits) {
+        String normalized = prefix.trim();
+        while(normalized.endsWith(".") || normalized.endsWith("*")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        Node node = root;
+        for(int i = 0; i < normalized.length(); i++) {
+            node = node.addChild(normalized.charAt(i));
+        }
+        node.bits |= bits;
+        empty = false;
+    }
+
+    /**
+     * Adds comma separated prefixes
+     *
+     * @param prefixes comma separated logger name prefixes
+     * @param bits bits to tag the prefixes with
+     */
+    void addAll(String prefixes, long bits) {
+        for(String prefix : prefixes.split(",")) {
+            add(prefix, bits);
+        }
+    }
+
+    /**
+     * Checks whether no prefix has been added
+     *
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return empty;
+    }
+
+    /**
+     * Finds the prefixes of a logger name
+     *
+     * @param name logger name, or null
+     * @return union of the bits of the matching prefixes
+     */
+    long match(String name) {
+        long bits = root.bits;
+        if(name == null) {
+            return bits;
+        }
+        Node node = root;
+        int length = name.length();
+        for(int i = 0; i < length; i++) {
+            node = node.child(name.charAt(i));
+            if(node == null) {
+                break;
+            }
+            if(node.bits != 0 && (i + 1 == length || name.charAt(i + 1) == '.')) {
+                bits |= node.bits;
+            }
+        }
+        return bits;
+    }
+}
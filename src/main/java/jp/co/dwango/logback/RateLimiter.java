@@ -0,0 +1,163 @@
+package jp.co.dwango.logback;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket shared by the appenders posting to the same webhook.
+ *
+ * The bucket is kept as the theoretical arrival time of the next message (GCRA),
+ * so that acquiring a token is a single compare-and-set. With a {@link SharedBucket},
+ * the bucket and pauses are shared with the other processes on the host instead, and the
+ * local bucket only takes over while the shared file cannot be locked.
+ */
+final class RateLimiter {
+    /** limiters by webhook URL and limits */
+    private static final ConcurrentMap<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    /** interval between messages in nanos, or 0 if unlimited */
+    private final long intervalNanos;
+
+    /** how far the theoretical arrival time may run ahead of now, which allows bursts */
+    private final long toleranceNanos;
+
+    /** theoretical arrival time of the next message in nanos */
+    private final AtomicLong theoreticalArrival;
+
+    /** time in nanos until which Slack asked us to stop posting */
+    private volatile long pausedUntil;
+
+    /** whether {@link #pausedUntil} is in effect */
+    private volatile boolean paused;
+
+    /** bucket shared by the processes on the host, or null */
+    private final SharedBucket shared;
+
+    /**
+     * Creates a limiter
+     *
+     * @param rate messages per second, or 0 if unlimited
+     * @param burst number of messages which may be posted at once
+     */
+    RateLimiter(double rate, int burst) {
+        this(rate, burst, null);
+    }
+
+    /**
+     * Creates a limiter
+     *
+     * @param rate messages per second, or 0 if unlimited
+     * @param burst number of messages which may be posted at once
+     * @param shared bucket shared by the processes on the host, or null
+     */
+    RateLimiter(double rate, int burst, SharedBucket shared) {
+        this.shared = shared;
+        this.intervalNanos = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / rate) : 0;
+        this.toleranceNanos = intervalNanos * (Math.max(1, burst) - 1);
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Gets the limiter of a webhook
+     *
+     * @param webhookUrl URL of the webhook
+     * @param rate messages per second, or 0 if unlimited
+     * @param burst number of messages which may be posted at once
+     * @return limiter shared by the appenders posting to the webhook with the same limits
+     */
+    static RateLimiter forWebhook(String webhookUrl, double rate, int burst) {
+        return LIMITERS.computeIfAbsent(webhookUrl + '|' + rate + '|' + burst, key -> new RateLimiter(rate, burst));
+    }
+
+    /**
+     * Gets the limiter of a webhook whose budget is shared by the processes on the host
+     *
+     * @param webhookUrl URL of the webhook
+     * @param rate messages per second, or 0 if unlimited
+     * @param burst number of messages which may be posted at once
+     * @param directory directory of the files shared by the processes
+     * @return limiter shared by the appenders posting to the webhook with the same limits and directory
+     * @throws IOException if the shared file cannot be opened
+     */
+    static RateLimiter forWebhook(String webhookUrl, double rate, int burst, File directory) throws IOException {
+        String key = webhookUrl + '|' + rate + '|' + burst + '|' + directory.getCanonicalPath();
+        RateLimiter limiter = LIMITERS.get(key);
+        if(limiter == null) {
+            RateLimiter opened = new RateLimiter(rate, burst, SharedBucket.forWebhook(directory, webhookUrl));
+            limiter = LIMITERS.putIfAbsent(key, opened);
+            if(limiter == null) {
+                limiter = opened;
+            }
+        }
+        return limiter;
+    }
+
+    /**
+     * Takes a token if available
+     *
+     * @return 0 if a token was taken, otherwise nanos to wait before trying again
+     */
+    long tryAcquire() {
+        long now = System.nanoTime();
+        if(paused) {
+            long wait = pausedUntil - now;
+            if(wait > 0) {
+                return wait;
+            }
+            paused = false;
+        }
+        if(shared != null) {
+            try {
+                return shared.tryAcquire(intervalNanos, toleranceNanos);
+            } catch (IOException e) {
+                // falls back to the budget of this process
+            }
+        }
+        if(intervalNanos == 0) {
+            return 0;
+        }
+        for(;;) {
+            long tat = theoreticalArrival.get();
+            long wait = tat - toleranceNanos - now;
+            if(wait > 0) {
+                return wait;
+            }
+            if(theoreticalArrival.compareAndSet(tat, Math.max(tat, now) + intervalNanos)) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Stops handing out tokens for a while
+     *
+     * @param millis milliseconds to pause
+     */
+    void pause(long millis) {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        if(!paused || until - pausedUntil > 0) {
+            pausedUntil = until;
+            paused = true;
+        }
+        if(shared != null) {
+            try {
+                shared.pause(millis);
+            } catch (IOException e) {
+                // paused in this process only
+            }
+        }
+    }
+
+    /**
+     * Checks whether a pause requested by Slack is in effect
+     *
+     * @return true if paused
+     */
+    boolean isPaused() {
+        return paused && pausedUntil - System.nanoTime() > 0;
+    }
+}
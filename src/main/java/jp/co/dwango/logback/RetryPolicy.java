@@ -0,0 +1,42 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exponential backoff with full jitter.
+ */
+final class RetryPolicy {
+    /** maximum number of retries */
+    final int maxRetries;
+
+    /** backoff in nanos before the first retry */
+    private final long baseNanos;
+
+    /** maximum backoff in nanos */
+    private final long maxNanos;
+
+    /**
+     * Creates a retry policy
+     *
+     * @param maxRetries maximum number of retries
+     * @param backoff backoff in milliseconds before the first retry
+     * @param maxBackoff maximum backoff in milliseconds
+     */
+    RetryPolicy(int maxRetries, long backoff, long maxBackoff) {
+        this.maxRetries = Math.max(0, maxRetries);
+        this.baseNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, backoff));
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(backoff, maxBackoff));
+    }
+
+    /**
+     * Picks a backoff before a retry
+     *
+     * @param retry number of the retry, starting from 0
+     * @return backoff in nanos, random between 0 and the exponential ceiling
+     */
+    long backoffNanos(int retry) {
+        long ceiling = retry < Long.numberOfLeadingZeros(baseNanos) - 1 ? Math.min(maxNanos, baseNanos << retry) : maxNanos;
+        return ceiling > 0 ? ThreadLocalRandom.current().nextLong(ceiling + 1) : 0;
+    }
+}
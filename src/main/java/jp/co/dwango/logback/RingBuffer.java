@@ -0,0 +1,129 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded lock-free multi-producer multi-consumer queue.
+ * 
+ * Every slot carries a sequence number which tells producers and consumers
+ * whether the slot is free or filled for their position, so neither side
+ * ever takes a lock.
+ * 
+ * @param <E> type of elements
+ */
+final class RingBuffer<E> {
+    /** capacity */
+    private final int capacity;
+
+    /** slots */
+    private final AtomicReferenceArray<E> slots;
+
+    /** sequence numbers of the slots */
+    private final AtomicLongArray sequences;
+
+    /** next position to poll */
+    private final AtomicLong head = new AtomicLong();
+
+    /** next position to offer */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Creates a ring buffer
+     * 
+     * @param capacity maximum number of elements
+     * @throws IllegalArgumentException if capacity is less than 1
+     */
+    RingBuffer(int capacity) {
+        if(capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.sequences = new AtomicLongArray(capacity);
+        for(int i = 0; i < capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * Inserts an element if there is room
+     * 
+     * @param element element
+     * @return false if the buffer is full
+     */
+    boolean offer(E element) {
+        long pos = tail.get();
+        for(;;) {
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - pos;
+            if(diff == 0) {
+                if(tail.compareAndSet(pos, pos + 1)) {
+                    slots.lazySet(index, element);
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if(diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element
+     * 
+     * @return the oldest element, or null if the buffer is empty
+     */
+    E poll() {
+        long pos = head.get();
+        for(;;) {
+            int index = (int) (pos % capacity);
+            long diff = sequences.get(index) - (pos + 1);
+            if(diff == 0) {
+                if(head.compareAndSet(pos, pos + 1)) {
+                    E element = slots.get(index);
+                    slots.lazySet(index, null);
+                    sequences.set(index, pos + capacity);
+                    return element;
+                }
+                pos = head.get();
+            } else if(diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * Gets the approximate number of elements
+     * 
+     * @return number of elements
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    /**
+     * Gets whether the buffer is empty
+     * 
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return tail.get() == head.get();
+    }
+
+    /**
+     * Gets capacity
+     * 
+     * @return capacity
+     */
+    int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,163 @@
+package jp.co.dwango.logback;
+
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * Decision table which selects routes for an event.
+ *
+ * Each route is a bit. Levels and logger prefixes are looked up in precompiled bit sets,
+ * and markers and MDC keys are checked only for the routes still selected.
+ */
+final class RouteTable {
+    /** maximum number of routes */
+    static final int MAX_ROUTES = Long.SIZE;
+
+    /** levels in the order of {@link #levelIndex(Level)} */
+    private static final Level[] LEVELS = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+    /** routes accepting each level */
+    private final long[] levelBits = new long[LEVELS.length];
+
+    /** routes without logger prefixes */
+    private final long anyLogger;
+
+    /** logger prefixes of routes */
+    private final PrefixTrie loggers = new PrefixTrie();
+
+    /** routes which require a marker */
+    private final long markerBits;
+
+    /** required markers by route */
+    private final String[] markers;
+
+    /** routes which require an MDC key */
+    private final long mdcBits;
+
+    /** required MDC keys by route */
+    private final String[] mdcKeys;
+
+    /**
+     * Compiles routes
+     *
+     * @param routes routes, at most {@value #MAX_ROUTES}
+     * @throws IllegalArgumentException if there are too many routes or a level is invalid
+     */
+    RouteTable(List<SlackRoute> routes) {
+        if(routes.size() > MAX_ROUTES) {
+            throw new IllegalArgumentException("At most " + MAX_ROUTES + " routes can be defined.");
+        }
+        this.markers = new String[routes.size()];
+        this.mdcKeys = new String[routes.size()];
+        long anyLogger = 0;
+        long markerBits = 0;
+        long mdcBits = 0;
+        for(int i = 0; i < routes.size(); i++) {
+            SlackRoute route = routes.get(i);
+            long bit = 1L << i;
+
+            Level minimum = Level.TRACE;
+            if(route.getLevel() != null) {
+                minimum = Level.toLevel(route.getLevel(), null);
+                if(minimum == null) {
+                    throw new IllegalArgumentException("Invalid level " + route.getLevel() + " of route " + route.getName() + ".");
+                }
+            }
+            for(int l = 0; l < LEVELS.length; l++) {
+                if(LEVELS[l].isGreaterOrEqual(minimum)) {
+                    levelBits[l] |= bit;
+                }
+            }
+
+            if(route.getLogger() == null || route.getLogger().trim().isEmpty()) {
+                anyLogger |= bit;
+            } else {
+                loggers.addAll(route.getLogger(), bit);
+            }
+
+            if(route.getMarker() != null) {
+                markerBits |= bit;
+                markers[i] = route.getMarker();
+            }
+            if(route.getMdcKey() != null) {
+                mdcBits |= bit;
+                mdcKeys[i] = route.getMdcKey();
+            }
+        }
+        this.anyLogger = anyLogger;
+        this.markerBits = markerBits;
+        this.mdcBits = mdcBits;
+    }
+
+    /**
+     * Selects routes for an event
+     *
+     * @param event logging event
+     * @return bits of the selected routes
+     */
+    long match(ILoggingEvent event) {
+        int level = levelIndex(event.getLevel());
+        if(level < 0) {
+            return 0;
+        }
+        long bits = levelBits[level];
+        if(bits == 0) {
+            return 0;
+        }
+        bits &= anyLogger | loggers.match(event.getLoggerName());
+
+        long markerChecks = bits & markerBits;
+        if(markerChecks != 0) {
+            Marker marker = event.getMarker();
+            for(; markerChecks != 0; markerChecks &= markerChecks - 1) {
+                int i = Long.numberOfTrailingZeros(markerChecks);
+                if(marker == null || !marker.contains(markers[i])) {
+                    bits &= ~(1L << i);
+                }
+            }
+        }
+
+        long mdcChecks = bits & mdcBits;
+        if(mdcChecks != 0) {
+            Map<String, String> mdc = event.getMDCPropertyMap();
+            for(; mdcChecks != 0; mdcChecks &= mdcChecks - 1) {
+                int i = Long.numberOfTrailingZeros(mdcChecks);
+                if(mdc == null || !mdc.containsKey(mdcKeys[i])) {
+                    bits &= ~(1L << i);
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * Maps a level to an index of {@link #LEVELS}
+     *
+     * @param level level
+     * @return index, or -1 if not an event level
+     */
+    static int levelIndex(Level level) {
+        if(level == null) {
+            return -1;
+        }
+        switch(level.toInt()) {
+        case Level.TRACE_INT:
+            return 0;
+        case Level.DEBUG_INT:
+            return 1;
+        case Level.INFO_INT:
+            return 2;
+        case Level.WARN_INT:
+            return 3;
+        case Level.ERROR_INT:
+            return 4;
+        default:
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package jp.co.dwango.logback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * State of a rate limit in a memory-mapped file, shared by the processes on a host posting to one webhook.
+ *
+ * The file holds the theoretical arrival time of the next message (GCRA) and the end of the pause
+ * requested by Slack, in wall clock nanos so that processes agree on them. An update reads and writes
+ * the mapped bytes under an exclusive lock of the file, which is held for a few memory accesses.
+ * Without a rate limit, only the pause is read, without locking.
+ */
+final class SharedBucket {
+    /** buckets by canonical path, since a process cannot lock one file twice */
+    private static final ConcurrentMap<String, SharedBucket> BUCKETS = new ConcurrentHashMap<>();
+
+    /** identifies an initialized file */
+    private static final long MAGIC = 0x534c41434b524c31L;
+
+    /** size of the file */
+    private static final int SIZE = 64;
+
+    /** offset of the magic number */
+    private static final int MAGIC_OFFSET = 0;
+
+    /** offset of the theoretical arrival time */
+    private static final int ARRIVAL_OFFSET = 8;
+
+    /** offset of the end of the pause */
+    private static final int PAUSE_OFFSET = 16;
+
+    /** channel to lock */
+    private final FileChannel channel;
+
+    /** mapped file */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Maps a file
+     *
+     * @param file file
+     * @throws IOException if an I/O exception occurs.
+     */
+    private SharedBucket(File file) throws IOException {
+        // stays open for the lifetime of the process to lock the file
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            this.channel = raf.getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Gets the bucket of a webhook
+     *
+     * @param directory directory of the files
+     * @param webhookUrl URL of the webhook
+     * @return bucket
+     * @throws IOException if the file cannot be opened
+     */
+    static SharedBucket forWebhook(File directory, String webhookUrl) throws IOException {
+        if(!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create directory " + directory);
+        }
+        File file = new File(directory, String.format("%016x.ratelimit", Fingerprint.mix(Fingerprint.SEED, webhookUrl)));
+        String path = file.getCanonicalPath();
+        SharedBucket bucket = BUCKETS.get(path);
+        if(bucket == null) {
+            SharedBucket opened = new SharedBucket(file);
+            bucket = BUCKETS.putIfAbsent(path, opened);
+            if(bucket == null) {
+                bucket = opened;
+            } else {
+                opened.channel.close();
+            }
+        }
+        return bucket;
+    }
+
+    /**
+     * Takes a token if available
+     *
+     * @param intervalNanos interval between messages in nanos
+     * @param toleranceNanos how far the theoretical arrival time may run ahead of now
+     * @return 0 if a token was taken, otherwise nanos to wait before trying again
+     * @throws IOException if the file cannot be locked
+     */
+    synchronized long tryAcquire(long intervalNanos, long toleranceNanos) throws IOException {
+        if(intervalNanos == 0) {
+            // only the pause applies, which is read without locking; a stale read lets a message through
+            // just as a pause starts, as a post in flight would anyway
+            if(buffer.getLong(MAGIC_OFFSET) != MAGIC) {
+                return 0;
+            }
+            return Math.max(0, buffer.getLong(PAUSE_OFFSET) - now());
+        }
+        FileLock lock = channel.lock(0, SIZE, false);
+        try {
+            long now = now();
+            initialize(now);
+            long wait = buffer.getLong(PAUSE_OFFSET) - now;
+            if(wait > 0) {
+                return wait;
+            }
+            long tat = buffer.getLong(ARRIVAL_OFFSET);
+            if(tat - now > toleranceNanos + intervalNanos) {
+                // the clock went back, or the file was written with a longer interval
+                tat = now;
+            }
+            wait = tat - toleranceNanos - now;
+            if(wait > 0) {
+                return wait;
+            }
+            buffer.putLong(ARRIVAL_OFFSET, Math.max(tat, now) + intervalNanos);
+            return 0;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Stops handing out tokens to all processes for a while
+     *
+     * @param millis milliseconds to pause
+     * @throws IOException if the file cannot be locked
+     */
+    synchronized void pause(long millis) throws IOException {
+        FileLock lock = channel.lock(0, SIZE, false);
+        try {
+            long now = now();
+            initialize(now);
+            long until = now + TimeUnit.MILLISECONDS.toNanos(millis);
+            if(until - buffer.getLong(PAUSE_OFFSET) > 0) {
+                buffer.putLong(PAUSE_OFFSET, until);
+            }
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * Initializes the file if it has just been created
+     *
+     * @param now current time in wall clock nanos
+     */
+    private void initialize(long now) {
+        if(buffer.getLong(MAGIC_OFFSET) != MAGIC) {
+            buffer.putLong(ARRIVAL_OFFSET, now);
+            buffer.putLong(PAUSE_OFFSET, now);
+            buffer.putLong(MAGIC_OFFSET, MAGIC);
+        }
+    }
+
+    /**
+     * Gets the current time in nanos which processes on the host agree on
+     *
+     * @return wall clock time in nanos
+     */
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,73 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+
+/**
+ * Thrown when Slack responds with a status other than 200 OK.
+ */
+public class SlackResponseException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    /** HTTP status code */
+    private final int statusCode;
+
+    /** value of Retry-After header in milliseconds, or -1 if absent */
+    private final long retryAfterMillis;
+
+    /**
+     * Creates an exception
+     *
+     * @param message detail message
+     * @param statusCode HTTP status code
+     * @param retryAfterMillis value of Retry-After header in milliseconds, or -1 if absent
+     */
+    public SlackResponseException(String message, int statusCode, long retryAfterMillis) {
+        super(message);
+        this.statusCode = statusCode;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * Gets statusCode
+     *
+     * @return HTTP status code
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Gets retryAfterMillis
+     *
+     * @return value of Retry-After header in milliseconds, or -1 if absent
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    /**
+     * Checks whether Slack is rate limiting
+     *
+     * @return true if the status is 429 Too Many Requests
+     */
+    public boolean isRateLimited() {
+        return statusCode == 429;
+    }
+
+    /**
+     * Parses a value of Retry-After header given in seconds
+     *
+     * @param retryAfter value of Retry-After header, may be null
+     * @return milliseconds, or -1 if absent or not in seconds
+     */
+    static long parseRetryAfter(String retryAfter) {
+        if(retryAfter == null) {
+            return -1;
+        }
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim())) * 1000;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
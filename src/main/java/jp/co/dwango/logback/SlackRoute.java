@@ -0,0 +1,287 @@
+package jp.co.dwango.logback;
+
+/**
+ * Destination of the events selected by level, logger name prefix, marker and MDC key.
+ *
+ * Each route posts to its own webhook through its own queue and sender thread, so that a slow
+ * or failing webhook does not delay the others. Settings left unset are inherited from the appender.
+ */
+public class SlackRoute {
+    /** name */
+    private String name;
+
+    /** minimum level */
+    private String level;
+
+    /** logger name prefixes */
+    private String logger;
+
+    /** required marker */
+    private String marker;
+
+    /** required MDC key */
+    private String mdcKey;
+
+    /** URL of incoming webhook */
+    private String webhookUrl;
+
+    /** payload */
+    private String payload;
+
+    /** template */
+    private String template;
+
+    /** capacity of the dispatch queue, or 0 to inherit */
+    private int queueSize = 0;
+
+    /** maximum number of messages merged into one post, or 0 to inherit */
+    private int batchSize = 0;
+
+    /** messages per second, or -1 to inherit */
+    private double rateLimit = -1;
+
+    /** number of messages posted at once, or 0 to inherit */
+    private int rateBurst = 0;
+
+    /** transport to webhookUrl, while started */
+    HttpTransport transport;
+
+    /** pipeline, while started */
+    Pipeline pipeline;
+
+    /**
+     * Gets name
+     *
+     * @return name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Sets name
+     * 
+     * @param name name of the route, used for the sender thread and the spool directory
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Gets level
+     *
+     * @return level
+     */
+    public String getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets level
+     * 
+     * @param level minimum level of events, or null for all levels
+     */
+    public void setLevel(String level) {
+        this.level = level;
+    }
+
+    /**
+     * Gets logger
+     *
+     * @return logger
+     */
+    public String getLogger() {
+        return logger;
+    }
+
+    /**
+     * Sets logger
+     * 
+     * @param logger comma separated logger name prefixes, or null for all loggers
+     */
+    public void setLogger(String logger) {
+        this.logger = logger;
+    }
+
+    /**
+     * Gets marker
+     *
+     * @return marker
+     */
+    public String getMarker() {
+        return marker;
+    }
+
+    /**
+     * Sets marker
+     * 
+     * @param marker marker which events must have, or null
+     */
+    public void setMarker(String marker) {
+        this.marker = marker;
+    }
+
+    /**
+     * Gets mdcKey
+     *
+     * @return mdcKey
+     */
+    public String getMdcKey() {
+        return mdcKey;
+    }
+
+    /**
+     * Sets mdcKey
+     * 
+     * @param mdcKey MDC key which events must have, or null
+     */
+    public void setMdcKey(String mdcKey) {
+        this.mdcKey = mdcKey;
+    }
+
+    /**
+     * Gets webhookUrl
+     *
+     * @return webhookUrl
+     */
+    public String getWebhookUrl() {
+        return webhookUrl;
+    }
+
+    /**
+     * Sets webhookUrl
+     * 
+     * @param webhookUrl URL of incoming webhook
+     */
+    public void setWebhookUrl(String webhookUrl) {
+        this.webhookUrl = webhookUrl;
+    }
+
+    /**
+     * Gets payload
+     *
+     * @return payload
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Sets payload
+     * 
+     * @param payload payload script, or null to use the template or those of the appender
+     */
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    /**
+     * Gets template
+     *
+     * @return template
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Sets template
+     * 
+     * @param template JSON with placeholders, or null to use the payload or those of the appender
+     */
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+
+    /**
+     * Gets queueSize
+     *
+     * @return queueSize
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets queueSize
+     * 
+     * @param queueSize capacity of the dispatch queue, or 0 to use that of the appender
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Gets batchSize
+     *
+     * @return batchSize
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets batchSize
+     * 
+     * @param batchSize maximum number of messages merged into one post, or 0 to use that of the appender
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets rateLimit
+     *
+     * @return rateLimit
+     */
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Sets rateLimit
+     * 
+     * @param rateLimit messages per second to post to the webhook, or -1 to use that of the appender
+     */
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Gets rateBurst
+     *
+     * @return rateBurst
+     */
+    public int getRateBurst() {
+        return rateBurst;
+    }
+
+    /**
+     * Sets rateBurst
+     * 
+     * @param rateBurst number of messages which may be posted at once, or 0 to use that of the appender
+     */
+    public void setRateBurst(int rateBurst) {
+        this.rateBurst = rateBurst;
+    }
+
+    /**
+     * Gets the number of messages waiting in the dispatch queue
+     *
+     * @return number of queued messages, or 0 if not started
+     */
+    public int getQueueDepth() {
+        Pipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getQueueDepth() : 0;
+    }
+
+    /**
+     * Gets the state of the circuit breaker of the webhook
+     *
+     * @return CLOSED, OPEN or HALF_OPEN, or null if not started
+     */
+    public String getCircuitState() {
+        Pipeline pipeline = this.pipeline;
+        return pipeline != null ? pipeline.getCircuitState().name() : null;
+    }
+}
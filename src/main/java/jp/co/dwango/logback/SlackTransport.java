@@ -0,0 +1,32 @@
+package jp.co.dwango.logback;
+
+import java.net.URL;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Posts payloads to Slack webhooks without blocking the caller.
+ *
+ * Each route of {@link SlackWebhookAppender} has a sender thread which keeps one post outstanding at a
+ * time, so that its messages arrive in order, or up to <code>maxInFlight</code> if not <code>ordered</code>,
+ * and retries or spools them as their futures complete. An implementation may be configured with
+ * <code>&lt;transport class="..."&gt;</code>; it is shared by the webhooks of all routes, caps the posts
+ * in flight to a webhook itself if it needs to, and is closed when the appender stops.
+ */
+public interface SlackTransport {
+    /**
+     * Starts posting a payload
+     *
+     * @param webhookUrl webhook URL
+     * @param body payload body in UTF-8 byte array
+     * @return future which completes when Slack accepts the payload, or completes exceptionally with
+     *     {@link SlackResponseException} if Slack responds with a status other than 200 OK,
+     *     or with another {@link java.io.IOException} if an I/O exception occurs
+     */
+    CompletableFuture<Void> post(URL webhookUrl, byte[] body);
+
+    /**
+     * Releases resources of the transport
+     */
+    default void close() {
+    }
+}
@@ -1,20 +1,25 @@
 package jp.co.dwango.logback;
 
+import java.io.File;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
+import java.lang.management.ManagementFactory;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-import javax.script.Invocable;
-import javax.script.ScriptEngine;
-import javax.script.ScriptEngineManager;
-import javax.script.ScriptException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.FilterReply;
 
 /**
  * Logback appender implementation which posts logs to Slack via webhook.
@@ -22,94 +27,1284 @@ import ch.qos.logback.core.UnsynchronizedAppenderBase;
 public class SlackWebhookAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
     /** default timeout in milliseconds */
     private static final int DEFAULT_TIMEOUT_MILLIS = 50_000;
+
+    /** default capacity of the dispatch queue */
+    private static final int DEFAULT_QUEUE_SIZE = 256;
+
+    /** default maximum time in milliseconds to wait for a batch to fill up */
+    private static final int DEFAULT_BATCH_WINDOW_MILLIS = 1_000;
+
+    /** default maximum number of events remembered for duplicate suppression */
+    private static final int DEFAULT_DUPLICATE_CACHE_SIZE = 1_024;
+
+    /** default number of top stack frames which identify duplicates */
+    private static final int DEFAULT_DUPLICATE_STACK_DEPTH = 3;
+
+    /** default size of a spool segment in bytes */
+    private static final int DEFAULT_SPOOL_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    /** default maximum size of the spool in bytes */
+    private static final long DEFAULT_SPOOL_MAX_SIZE = 64L * 1024 * 1024;
+
+    /** default interval in milliseconds between replays of the spool */
+    private static final int DEFAULT_SPOOL_REPLAY_INTERVAL_MILLIS = 5_000;
+
+    /** default maximum number of retries of a transient failure */
+    private static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** default backoff in milliseconds before the first retry */
+    private static final int DEFAULT_RETRY_BACKOFF_MILLIS = 500;
+
+    /** default maximum backoff in milliseconds between retries */
+    private static final int DEFAULT_MAX_RETRY_BACKOFF_MILLIS = 30_000;
+
+    /** default number of consecutive failures which open the circuit breaker */
+    private static final int DEFAULT_CIRCUIT_BREAKER_THRESHOLD = 5;
+
+    /** default time in milliseconds the circuit breaker stays open before probing */
+    private static final int DEFAULT_CIRCUIT_BREAKER_OPEN_TIME_MILLIS = 30_000;
+
+    /** default maximum number of rows of a digest */
+    private static final int DEFAULT_DIGEST_SIZE = 10;
+
+    /** default maximum size of a message in bytes */
+    private static final int DEFAULT_MAX_MESSAGE_BYTES = 40_000;
+
+    /** default maximum number of messages a payload is split into */
+    private static final int DEFAULT_MAX_MESSAGE_PARTS = 5;
+
+    /** default maximum time in milliseconds to drain the dispatch queue on stop */
+    private static final int DEFAULT_MAX_FLUSH_TIME_MILLIS = 1_000;
+    
+    /** string of webhookUrl */
+    private String webhookUrlStr;
+    
+    /** transport to webhookUrl */
+    private HttpTransport httpTransport;
+
+    /** transport shared by the webhooks, or null to post with {@link #post(byte[])} */
+    private SlackTransport transport;
+
+    /** transport which keeps several posts in flight per webhook, while started with maxInFlight over 1 */
+    private SlackTransport asyncTransport;
+
+    /** payload */
+    private String payload;
+
+    /** template */
+    private String template;
+
+    /** minimum level of events to post */
+    private String minLevel;
+
+    /** logger name prefixes of events to post */
+    private String includeLoggers;
+
+    /** logger name prefixes of events to discard */
+    private String excludeLoggers;
+
+    /** marker which events must have */
+    private String requiredMarker;
+
+    /** MDC key which events must have */
+    private String requiredMdcKey;
+
+    /** regular expression which messages must contain */
+    private String messagePattern;
+
+    /** comma separated package name prefixes of stack frames to collapse */
+    private String stackFilters;
+
+    /** timeout */
+    private int timeout = DEFAULT_TIMEOUT_MILLIS;
+
+    /** connect timeout, or -1 to use {@link #timeout} */
+    private int connectTimeout = -1;
+
+    /** read timeout, or -1 to use {@link #timeout} */
+    private int readTimeout = -1;
+
+    /** whether a connection is opened in the background on start */
+    private boolean warmUp = true;
+
+    /** whether the payload script is compiled on a background thread */
+    private boolean backgroundCompile = false;
+    
+    /** whether messages are posted by a dedicated sender thread */
+    private boolean async = false;
+
+    /** capacity of the dispatch queue */
+    private int queueSize = DEFAULT_QUEUE_SIZE;
+
+    /** what to discard when the dispatch queue is full */
+    private DropPolicy dropPolicy = DropPolicy.DROP_NEWEST;
+
+    /** level for {@link DropPolicy#DROP_BELOW_LEVEL} */
+    private Level dropThreshold = Level.WARN;
+
+    /** whether queued messages wait in lanes by level */
+    private boolean priorityLanes = false;
+
+    /** marker which puts events into the highest lane */
+    private String priorityMarker;
+
+    /** comma separated numbers of messages taken from each lane per turn, or null for strict priority */
+    private String laneWeights;
+
+    /** maximum number of messages merged into one post */
+    private int batchSize = 1;
+
+    /** maximum time in milliseconds to wait for a batch to fill up */
+    private int batchWindow = DEFAULT_BATCH_WINDOW_MILLIS;
+
+    /** messages per second to post to the webhook, or 0 if unlimited */
+    private double rateLimit = 0;
+
+    /** number of messages which may be posted to the webhook at once */
+    private int rateBurst = 1;
+
+    /** directory of the files sharing rate limits among the processes on the host, or null if disabled */
+    private String sharedRateLimitDirectory;
+
+    /** maximum number of retries of a transient failure in async mode */
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    /** backoff in milliseconds before the first retry */
+    private int retryBackoff = DEFAULT_RETRY_BACKOFF_MILLIS;
+
+    /** maximum backoff in milliseconds between retries */
+    private int maxRetryBackoff = DEFAULT_MAX_RETRY_BACKOFF_MILLIS;
+
+    /** number of consecutive failures which open the circuit breaker, or 0 if disabled */
+    private int circuitBreakerThreshold = DEFAULT_CIRCUIT_BREAKER_THRESHOLD;
+
+    /** time in milliseconds the circuit breaker stays open before probing */
+    private int circuitBreakerOpenTime = DEFAULT_CIRCUIT_BREAKER_OPEN_TIME_MILLIS;
+
+    /** time in milliseconds during which repeats of an event are only counted, or 0 if disabled */
+    private int duplicateWindow = 0;
+
+    /** maximum number of events remembered for duplicate suppression */
+    private int duplicateCacheSize = DEFAULT_DUPLICATE_CACHE_SIZE;
+
+    /** number of top stack frames which identify duplicates */
+    private int duplicateStackDepth = DEFAULT_DUPLICATE_STACK_DEPTH;
+
+    /** interval in milliseconds between digests, or 0 if disabled */
+    private int digestInterval = 0;
+
+    /** events at or below this level are digested */
+    private Level digestLevel = Level.WARN;
+
+    /** maximum number of rows of a digest */
+    private int digestSize = DEFAULT_DIGEST_SIZE;
+
+    /** maximum number of lines of a stack trace per throwable */
+    private int maxStackDepth = ThrowableRenderer.DEFAULT_MAX_DEPTH;
+
+    /** maximum number of characters of a stack trace */
+    private int maxStackLength = ThrowableRenderer.DEFAULT_MAX_LENGTH;
+
+    /** maximum size in bytes of a placeholder value, or 0 if unlimited */
+    private int maxFieldBytes = 0;
+
+    /** maximum size of a message in bytes, or 0 if unlimited */
+    private int maxMessageBytes = DEFAULT_MAX_MESSAGE_BYTES;
+
+    /** maximum number of messages a payload is split into */
+    private int maxMessageParts = DEFAULT_MAX_MESSAGE_PARTS;
+
+    /** maximum number of posts in flight per webhook in async mode, across the routes */
+    private int maxInFlight = 1;
+
+    /** whether each route keeps one post in flight so that its messages arrive in order */
+    private boolean ordered = true;
+
+    /** whether posts in flight run on virtual threads, where the runtime has them */
+    private boolean virtualThreads = false;
+
+    /** directory to spool undeliverable messages in, or null if disabled */
+    private String spoolDirectory;
+
+    /** size of a spool segment in bytes */
+    private int spoolSegmentSize = DEFAULT_SPOOL_SEGMENT_SIZE;
+
+    /** maximum size of the spool in bytes */
+    private long spoolMaxSize = DEFAULT_SPOOL_MAX_SIZE;
+
+    /** interval in milliseconds between replays of the spool */
+    private int spoolReplayInterval = DEFAULT_SPOOL_REPLAY_INTERVAL_MILLIS;
+
+    /** maximum time in milliseconds to drain the dispatch queue on stop */
+    private int maxFlushTime = DEFAULT_MAX_FLUSH_TIME_MILLIS;
+
+    /** whether the metrics are registered as an MXBean */
+    private boolean jmx = true;
+
+    /** metrics */
+    private final AppenderMetrics metrics = new AppenderMetrics(this::getQueueDepth, this::getCircuitState);
+
+    /** name of the registered MXBean */
+    private ObjectName objectName;
+
+    /** routes */
+    private final List<SlackRoute> routes = new ArrayList<>();
+
+    /** filter rules, or null if none */
+    private EventFilter filter;
+
+    /** suppressor of repeated events */
+    private DuplicateSuppressor suppressor;
+
+    /** aggregator of digested events */
+    private DigestAggregator digest;
+
+    /** pipeline to webhookUrl, or null if only routes are defined */
+    private Pipeline pipeline;
+
+    /** decision table of routes, or null if no route is defined */
+    private RouteTable routeTable;
+    
+    /** for backward compatibility  */
+    private final SlackWebhookAppenderBc bc = new SlackWebhookAppenderBc() {
+        protected void post(byte[] body) throws IOException {
+            long start = System.nanoTime();
+            try {
+                SlackWebhookAppender.this.post(body);
+                metrics.posted.increment();
+            } catch (IOException | RuntimeException e) {
+                metrics.failed.increment();
+                metrics.error("Failed to post a log to slack.", e);
+                throw e;
+            } finally {
+                metrics.http.recordSince(start);
+            }
+        }  
+    };
+
+    /**
+     * Gets webhookUrl
+     * 
+     * @return webhookUrl
+     */
+    public String getWebhookUrl() {
+        return this.webhookUrlStr;
+    }
+
+    /**
+     * Sets webhookUrl
+     * 
+     * @param webhookUrl WebhookUrl
+     */
+    public void setWebhookUrl(String webhookUrl) {
+        this.webhookUrlStr = webhookUrl;
+        bc.setWebhookUrl(webhookUrl);
+    }
+
+    /**
+     * Gets payload
+     *
+     * @return payload
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * Sets payload
+     * 
+     * @param payload payload
+     */
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+    
+    /**
+     * Gets template
+     *
+     * @return template
+     */
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Sets template
+     * 
+     * @param template JSON with placeholders, used instead of payload script
+     */
+    public void setTemplate(String template) {
+        this.template = template;
+    }
+
+    /**
+     * Gets minLevel
+     *
+     * @return minLevel
+     */
+    public String getMinLevel() {
+        return minLevel;
+    }
+
+    /**
+     * Sets minLevel
+     * 
+     * @param minLevel minimum level of events to post, or null for all levels
+     */
+    public void setMinLevel(String minLevel) {
+        this.minLevel = minLevel;
+    }
+
+    /**
+     * Gets includeLoggers
+     *
+     * @return includeLoggers
+     */
+    public String getIncludeLoggers() {
+        return includeLoggers;
+    }
+
+    /**
+     * Sets includeLoggers
+     * 
+     * @param includeLoggers comma separated logger name prefixes of events to post, or null for all loggers
+     */
+    public void setIncludeLoggers(String includeLoggers) {
+        this.includeLoggers = includeLoggers;
+    }
+
+    /**
+     * Gets excludeLoggers
+     *
+     * @return excludeLoggers
+     */
+    public String getExcludeLoggers() {
+        return excludeLoggers;
+    }
+
+    /**
+     * Sets excludeLoggers
+     * 
+     * @param excludeLoggers comma separated logger name prefixes of events to discard, or null
+     */
+    public void setExcludeLoggers(String excludeLoggers) {
+        this.excludeLoggers = excludeLoggers;
+    }
+
+    /**
+     * Gets requiredMarker
+     *
+     * @return requiredMarker
+     */
+    public String getRequiredMarker() {
+        return requiredMarker;
+    }
+
+    /**
+     * Sets requiredMarker
+     * 
+     * @param requiredMarker marker which events must have to be posted, or null
+     */
+    public void setRequiredMarker(String requiredMarker) {
+        this.requiredMarker = requiredMarker;
+    }
+
+    /**
+     * Gets requiredMdcKey
+     *
+     * @return requiredMdcKey
+     */
+    public String getRequiredMdcKey() {
+        return requiredMdcKey;
+    }
+
+    /**
+     * Sets requiredMdcKey
+     * 
+     * @param requiredMdcKey MDC key which events must have to be posted, or null
+     */
+    public void setRequiredMdcKey(String requiredMdcKey) {
+        this.requiredMdcKey = requiredMdcKey;
+    }
+
+    /**
+     * Gets messagePattern
+     *
+     * @return messagePattern
+     */
+    public String getMessagePattern() {
+        return messagePattern;
+    }
+
+    /**
+     * Sets messagePattern
+     * 
+     * @param messagePattern regular expression which messages must contain to be posted, or null
+     */
+    public void setMessagePattern(String messagePattern) {
+        this.messagePattern = messagePattern;
+    }
+
+    /**
+     * Gets stackFilters
+     *
+     * @return stackFilters
+     */
+    public String getStackFilters() {
+        return stackFilters;
+    }
+
+    /**
+     * Sets stackFilters
+     * 
+     * @param stackFilters comma separated package name prefixes of stack frames to collapse
+     */
+    public void setStackFilters(String stackFilters) {
+        this.stackFilters = stackFilters;
+        bc.setStackFilters(stackFilters);
+    }
+
+    /**
+     * Gets timeout
+     *
+     * @return timeout
+     */
+    public int getTimeout() {
+        return timeout;
+    }
     
-    /** {@link ScriptEngineManager} */
-    private static final ScriptEngineManager SCRIPT_MANAGER = new ScriptEngineManager();
+    /**
+     * Sets timeout
+     * 
+     * @param timeout timeout
+     */
+    public void setTimeout(String timeout) {
+        this.timeout = Integer.parseInt(timeout);
+    }
+
+    /**
+     * Sets timeout
+     * 
+     * @param timeout timeout
+     */
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    /**
+     * Gets connectTimeout
+     *
+     * @return connectTimeout
+     */
+    public int getConnectTimeout() {
+        return connectTimeout >= 0 ? connectTimeout : timeout;
+    }
+
+    /**
+     * Sets connectTimeout
+     * 
+     * @param connectTimeout timeout of connecting to Slack in milliseconds
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * Gets readTimeout
+     *
+     * @return readTimeout
+     */
+    public int getReadTimeout() {
+        return readTimeout >= 0 ? readTimeout : timeout;
+    }
+
+    /**
+     * Sets readTimeout
+     * 
+     * @param readTimeout timeout of reading a response from Slack in milliseconds
+     */
+    public void setReadTimeout(int readTimeout) {
+        this.readTimeout = readTimeout;
+    }
+
+    /**
+     * Gets warmUp
+     *
+     * @return warmUp
+     */
+    public boolean isWarmUp() {
+        return warmUp;
+    }
+
+    /**
+     * Sets warmUp
+     * 
+     * @param warmUp if true, the host is resolved and a connection is opened in the background on start
+     */
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    /**
+     * Gets backgroundCompile
+     *
+     * @return backgroundCompile
+     */
+    public boolean isBackgroundCompile() {
+        return backgroundCompile;
+    }
+
+    /**
+     * Sets backgroundCompile
+     * 
+     * @param backgroundCompile if true, the payload script is compiled on a background thread and start does not wait for the JavaScript engine, nor fail on errors in the script
+     */
+    public void setBackgroundCompile(boolean backgroundCompile) {
+        this.backgroundCompile = backgroundCompile;
+    }
+
+    /**
+     * Gets async
+     *
+     * @return async
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Sets async
+     * 
+     * @param async if true, messages are posted by a dedicated sender thread
+     */
+    public void setAsync(boolean async) {
+        this.async = async;
+    }
+
+    /**
+     * Gets queueSize
+     *
+     * @return queueSize
+     */
+    public int getQueueSize() {
+        return queueSize;
+    }
+
+    /**
+     * Sets queueSize
+     * 
+     * @param queueSize capacity of the dispatch queue in async mode; with priorityLanes, each of the three lanes preallocates this many slots
+     */
+    public void setQueueSize(int queueSize) {
+        this.queueSize = queueSize;
+    }
+
+    /**
+     * Gets dropPolicy
+     *
+     * @return dropPolicy
+     */
+    public DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    /**
+     * Sets dropPolicy
+     * 
+     * @param dropPolicy what to discard when the dispatch queue is full
+     */
+    public void setDropPolicy(DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * Gets dropThreshold
+     *
+     * @return dropThreshold
+     */
+    public String getDropThreshold() {
+        return dropThreshold.toString();
+    }
+
+    /**
+     * Sets dropThreshold
+     * 
+     * @param dropThreshold level for {@link DropPolicy#DROP_BELOW_LEVEL}
+     */
+    public void setDropThreshold(String dropThreshold) {
+        this.dropThreshold = Level.toLevel(dropThreshold, Level.WARN);
+    }
+
+    /**
+     * Gets priorityLanes
+     *
+     * @return priorityLanes
+     */
+    public boolean isPriorityLanes() {
+        return priorityLanes;
+    }
+
+    /**
+     * Sets priorityLanes
+     * 
+     * @param priorityLanes if true, errors, warnings and the rest wait in separate lanes, and errors are sent and kept first
+     */
+    public void setPriorityLanes(boolean priorityLanes) {
+        this.priorityLanes = priorityLanes;
+    }
+
+    /**
+     * Gets priorityMarker
+     *
+     * @return priorityMarker
+     */
+    public String getPriorityMarker() {
+        return priorityMarker;
+    }
+
+    /**
+     * Sets priorityMarker
+     * 
+     * @param priorityMarker marker which puts events into the highest lane, or null
+     */
+    public void setPriorityMarker(String priorityMarker) {
+        this.priorityMarker = priorityMarker;
+    }
+
+    /**
+     * Gets laneWeights
+     *
+     * @return laneWeights
+     */
+    public String getLaneWeights() {
+        return laneWeights;
+    }
+
+    /**
+     * Sets laneWeights
+     * 
+     * @param laneWeights comma separated numbers of messages taken from the error, warning and other lanes per turn, or null for strict priority
+     */
+    public void setLaneWeights(String laneWeights) {
+        this.laneWeights = laneWeights;
+    }
+
+    /**
+     * Gets batchSize
+     *
+     * @return batchSize
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets batchSize
+     * 
+     * @param batchSize maximum number of messages merged into one post in async mode
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Gets batchWindow
+     *
+     * @return batchWindow
+     */
+    public int getBatchWindow() {
+        return batchWindow;
+    }
+
+    /**
+     * Sets batchWindow
+     * 
+     * @param batchWindow maximum time in milliseconds to wait for a batch to fill up
+     */
+    public void setBatchWindow(int batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    /**
+     * Gets rateLimit
+     *
+     * @return rateLimit
+     */
+    public double getRateLimit() {
+        return rateLimit;
+    }
+
+    /**
+     * Sets rateLimit
+     * 
+     * @param rateLimit messages per second to post to the webhook, or 0 if unlimited
+     */
+    public void setRateLimit(double rateLimit) {
+        this.rateLimit = rateLimit;
+    }
+
+    /**
+     * Gets rateBurst
+     *
+     * @return rateBurst
+     */
+    public int getRateBurst() {
+        return rateBurst;
+    }
+
+    /**
+     * Sets rateBurst
+     * 
+     * @param rateBurst number of messages which may be posted to the webhook at once
+     */
+    public void setRateBurst(int rateBurst) {
+        this.rateBurst = rateBurst;
+    }
+
+    /**
+     * Gets sharedRateLimitDirectory
+     *
+     * @return sharedRateLimitDirectory
+     */
+    public String getSharedRateLimitDirectory() {
+        return sharedRateLimitDirectory;
+    }
+
+    /**
+     * Sets sharedRateLimitDirectory
+     * 
+     * @param sharedRateLimitDirectory directory of the files sharing rate limits among the processes on the host
+     */
+    public void setSharedRateLimitDirectory(String sharedRateLimitDirectory) {
+        this.sharedRateLimitDirectory = sharedRateLimitDirectory;
+    }
+
+    /**
+     * Gets maxRetries
+     *
+     * @return maxRetries
+     */
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets maxRetries
+     * 
+     * @param maxRetries maximum number of retries of a transient failure in async mode
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Gets retryBackoff
+     *
+     * @return retryBackoff
+     */
+    public int getRetryBackoff() {
+        return retryBackoff;
+    }
+
+    /**
+     * Sets retryBackoff
+     * 
+     * @param retryBackoff backoff in milliseconds before the first retry
+     */
+    public void setRetryBackoff(int retryBackoff) {
+        this.retryBackoff = retryBackoff;
+    }
+
+    /**
+     * Gets maxRetryBackoff
+     *
+     * @return maxRetryBackoff
+     */
+    public int getMaxRetryBackoff() {
+        return maxRetryBackoff;
+    }
+
+    /**
+     * Sets maxRetryBackoff
+     * 
+     * @param maxRetryBackoff maximum backoff in milliseconds between retries
+     */
+    public void setMaxRetryBackoff(int maxRetryBackoff) {
+        this.maxRetryBackoff = maxRetryBackoff;
+    }
+
+    /**
+     * Gets circuitBreakerThreshold
+     *
+     * @return circuitBreakerThreshold
+     */
+    public int getCircuitBreakerThreshold() {
+        return circuitBreakerThreshold;
+    }
+
+    /**
+     * Sets circuitBreakerThreshold
+     * 
+     * @param circuitBreakerThreshold number of consecutive failures which open the circuit breaker, or 0 to disable it
+     */
+    public void setCircuitBreakerThreshold(int circuitBreakerThreshold) {
+        this.circuitBreakerThreshold = circuitBreakerThreshold;
+    }
+
+    /**
+     * Gets circuitBreakerOpenTime
+     *
+     * @return circuitBreakerOpenTime
+     */
+    public int getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    /**
+     * Sets circuitBreakerOpenTime
+     * 
+     * @param circuitBreakerOpenTime time in milliseconds the circuit breaker stays open before probing
+     */
+    public void setCircuitBreakerOpenTime(int circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    /**
+     * Gets duplicateWindow
+     *
+     * @return duplicateWindow
+     */
+    public int getDuplicateWindow() {
+        return duplicateWindow;
+    }
+
+    /**
+     * Sets duplicateWindow
+     * 
+     * @param duplicateWindow time in milliseconds during which repeats of an event are only counted, or 0 if disabled
+     */
+    public void setDuplicateWindow(int duplicateWindow) {
+        this.duplicateWindow = duplicateWindow;
+    }
+
+    /**
+     * Gets duplicateCacheSize
+     *
+     * @return duplicateCacheSize
+     */
+    public int getDuplicateCacheSize() {
+        return duplicateCacheSize;
+    }
+
+    /**
+     * Sets duplicateCacheSize
+     * 
+     * @param duplicateCacheSize maximum number of events remembered for duplicate suppression
+     */
+    public void setDuplicateCacheSize(int duplicateCacheSize) {
+        this.duplicateCacheSize = duplicateCacheSize;
+    }
+
+    /**
+     * Gets duplicateStackDepth
+     *
+     * @return duplicateStackDepth
+     */
+    public int getDuplicateStackDepth() {
+        return duplicateStackDepth;
+    }
+
+    /**
+     * Sets duplicateStackDepth
+     * 
+     * @param duplicateStackDepth number of top stack frames which identify duplicates
+     */
+    public void setDuplicateStackDepth(int duplicateStackDepth) {
+        this.duplicateStackDepth = duplicateStackDepth;
+    }
+
+    /**
+     * Gets digestInterval
+     *
+     * @return digestInterval
+     */
+    public int getDigestInterval() {
+        return digestInterval;
+    }
+
+    /**
+     * Sets digestInterval
+     * 
+     * @param digestInterval interval in milliseconds between digests of the events at or below digestLevel, or 0 if disabled
+     */
+    public void setDigestInterval(int digestInterval) {
+        this.digestInterval = digestInterval;
+    }
+
+    /**
+     * Gets digestLevel
+     *
+     * @return digestLevel
+     */
+    public String getDigestLevel() {
+        return digestLevel.toString();
+    }
+
+    /**
+     * Sets digestLevel
+     * 
+     * @param digestLevel events at or below this level are only counted and summarized in digests
+     */
+    public void setDigestLevel(String digestLevel) {
+        this.digestLevel = Level.toLevel(digestLevel, Level.WARN);
+    }
+
+    /**
+     * Gets digestSize
+     *
+     * @return digestSize
+     */
+    public int getDigestSize() {
+        return digestSize;
+    }
+
+    /**
+     * Sets digestSize
+     * 
+     * @param digestSize maximum number of rows of a digest, which also sizes its fixed table of counters
+     */
+    public void setDigestSize(int digestSize) {
+        this.digestSize = digestSize;
+    }
+
+    /**
+     * Gets maxStackDepth
+     *
+     * @return maxStackDepth
+     */
+    public int getMaxStackDepth() {
+        return maxStackDepth;
+    }
+
+    /**
+     * Sets maxStackDepth
+     * 
+     * @param maxStackDepth maximum number of lines of a stack trace per throwable
+     */
+    public void setMaxStackDepth(int maxStackDepth) {
+        this.maxStackDepth = maxStackDepth;
+        bc.setMaxStackDepth(maxStackDepth);
+    }
+
+    /**
+     * Gets maxStackLength
+     *
+     * @return maxStackLength
+     */
+    public int getMaxStackLength() {
+        return maxStackLength;
+    }
+
+    /**
+     * Sets maxStackLength
+     * 
+     * @param maxStackLength maximum number of characters of a stack trace
+     */
+    public void setMaxStackLength(int maxStackLength) {
+        this.maxStackLength = maxStackLength;
+        bc.setMaxStackLength(maxStackLength);
+    }
+
+    /**
+     * Gets maxFieldBytes
+     *
+     * @return maxFieldBytes
+     */
+    public int getMaxFieldBytes() {
+        return maxFieldBytes;
+    }
+
+    /**
+     * Sets maxFieldBytes
+     * 
+     * @param maxFieldBytes maximum size in bytes of a placeholder value, or 0 if unlimited
+     */
+    public void setMaxFieldBytes(int maxFieldBytes) {
+        this.maxFieldBytes = maxFieldBytes;
+    }
+
+    /**
+     * Gets maxMessageBytes
+     *
+     * @return maxMessageBytes
+     */
+    public int getMaxMessageBytes() {
+        return maxMessageBytes;
+    }
+
+    /**
+     * Sets maxMessageBytes
+     * 
+     * @param maxMessageBytes maximum size of a message in bytes, or 0 if unlimited
+     */
+    public void setMaxMessageBytes(int maxMessageBytes) {
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * Gets maxMessageParts
+     *
+     * @return maxMessageParts
+     */
+    public int getMaxMessageParts() {
+        return maxMessageParts;
+    }
+
+    /**
+     * Sets maxMessageParts
+     * 
+     * @param maxMessageParts maximum number of messages a payload is split into
+     */
+    public void setMaxMessageParts(int maxMessageParts) {
+        this.maxMessageParts = maxMessageParts;
+    }
+
+    /**
+     * Gets maxInFlight
+     *
+     * @return maxInFlight
+     */
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets maxInFlight
+     * 
+     * @param maxInFlight maximum number of posts in flight per webhook in async mode, across the routes which post to it
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Gets ordered
+     *
+     * @return ordered
+     */
+    public boolean isOrdered() {
+        return ordered;
+    }
+
+    /**
+     * Sets ordered
+     * 
+     * @param ordered whether each route keeps one post in flight so that its messages arrive in order; if false, a route keeps up to maxInFlight
+     */
+    public void setOrdered(boolean ordered) {
+        this.ordered = ordered;
+    }
+
+    /**
+     * Gets virtualThreads
+     *
+     * @return virtualThreads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Sets virtualThreads
+     * 
+     * @param virtualThreads whether posts in flight run on virtual threads on Java 21 and later
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    /**
+     * Gets transport
+     *
+     * @return transport
+     */
+    public SlackTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Sets transport
+     * 
+     * @param transport transport shared by the webhooks, or null to use HttpURLConnection
+     */
+    public void setTransport(SlackTransport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * Gets spoolDirectory
+     *
+     * @return spoolDirectory
+     */
+    public String getSpoolDirectory() {
+        return spoolDirectory;
+    }
+
+    /**
+     * Sets spoolDirectory
+     * 
+     * @param spoolDirectory directory to spool undeliverable messages in
+     */
+    public void setSpoolDirectory(String spoolDirectory) {
+        this.spoolDirectory = spoolDirectory;
+    }
 
-    /** string of webhookUrl */
-    private String webhookUrlStr;
-    
-    /** URL of webhookUrl */
-    private URL webhookUrl;
+    /**
+     * Gets spoolSegmentSize
+     *
+     * @return spoolSegmentSize
+     */
+    public int getSpoolSegmentSize() {
+        return spoolSegmentSize;
+    }
 
-    /** payload */
-    private String payload;
+    /**
+     * Sets spoolSegmentSize
+     * 
+     * @param spoolSegmentSize size of a spool segment in bytes
+     */
+    public void setSpoolSegmentSize(int spoolSegmentSize) {
+        this.spoolSegmentSize = spoolSegmentSize;
+    }
 
-    /** timeout */
-    private int timeout = DEFAULT_TIMEOUT_MILLIS;
-    
-    /** {@link ScriptEngine} */
-    private ScriptEngine engine;
-    
-    /** for backward compatibility  */
-    private final SlackWebhookAppenderBc bc = new SlackWebhookAppenderBc() {
-        protected void post(byte[] body) throws IOException {
-            SlackWebhookAppender.this.post(body);
-        }  
-    };
+    /**
+     * Gets spoolMaxSize
+     *
+     * @return spoolMaxSize
+     */
+    public long getSpoolMaxSize() {
+        return spoolMaxSize;
+    }
 
     /**
-     * Gets webhookUrl
+     * Sets spoolMaxSize
      * 
-     * @return webhookUrl
+     * @param spoolMaxSize maximum size of the spool in bytes
      */
-    public String getWebhookUrl() {
-        return this.webhookUrlStr;
+    public void setSpoolMaxSize(long spoolMaxSize) {
+        this.spoolMaxSize = spoolMaxSize;
     }
 
     /**
-     * Sets webhookUrl
+     * Gets spoolReplayInterval
+     *
+     * @return spoolReplayInterval
+     */
+    public int getSpoolReplayInterval() {
+        return spoolReplayInterval;
+    }
+
+    /**
+     * Sets spoolReplayInterval
      * 
-     * @param webhookUrl WebhookUrl
+     * @param spoolReplayInterval interval in milliseconds between replays of the spool
      */
-    public void setWebhookUrl(String webhookUrl) {
-        this.webhookUrlStr = webhookUrl;
-        bc.setWebhookUrl(webhookUrl);
+    public void setSpoolReplayInterval(int spoolReplayInterval) {
+        this.spoolReplayInterval = spoolReplayInterval;
     }
 
     /**
-     * Gets payload
+     * Gets maxFlushTime
      *
-     * @return payload
+     * @return maxFlushTime
      */
-    public String getPayload() {
-        return payload;
+    public int getMaxFlushTime() {
+        return maxFlushTime;
     }
 
     /**
-     * Sets payload
+     * Sets maxFlushTime
      * 
-     * @param payload payload
+     * @param maxFlushTime maximum time in milliseconds to drain the dispatch queue on stop
      */
-    public void setPayload(String payload) {
-        this.payload = payload;
+    public void setMaxFlushTime(int maxFlushTime) {
+        this.maxFlushTime = maxFlushTime;
     }
-    
+
     /**
-     * Gets timeout
+     * Gets jmx
      *
-     * @return timeout
+     * @return jmx
      */
-    public int getTimeout() {
-        return timeout;
+    public boolean isJmx() {
+        return jmx;
     }
-    
+
     /**
-     * Sets timeout
+     * Sets jmx
      * 
-     * @param timeout timeout
+     * @param jmx whether the metrics are registered as an MXBean
      */
-    public void setTimeout(String timeout) {
-        this.timeout = Integer.parseInt(timeout);
+    public void setJmx(boolean jmx) {
+        this.jmx = jmx;
     }
 
     /**
-     * Sets timeout
+     * Gets the metrics, for bridging to a metrics registry
+     *
+     * @return metrics of this appender
+     */
+    public AppenderMetricsMXBean getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the number of messages waiting in the dispatch queue
+     *
+     * @return number of queued messages, or 0 if not in async mode
+     */
+    public int getQueueDepth() {
+        Pipeline pipeline = this.pipeline;
+        int depth = pipeline != null ? pipeline.getQueueDepth() : 0;
+        for (SlackRoute route : routes) {
+            depth += route.getQueueDepth();
+        }
+        return depth;
+    }
+
+    /**
+     * Gets the state of the circuit breakers of the webhooks
+     *
+     * @return OPEN if any is open, HALF_OPEN if any is probing, CLOSED, or null if not started
+     */
+    public String getCircuitState() {
+        Pipeline pipeline = this.pipeline;
+        CircuitBreaker.State worst = pipeline != null ? pipeline.getCircuitState() : null;
+        for (SlackRoute route : routes) {
+            Pipeline routePipeline = route.pipeline;
+            if (routePipeline != null && (worst == null || routePipeline.getCircuitState().compareTo(worst) > 0)) {
+                worst = routePipeline.getCircuitState();
+            }
+        }
+        return worst != null ? worst.name() : null;
+    }
+
+    /**
+     * Adds a route
      * 
-     * @param timeout timeout
+     * @param route destination of the events it selects
      */
-    public void setTimeout(int timeout) {
-        this.timeout = timeout;
+    public void addRoute(SlackRoute route) {
+        routes.add(route);
+    }
+
+    /**
+     * Gets routes
+     *
+     * @return routes
+     */
+    public List<SlackRoute> getRoutes() {
+        return Collections.unmodifiableList(routes);
     }
 
     /**
@@ -117,101 +1312,330 @@ public class SlackWebhookAppender extends UnsynchronizedAppenderBase<ILoggingEve
      */
     @Override
     public void start() {
+        try {
+            this.filter = EventFilter.compile(minLevel, includeLoggers, excludeLoggers, requiredMarker, requiredMdcKey,
+                messagePattern);
+        } catch (IllegalArgumentException e) {
+            addError("Invalid filter rule. " + e.getMessage(), e);
+            return;
+        }
+
         // backward compatibility mode
-        if(this.payload == null) {
+        if(isBackwardCompatible()) {
+            bc.setContext(getContext());
             bc.start();
+            if (bc.isStarted()) {
+                try {
+                    this.httpTransport = new HttpTransport(new URL(webhookUrlStr), getConnectTimeout(), getReadTimeout());
+                } catch (MalformedURLException e) {
+                    addError("Webhook URL is not malformed.", e);
+                    return;
+                }
+                registerMBean();
+                super.start();
+            }
             return;
         }
         
         int errors = 0;
-        try {
-            initScriptEngine();
-        } catch (Exception e) {
+        if (payload != null && template != null) {
             errors++;
-            addError(e.getMessage(), e);
+            addError("Payload and template cannot be specified at once.");
         }
 
-        if (webhookUrlStr == null) {
-            errors++;
-            addError("Webhook URL is not specified.");
-        } else {
+        if (!async && batchSize > 1) {
+            addWarn("Batching requires async mode. batchSize is ignored.");
+        }
+
+        if (virtualThreads && !DeliveryThreads.isVirtualSupported()) {
+            addWarn("Virtual threads require Java 21 or later. Posts run on platform threads.");
+        }
+
+        if (payload == null && template == null && webhookUrlStr != null) {
+            addWarn("Webhook URL is ignored without payload or template. Events which match no route are discarded.");
+        }
+
+        RouteTable routeTable = null;
+        if (!routes.isEmpty()) {
             try {
-                this.webhookUrl = new URL(webhookUrlStr);
-            } catch (MalformedURLException e) {
+                routeTable = new RouteTable(routes);
+            } catch (IllegalArgumentException e) {
+                errors++;
+                addError(e.getMessage(), e);
+            }
+        }
+
+        if (errors == 0 && transport == null && maxInFlight > 1 && (async || !routes.isEmpty())) {
+            this.asyncTransport = new AsyncHttpTransport("SlackWebhookAppender-" + getName(), getConnectTimeout(),
+                getReadTimeout(), maxInFlight, virtualThreads && DeliveryThreads.isVirtualSupported());
+        }
+
+        List<Pipeline> opened = new ArrayList<>();
+        // with routes, the webhook of the appender is optional and receives events which match no route
+        if (errors == 0 && (payload != null || template != null) && (webhookUrlStr != null || routes.isEmpty())) {
+            Pipeline pipeline = openPipeline(null);
+            if (pipeline != null) {
+                opened.add(pipeline);
+                this.pipeline = pipeline;
+            } else {
+                errors++;
+            }
+        }
+        for (int i = 0; errors == 0 && i < routes.size(); i++) {
+            SlackRoute route = routes.get(i);
+            if (route.getName() == null) {
+                route.setName("route" + i);
+            }
+            Pipeline pipeline = openPipeline(route);
+            if (pipeline != null) {
+                opened.add(pipeline);
+                route.pipeline = pipeline;
+            } else {
                 errors++;
-                addError("Webhook URL is not malformed.", e);
             }
         }
 
         if (errors == 0) {
+            this.routeTable = routeTable;
+            for (Pipeline pipeline : opened) {
+                pipeline.start(spoolReplayInterval);
+            }
+            if (duplicateWindow > 0) {
+                this.suppressor = new DuplicateSuppressor(this, duplicateWindow, duplicateCacheSize,
+                    duplicateStackDepth, this::publish);
+                suppressor.start();
+            }
+            if (digestInterval > 0) {
+                this.digest = new DigestAggregator(this, digestInterval, digestLevel, digestSize, this::publish);
+                digest.start();
+            }
+            registerMBean();
             super.start();
+        } else {
+            this.pipeline = null;
+            for (SlackRoute route : routes) {
+                route.pipeline = null;
+            }
+            for (Pipeline pipeline : opened) {
+                pipeline.stop(0);
+            }
+            closeAsyncTransport();
         }
     }
-    
+
     /**
-     * Initializes a {@link ScriptEngine}
+     * Opens a pipeline to the webhook of the appender or of a route, reporting errors
      * 
-     * @throws ScriptException if an error occurs in payload script.
-     * @throws IllegalStateException if {@link #payload} field is null or empty
+     * @param route route, or null for the webhook of the appender
+     * @return pipeline which has not started yet, or null if misconfigured
      */
-    private void initScriptEngine() throws ScriptException {
-        String payload = this.payload;
-        if(payload == null) {
-            throw new IllegalStateException("Payload is null");
+    private Pipeline openPipeline(SlackRoute route) {
+        String prefix = route != null ? "Route " + route.getName() + ": " : "";
+        String webhookUrl = route != null ? route.getWebhookUrl() : webhookUrlStr;
+        boolean inherits = route == null || (route.getPayload() == null && route.getTemplate() == null);
+        String payload = inherits ? this.payload : route.getPayload();
+        String template = inherits ? this.template : route.getTemplate();
+        // routes always have their own sender, so that one webhook does not delay the others
+        boolean async = route != null || this.async;
+        int queueSize = route != null && route.getQueueSize() > 0 ? route.getQueueSize() : this.queueSize;
+        int batchSize = route != null && route.getBatchSize() > 0 ? route.getBatchSize() : this.batchSize;
+        double rateLimit = route != null && route.getRateLimit() >= 0 ? route.getRateLimit() : this.rateLimit;
+        int rateBurst = route != null && route.getRateBurst() > 0 ? route.getRateBurst() : this.rateBurst;
+
+        String name = "SlackWebhookAppender-" + getName() + (route != null ? "-" + route.getName() : "");
+
+        int errors = 0;
+        PayloadRenderer renderer = null;
+        DeferredRenderer deferred = null;
+        if (payload != null && template != null) {
+            errors++;
+            addError(prefix + "Payload and template cannot be specified at once.");
+        } else if (payload == null && template == null) {
+            errors++;
+            addError(prefix + "Neither payload nor template is specified.");
+        } else {
+            try {
+                ThrowableRenderer throwables = new ThrowableRenderer(stackFilters, maxStackDepth, maxStackLength);
+                if (payload != null && backgroundCompile) {
+                    deferred = new DeferredRenderer(this, prefix, PayloadScript.analyze(payload.trim()),
+                        () -> new PayloadScript(payload, throwables), metrics);
+                    renderer = deferred;
+                } else {
+                    renderer = payload != null ? new PayloadScript(payload, throwables)
+                        : new PayloadTemplate(template, throwables, maxFieldBytes);
+                }
+            } catch (Exception e) {
+                errors++;
+                addError(prefix + e.getMessage(), e);
+            }
         }
-        payload = payload.trim();
-        if(payload.isEmpty()) {
-            throw new IllegalStateException("Payload is empty");
+
+        HttpTransport transport = null;
+        if (webhookUrl == null) {
+            errors++;
+            addError(prefix + "Webhook URL is not specified.");
+        } else {
+            try {
+                transport = new HttpTransport(new URL(webhookUrl), getConnectTimeout(), getReadTimeout());
+            } catch (MalformedURLException e) {
+                errors++;
+                addError(prefix + "Webhook URL is not malformed.", e);
+            }
         }
-        
-        // looks up and creates JavaScript engine
-        this.engine = SCRIPT_MANAGER.getEngineByName("js");
-        
-        // define formatTimestamp function
-        engine.eval(
-            "function formatTimestamp(timestamp) { " +
-            "    var odt = java.time.OffsetDateTime.ofInstant( " +
-            "        java.time.Instant.ofEpochMilli(timestamp), " +
-            "        java.time.ZoneId.systemDefault()); " +
-            "    return java.time.format.DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(odt); " +
-            "} "
-        );
-        
-        // define payload function
-        StringBuilder function = new StringBuilder();
-        function.append("function payload(event) {");
-        function.append(  "var property = (function() {");
-        function.append(      "var lcvo = event.getLoggerContextVO(),");
-        function.append(          "properties = lcvo.getPropertyMap();");
-        function.append(      "return function(name) {");
-        function.append(        "if(!name && name !== 0) {");
-        function.append(          "return 'Property_HAS_NO_KEY';");
-        function.append(        "}");
-        function.append(        "name = '' + name;");
-        function.append(        "var value = properties.get(name);");
-        function.append(        "return value != null ? value : java.lang.System.getProperty(name);");
-        function.append(      "};");
-        function.append(    "})(), color, emoji,");
-        function.append(    "hostname = property('HOSTNAME'),");
-        function.append(    "level = event.getLevel().toString(),");
-        function.append(    "timestamp = formatTimestamp(event.getTimeStamp()),");
-        function.append(    "message = event.getFormattedMessage();");
-        function.append(  "if(level == 'FATAL' || level == 'ERROR') {");
-        function.append(    "color = 'danger'; emoji = ':ng_woman:';");
-        function.append(  "} else if(level == 'WARN') {");
-        function.append(    "color = 'warning'; emoji = ':ok_woman:';");
-        function.append(  "} else {");
-        function.append(    "color = 'good'; emoji = ':white_circle:';");
-        function.append(  "}");
-        if(payload.startsWith("{")) {
-            function.append("return ");
-            function.append(payload);
-            function.append(";");
+
+        if (async && queueSize < 1) {
+            errors++;
+            addError(prefix + "Queue size must be positive.");
+        }
+
+        int[] weights = null;
+        if (async && priorityLanes && laneWeights != null && !laneWeights.trim().isEmpty()) {
+            String[] values = laneWeights.trim().split("\\s*,\\s*");
+            try {
+                weights = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    weights[i] = Integer.parseInt(values[i]);
+                }
+            } catch (NumberFormatException e) {
+                weights = null;
+            }
+            if (weights == null || weights.length != AsyncDispatcher.LANES || Arrays.stream(weights).anyMatch(w -> w < 1)) {
+                errors++;
+                addError(prefix + "Lane weights must be " + AsyncDispatcher.LANES + " positive numbers: " + laneWeights);
+            }
+        }
+
+        DiskSpool spool = null;
+        if (errors == 0 && spoolDirectory != null) {
+            File directory = route != null ? new File(spoolDirectory, route.getName()) : new File(spoolDirectory);
+            try {
+                spool = new DiskSpool(directory, spoolSegmentSize, spoolMaxSize);
+            } catch (IOException | RuntimeException e) {
+                errors++;
+                addError(prefix + "Failed to open spool directory " + directory + ".", e);
+            }
+        }
+
+        if (errors > 0) {
+            return null;
+        }
+
+        if (route != null) {
+            route.transport = transport;
+        } else {
+            this.httpTransport = transport;
+        }
+        Delivery.Poster poster;
+        SlackTransport shared = this.transport != null ? this.transport : async ? this.asyncTransport : null;
+        if (shared != null) {
+            URL url = transport.getUrl();
+            poster = body -> shared.post(url, body);
         } else {
-            function.append(payload);
+            poster = body -> {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                try {
+                    if (route != null) {
+                        post(route, body);
+                    } else {
+                        post(body);
+                    }
+                    future.complete(null);
+                } catch (IOException | RuntimeException e) {
+                    future.completeExceptionally(e);
+                }
+                return future;
+            };
+        }
+        RateLimiter limiter = null;
+        if (sharedRateLimitDirectory != null) {
+            try {
+                limiter = RateLimiter.forWebhook(webhookUrl, rateLimit, rateBurst, new File(sharedRateLimitDirectory));
+            } catch (IOException e) {
+                addWarn(prefix + "Failed to share the rate limit in " + sharedRateLimitDirectory
+                    + ". The limit applies to this process only.", e);
+            }
+        }
+        if (limiter == null) {
+            limiter = RateLimiter.forWebhook(webhookUrl, rateLimit, rateBurst);
+        }
+        CircuitBreaker breaker = CircuitBreaker.forWebhook(webhookUrl, circuitBreakerThreshold, circuitBreakerOpenTime);
+        Delivery delivery = new Delivery(this, poster, limiter,
+            breaker, new RetryPolicy(maxRetries, retryBackoff, maxRetryBackoff), spool,
+            new PayloadSplitter(maxMessageBytes, maxMessageParts), ordered ? 1 : maxInFlight, metrics);
+        AsyncDispatcher dispatcher = null;
+        if (async) {
+            dispatcher = new AsyncDispatcher(this, name, queueSize, dropPolicy, dropThreshold, priorityLanes, priorityMarker,
+                weights, batchSize, batchWindow, renderer, delivery, metrics);
+        }
+        if (warmUp && this.transport == null && getContext() != null) {
+            warmUp(transport);
+        }
+        Pipeline pipeline = new Pipeline(this, renderer, breaker, delivery, spool, dispatcher, metrics);
+        if (deferred != null) {
+            // in sync mode, events which arrive while compiling are held and posted by the compiling thread
+            deferred.start(name + "-compile", async ? null : pipeline::publishNow);
+        }
+        return pipeline;
+    }
+
+    /**
+     * Checks whether neither payload, template nor route is specified
+     * 
+     * @return true if in backward compatibility mode
+     */
+    private boolean isBackwardCompatible() {
+        return payload == null && template == null && routes.isEmpty();
+    }
+
+    /**
+     * @see ch.qos.logback.core.UnsynchronizedAppenderBase#stop()
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        bc.stop();
+        unregisterMBean();
+        DuplicateSuppressor suppressor = this.suppressor;
+        if (suppressor != null) {
+            this.suppressor = null;
+            suppressor.stop();
+        }
+        DigestAggregator digest = this.digest;
+        if (digest != null) {
+            this.digest = null;
+            digest.stop();
+        }
+        Pipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            this.pipeline = null;
+            pipeline.stop(maxFlushTime);
+        }
+        for (SlackRoute route : routes) {
+            Pipeline routePipeline = route.pipeline;
+            if (routePipeline != null) {
+                route.pipeline = null;
+                routePipeline.stop(maxFlushTime);
+            }
+        }
+        this.routeTable = null;
+        closeAsyncTransport();
+        SlackTransport transport = this.transport;
+        if (transport != null) {
+            transport.close();
         }
-        function.append("\n}");
-        engine.eval(function.toString());
+    }
+
+    /**
+     * @see ch.qos.logback.core.UnsynchronizedAppenderBase#getFilterChainDecision(java.lang.Object)
+     */
+    @Override
+    public FilterReply getFilterChainDecision(ILoggingEvent event) {
+        metrics.seen.increment();
+        FilterReply reply = super.getFilterChainDecision(event);
+        if (reply == FilterReply.DENY) {
+            metrics.filtered.increment();
+        }
+        return reply;
     }
 
     /**
@@ -219,27 +1643,56 @@ public class SlackWebhookAppender extends UnsynchronizedAppenderBase<ILoggingEve
      */
     @Override
     protected void append(ILoggingEvent eventObject) {
+        EventFilter filter = this.filter;
+        if (filter != null && !filter.accepts(eventObject)) {
+            metrics.filtered.increment();
+            return;
+        }
+
         // backward compatibility mode
-        if(this.payload == null) {
+        if(isBackwardCompatible()) {
             bc.append(eventObject);
             return;
         }
-        
-        try {
-            Invocable invocable = (Invocable)engine;
-            Object payload = invocable.invokeFunction("payload", eventObject);
-            if(payload == null) {
-                return;
-            }
 
-            Object JSON = engine.get("JSON");
-            Object payloadStr = invocable.invokeMethod(JSON, "stringify", payload);
-            
-            byte[] bodyBytes = payloadStr.toString().getBytes(StandardCharsets.UTF_8);
+        DigestAggregator digest = this.digest;
+        if (digest != null && digest.count(eventObject)) {
+            metrics.suppressed.increment();
+            return;
+        }
+
+        DuplicateSuppressor suppressor = this.suppressor;
+        if (suppressor != null && !suppressor.shouldPost(eventObject)) {
+            metrics.suppressed.increment();
+            return;
+        }
+
+        publish(eventObject);
+    }
 
-            post(bodyBytes);
-        } catch (Exception e) {
-            addError("Failed to post a log to slack.", e);
+    /**
+     * Hands an event over to the pipelines of the matching routes,
+     * or to the pipeline of the appender if no route matches
+     * 
+     * @param eventObject logging event
+     */
+    private void publish(ILoggingEvent eventObject) {
+        RouteTable routeTable = this.routeTable;
+        long matched = routeTable != null ? routeTable.match(eventObject) : 0;
+        if (matched == 0) {
+            Pipeline pipeline = this.pipeline;
+            if (pipeline != null) {
+                pipeline.publish(eventObject);
+            } else {
+                metrics.filtered.increment();
+            }
+            return;
+        }
+        for (; matched != 0; matched &= matched - 1) {
+            Pipeline routePipeline = routes.get(Long.numberOfTrailingZeros(matched)).pipeline;
+            if (routePipeline != null) {
+                routePipeline.publish(eventObject);
+            }
         }
     }
 
@@ -250,23 +1703,86 @@ public class SlackWebhookAppender extends UnsynchronizedAppenderBase<ILoggingEve
      * @throws IOException if an I/O exception occurs.
      */
     protected void post(byte[] body) throws IOException {
-        HttpURLConnection connection = (HttpURLConnection) webhookUrl.openConnection();
-        connection.setReadTimeout(timeout);
-        connection.setConnectTimeout(timeout);
-        connection.setDoOutput(true);
-        connection.setRequestMethod("POST");
-        connection.setFixedLengthStreamingMode(body.length);
-        connection.setRequestProperty("Content-Type", "application/json");
-        try(OutputStream os = connection.getOutputStream()) {
-            os.write(body);
-            os.flush();
+        HttpTransport transport = httpTransport;
+        if (transport == null) {
+            throw new IOException("Appender is not started.");
+        }
+        transport.post(body);
+    }
+
+    /**
+     * Posts to the webhook of a route
+     * 
+     * @param route route
+     * @param body payload body in UTF-8 byte array
+     * @throws IOException if an I/O exception occurs.
+     */
+    protected void post(SlackRoute route, byte[] body) throws IOException {
+        route.transport.post(body);
+    }
+
+    /**
+     * Registers the metrics to the platform MBean server
+     */
+    private void registerMBean() {
+        if (!jmx) {
+            return;
+        }
+        try {
+            ObjectName name = new ObjectName("jp.co.dwango.logback:type=SlackWebhookAppender,name="
+                + ObjectName.quote(getName() != null ? getName() : "SlackWebhookAppender@" + Integer.toHexString(hashCode())));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            this.objectName = name;
+        } catch (JMException e) {
+            addWarn("Failed to register metrics of the appender to JMX.", e);
+        }
+    }
+
+    /**
+     * Unregisters the metrics from the platform MBean server
+     */
+    private void unregisterMBean() {
+        ObjectName name = this.objectName;
+        if (name == null) {
+            return;
+        }
+        this.objectName = null;
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            addWarn("Failed to unregister metrics of the appender from JMX.", e);
         }
+    }
 
-        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-            throw new IOException(connection.getResponseMessage() + "\n" + new String(body, StandardCharsets.UTF_8));
+    /**
+     * Closes the transport which keeps posts in flight, after the pipelines have stopped
+     */
+    private void closeAsyncTransport() {
+        SlackTransport asyncTransport = this.asyncTransport;
+        if (asyncTransport != null) {
+            this.asyncTransport = null;
+            asyncTransport.close();
         }
     }
 
+    /**
+     * Opens a connection to Slack in the background
+     * 
+     * @param transport transport to warm up
+     */
+    private void warmUp(HttpTransport transport) {
+        getContext().getScheduledExecutorService().execute(() -> {
+            try {
+                transport.warmUp();
+            } catch (IOException e) {
+                addInfo("Failed to warm up a connection to slack: " + e);
+            }
+        });
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////////////////
     //
     //   B A C K W A R D   C O M P A T I B I L I T Y
@@ -392,4 +1908,24 @@ public class SlackWebhookAppender extends UnsynchronizedAppenderBase<ILoggingEve
     public void setLayout(Layout<ILoggingEvent> layout) {
         bc.setLayout(layout);
     }
+
+    /**
+     * Gets stackTrace
+     * 
+     * @return stackTrace
+     */
+    @Deprecated
+    public boolean getStackTrace() {
+        return bc.getStackTrace();
+    }
+
+    /**
+     * Sets stackTrace
+     * 
+     * @param stackTrace whether the bounded stack trace is appended to the text
+     */
+    @Deprecated
+    public void setStackTrace(boolean stackTrace) {
+        bc.setStackTrace(stackTrace);
+    }
 }
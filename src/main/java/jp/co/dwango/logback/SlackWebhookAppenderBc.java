@@ -5,13 +5,8 @@ import ch.qos.logback.core.Layout;
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
 
 /**
  * Logback appender implementation which posts logs to Slack via webhook.
@@ -20,6 +15,23 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     private static final int TIMEOUT_MILLIS = 50_000;
 
+    private static final int INITIAL_BUFFER_CAPACITY = 1024;
+
+    private static final byte[] TEXT_PREFIX = "{ \"text\": \"".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] ESCAPED_NEWLINE = "\\n".getBytes(StandardCharsets.UTF_8);
+
+    private final ThreadLocal<JsonBuffer> buffers = ThreadLocal.withInitial(() -> new JsonBuffer(INITIAL_BUFFER_CAPACITY));
+
+    // pre-encoded fields following the text, reset whenever a field changes
+    private volatile byte[] suffix;
+
+    // reset whenever webhookUrl changes
+    private volatile HttpTransport transport;
+
+    // reset whenever a stack trace limit changes
+    private volatile ThrowableRenderer throwableRenderer;
+
     private String webhookUrl;
 
     private String channel;
@@ -34,12 +46,21 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     private Layout<ILoggingEvent> layout;
 
+    private boolean stackTrace = false;
+
+    private String stackFilters;
+
+    private int maxStackDepth = ThrowableRenderer.DEFAULT_MAX_DEPTH;
+
+    private int maxStackLength = ThrowableRenderer.DEFAULT_MAX_LENGTH;
+
     public String getWebhookUrl() {
         return this.webhookUrl;
     }
 
     public void setWebhookUrl(String webhookUrl) {
         this.webhookUrl = webhookUrl;
+        this.transport = null;
     }
 
     public String getChannel() {
@@ -48,6 +69,7 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     public void setChannel(String channel) {
         this.channel = channel;
+        this.suffix = null;
     }
 
     public String getUsername() {
@@ -56,6 +78,7 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     public void setUsername(String username) {
         this.username = username;
+        this.suffix = null;
     }
 
     public String getIconEmoji() {
@@ -64,6 +87,7 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     public void setIconEmoji(String iconEmoji) {
         this.iconEmoji = iconEmoji;
+        this.suffix = null;
     }
 
     public String getIconUrl() {
@@ -72,6 +96,7 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     public void setIconUrl(String iconUrl) {
         this.iconUrl = iconUrl;
+        this.suffix = null;
     }
 
     public boolean getLinkNames() {
@@ -80,6 +105,7 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     public void setLinkNames(boolean linkNames) {
         this.linkNames = linkNames;
+        this.suffix = null;
     }
 
     public Layout<ILoggingEvent> getLayout() {
@@ -90,31 +116,64 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
         this.layout = layout;
     }
 
-    @Override
-    protected void append(ILoggingEvent eventObject) {
-        List<String> fields = new ArrayList<>();
+    public boolean getStackTrace() {
+        return this.stackTrace;
+    }
 
-        try {
-            String text = createText(eventObject);
+    public void setStackTrace(boolean stackTrace) {
+        this.stackTrace = stackTrace;
+    }
 
-            fields.add("\"text\": \"" + escapeQuotes(text) + '"');
-            fields.add("\"channel\": \"" + escapeQuotes(checkNotNull(this.channel, "Channel is not specified.")) + '"');
-            fields.add("\"username\": \"" + escapeQuotes(checkNotNull(this.username, "Username is not specified.")) + '"');
+    public String getStackFilters() {
+        return this.stackFilters;
+    }
 
-            if (this.iconEmoji != null) {
-                fields.add("\"icon_emoji\": \"" + escapeQuotes(this.iconEmoji) + '"');
-            }
-            if (this.iconUrl != null) {
-                fields.add("\"icon_url\": \"" + escapeQuotes(this.iconUrl) + '"');
-            }
-            if (this.linkNames) {
-                fields.add("\"link_names\": 1");
+    public void setStackFilters(String stackFilters) {
+        this.stackFilters = stackFilters;
+        this.throwableRenderer = null;
+    }
+
+    public int getMaxStackDepth() {
+        return this.maxStackDepth;
+    }
+
+    public void setMaxStackDepth(int maxStackDepth) {
+        this.maxStackDepth = maxStackDepth;
+        this.throwableRenderer = null;
+    }
+
+    public int getMaxStackLength() {
+        return this.maxStackLength;
+    }
+
+    public void setMaxStackLength(int maxStackLength) {
+        this.maxStackLength = maxStackLength;
+        this.throwableRenderer = null;
+    }
+
+    @Override
+    protected void append(ILoggingEvent eventObject) {
+        try {
+            byte[] suffix = this.suffix;
+            if (suffix == null) {
+                suffix = this.suffix = encodeSuffix();
             }
 
-            String bodyText = "{ " + String.join(", ", fields) + " }";
-            byte[] bodyBytes = bodyText.getBytes(StandardCharsets.UTF_8);
+            JsonBuffer body = buffers.get();
+            body.reset();
+            body.write(TEXT_PREFIX);
+            body.writeEscaped(createText(eventObject));
+            if (this.stackTrace && eventObject.getThrowableProxy() != null) {
+                ThrowableRenderer throwableRenderer = this.throwableRenderer;
+                if (throwableRenderer == null) {
+                    throwableRenderer = this.throwableRenderer = new ThrowableRenderer(stackFilters, maxStackDepth, maxStackLength);
+                }
+                body.write(ESCAPED_NEWLINE);
+                throwableRenderer.writeEscaped(eventObject.getThrowableProxy(), body);
+            }
+            body.write(suffix);
 
-            post(bodyBytes);
+            post(body.toByteArray());
         } catch (Exception e) {
             e.printStackTrace(System.err);
             addError("Failed to post a log to slack.", e);
@@ -123,26 +182,12 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
 
     // Visible for testing
     protected void post(byte[] body) throws IOException {
-
-        checkNotNull(this.webhookUrl, "Webhook URL is not specified.");
-
-        URL url = new URL(this.webhookUrl);
-        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
-        connection.setReadTimeout(TIMEOUT_MILLIS);
-        connection.setConnectTimeout(TIMEOUT_MILLIS);
-        connection.setDoOutput(true);
-        connection.setRequestMethod("POST");
-        connection.setFixedLengthStreamingMode(body.length);
-        connection.setRequestProperty("Content-Type", "application/json");
-        OutputStream os = connection.getOutputStream();
-
-        os.write(body);
-        os.flush();
-        os.close();
-
-        if (connection.getResponseCode() != HttpURLConnection.HTTP_OK) {
-            throw new IOException(connection.getResponseMessage() + "\n" + new String(body, StandardCharsets.UTF_8));
+        HttpTransport transport = this.transport;
+        if (transport == null) {
+            URL url = new URL(checkNotNull(this.webhookUrl, "Webhook URL is not specified."));
+            transport = this.transport = new HttpTransport(url, TIMEOUT_MILLIS, TIMEOUT_MILLIS);
         }
+        transport.post(body);
     }
 
     private String createText(ILoggingEvent event) {
@@ -154,8 +199,28 @@ public class SlackWebhookAppenderBc extends UnsynchronizedAppenderBase<ILoggingE
         }
     }
 
-    private String escapeQuotes(String str) {
-        return str.replaceAll("\"", Matcher.quoteReplacement("\\\""));
+    private byte[] encodeSuffix() {
+        JsonBuffer suffix = new JsonBuffer(INITIAL_BUFFER_CAPACITY);
+        writeField(suffix, "\", \"channel\": \"", checkNotNull(this.channel, "Channel is not specified."));
+        writeField(suffix, ", \"username\": \"", checkNotNull(this.username, "Username is not specified."));
+
+        if (this.iconEmoji != null) {
+            writeField(suffix, ", \"icon_emoji\": \"", this.iconEmoji);
+        }
+        if (this.iconUrl != null) {
+            writeField(suffix, ", \"icon_url\": \"", this.iconUrl);
+        }
+        if (this.linkNames) {
+            suffix.write(", \"link_names\": 1".getBytes(StandardCharsets.UTF_8));
+        }
+        suffix.write(" }".getBytes(StandardCharsets.UTF_8));
+        return suffix.toByteArray();
+    }
+
+    private void writeField(JsonBuffer out, String prefix, String value) {
+        out.write(prefix.getBytes(StandardCharsets.UTF_8));
+        out.writeEscaped(value);
+        out.write('"');
     }
 
     private <T> T checkNotNull(T arg, String message) {
@@ -0,0 +1,309 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.StackTraceElementProxy;
+import ch.qos.logback.core.CoreConstants;
+
+/**
+ * Renders stack traces bounded in depth and length.
+ *
+ * Runs of frames in filtered packages are collapsed into one line, at most <code>maxDepth</code>
+ * lines are rendered per throwable, and the whole trace is cut at <code>maxLength</code> characters.
+ * The frame block of a throwable is cached with its JSON-escaped UTF-8 bytes, keyed by a hash of the
+ * frames and checked against the frames on a hit, so that an exception thrown again from the same site
+ * is rendered by copying bytes.
+ */
+final class ThrowableRenderer {
+    /** default maximum number of lines per throwable */
+    static final int DEFAULT_MAX_DEPTH = 30;
+
+    /** default maximum number of characters of a trace */
+    static final int DEFAULT_MAX_LENGTH = 4000;
+
+    /** maximum number of cached frame blocks */
+    private static final int CACHE_CAPACITY = 256;
+
+    /** maximum number of nested causes */
+    private static final int MAX_CAUSES = 16;
+
+    /** appended where a trace is cut */
+    private static final String TRUNCATED = "\n\t... truncated";
+
+    /**
+     * Rendered frames of a throwable
+     */
+    private static final class Block {
+        /** frames rendered, to tell apart throwables whose frames hash the same */
+        final StackTraceElement[] frames;
+
+        /** number of frames in common with the enclosing trace */
+        final int common;
+
+        /** text */
+        final String text;
+
+        /** JSON-escaped text in UTF-8 byte array */
+        final byte[] escaped;
+
+        Block(StackTraceElement[] frames, int common, String text) {
+            this.frames = frames;
+            this.common = common;
+            this.text = text;
+            this.escaped = JsonBuffer.escape(text);
+        }
+
+        /**
+         * Checks whether the block was rendered from the same frames
+         *
+         * @param frames frames
+         * @param length number of frames
+         * @param common number of frames in common with the enclosing trace
+         * @return true if the same
+         */
+        boolean matches(StackTraceElementProxy[] frames, int length, int common) {
+            if(this.common != common || this.frames.length != length) {
+                return false;
+            }
+            for(int i = 0; i < length; i++) {
+                if(!this.frames[i].equals(frames[i].getStackTraceElement())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Destination of a trace which stops accepting text at the length limit
+     */
+    private abstract static class Sink {
+        /** number of characters which can still be written */
+        private int remaining;
+
+        Sink(int maxLength) {
+            this.remaining = maxLength;
+        }
+
+        /**
+         * Writes text, or the part of it within the limit
+         *
+         * @param text text
+         * @param escaped JSON-escaped text, or null
+         * @return false if the text was cut
+         */
+        boolean write(String text, byte[] escaped) {
+            if(text.length() <= remaining) {
+                remaining -= text.length();
+                whole(text, escaped);
+                return true;
+            }
+            int cut = remaining;
+            if(cut > 0 && Character.isHighSurrogate(text.charAt(cut - 1))) {
+                cut--;
+            }
+            part(text.substring(0, cut));
+            part(TRUNCATED);
+            remaining = 0;
+            return false;
+        }
+
+        /**
+         * Writes text within the limit
+         *
+         * @param text text
+         * @param escaped JSON-escaped text, or null
+         */
+        abstract void whole(String text, byte[] escaped);
+
+        /**
+         * Writes a part of text
+         *
+         * @param text text
+         */
+        abstract void part(String text);
+    }
+
+    /** package name prefixes of frames to collapse */
+    private final String[] filters;
+
+    /** maximum number of lines per throwable */
+    private final int maxDepth;
+
+    /** maximum number of characters of a trace */
+    private final int maxLength;
+
+    /** frame blocks by hash of frames */
+    private final ConcurrentHashMap<Long, Block> cache = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a renderer
+     *
+     * @param filters comma separated package name prefixes of frames to collapse, or null
+     * @param maxDepth maximum number of lines per throwable
+     * @param maxLength maximum number of characters of a trace
+     */
+    ThrowableRenderer(String filters, int maxDepth, int maxLength) {
+        this.filters = filters != null && !filters.trim().isEmpty() ? filters.trim().split("\\s*,\\s*") : new String[0];
+        this.maxDepth = Math.max(1, maxDepth);
+        this.maxLength = Math.max(0, maxLength);
+    }
+
+    /**
+     * Renders a trace
+     *
+     * @param throwable throwable, may be null
+     * @return trace, or null if throwable is null
+     */
+    String render(IThrowableProxy throwable) {
+        if(throwable == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder();
+        render(throwable, new Sink(maxLength) {
+            @Override
+            void whole(String text, byte[] escaped) {
+                sb.append(text);
+            }
+
+            @Override
+            void part(String text) {
+                sb.append(text);
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * Writes the escaped content of a trace without quotes
+     *
+     * @param throwable throwable, may be null
+     * @param out buffer to write to
+     * @return false if throwable is null
+     */
+    boolean writeEscaped(IThrowableProxy throwable, JsonBuffer out) {
+        if(throwable == null) {
+            return false;
+        }
+        render(throwable, new Sink(maxLength) {
+            @Override
+            void whole(String text, byte[] escaped) {
+                if(escaped != null) {
+                    out.write(escaped);
+                } else {
+                    out.writeEscaped(text);
+                }
+            }
+
+            @Override
+            void part(String text) {
+                out.writeEscaped(text);
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Renders a throwable and its causes
+     *
+     * @param throwable throwable
+     * @param sink destination
+     */
+    private void render(IThrowableProxy throwable, Sink sink) {
+        IThrowableProxy current = throwable;
+        for(int i = 0; current != null && i < MAX_CAUSES; i++) {
+            String headline = (i > 0 ? CoreConstants.CAUSED_BY : "") + current.getClassName()
+                + (current.getMessage() != null ? ": " + current.getMessage() : "");
+            if(!sink.write(headline, null)) {
+                return;
+            }
+            Block block = blockOf(current);
+            if(!sink.write(block.text, block.escaped)) {
+                return;
+            }
+            current = current.getCause();
+            if(current != null && !sink.write("\n", null)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets the frame block of a throwable from the cache, rendering it if missing
+     *
+     * @param throwable throwable
+     * @return frame block
+     */
+    private Block blockOf(IThrowableProxy throwable) {
+        StackTraceElementProxy[] frames = throwable.getStackTraceElementProxyArray();
+        int length = frames != null ? frames.length : 0;
+        int common = Math.min(throwable.getCommonFrames(), length);
+        long key = Fingerprint.mix(Fingerprint.mixFrames(Fingerprint.SEED, frames, length), common);
+        Block block = cache.get(key);
+        if(block == null || !block.matches(frames, length, common)) {
+            StackTraceElement[] elements = new StackTraceElement[length];
+            for(int i = 0; i < length; i++) {
+                elements[i] = frames[i].getStackTraceElement();
+            }
+            block = new Block(elements, common, renderFrames(frames, length - common, common));
+            if(cache.size() >= CACHE_CAPACITY) {
+                // a working set larger than the cache is rare; starts over rather than tracking usage
+                cache.clear();
+            }
+            cache.put(key, block);
+        }
+        return block;
+    }
+
+    /**
+     * Renders frames
+     *
+     * @param frames frames
+     * @param length number of frames which are not in common with the enclosing trace
+     * @param common number of frames in common with the enclosing trace
+     * @return frame lines, each preceded by a line break
+     */
+    private String renderFrames(StackTraceElementProxy[] frames, int length, int common) {
+        StringBuilder sb = new StringBuilder();
+        int lines = 0;
+        int i = 0;
+        while(i < length) {
+            if(lines == maxDepth) {
+                sb.append("\n\t... ").append(length - i).append(" more");
+                break;
+            }
+            if(isFiltered(frames[i])) {
+                int start = i;
+                while(i < length && isFiltered(frames[i])) {
+                    i++;
+                }
+                sb.append("\n\t... ").append(i - start).append(i - start == 1 ? " frame" : " frames").append(" filtered");
+            } else {
+                sb.append("\n\t").append(frames[i].getSTEAsString());
+                i++;
+            }
+            lines++;
+        }
+        if(common > 0) {
+            sb.append("\n\t... ").append(common).append(" common frames omitted");
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks whether a frame is in a filtered package
+     *
+     * @param frame frame
+     * @return true if the frame should be collapsed
+     */
+    private boolean isFiltered(StackTraceElementProxy frame) {
+        String className = frame.getStackTraceElement().getClassName();
+        for(String filter : filters) {
+            if(className.startsWith(filter)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,87 @@
+package jp.co.dwango.logback;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats timestamps as ISO-8601 with offset, as {@link DateTimeFormatter#ISO_OFFSET_DATE_TIME} does.
+ *
+ * Events mostly arrive in bursts within the same second, so the date, time and offset of the last
+ * second are kept and only the milliseconds are appended per timestamp.
+ */
+final class TimestampFormatter {
+    /**
+     * Formatted parts of a second
+     */
+    private static final class Second {
+        /** seconds since the epoch */
+        final long epochSecond;
+
+        /** local date and time up to the second */
+        final String dateTime;
+
+        /** offset from UTC */
+        final String offset;
+
+        Second(long epochSecond, String dateTime, String offset) {
+            this.epochSecond = epochSecond;
+            this.dateTime = dateTime;
+            this.offset = offset;
+        }
+    }
+
+    /** time-zone */
+    private final ZoneId zone;
+
+    /** last second formatted */
+    private volatile Second last;
+
+    /**
+     * Creates a formatter in the system default time-zone
+     */
+    TimestampFormatter() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * Creates a formatter
+     *
+     * @param zone time-zone
+     */
+    TimestampFormatter(ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * Formats a timestamp
+     *
+     * @param timestamp timestamp in milliseconds
+     * @return formatted timestamp
+     */
+    String format(long timestamp) {
+        long epochSecond = Math.floorDiv(timestamp, 1000L);
+        int millis = (int) Math.floorMod(timestamp, 1000L);
+        Second second = last;
+        if(second == null || second.epochSecond != epochSecond) {
+            OffsetDateTime odt = OffsetDateTime.ofInstant(Instant.ofEpochSecond(epochSecond), zone);
+            second = new Second(epochSecond, DateTimeFormatter.ISO_LOCAL_DATE_TIME.format(odt.toLocalDateTime()),
+                odt.getOffset().getId());
+            last = second;
+        }
+        StringBuilder sb = new StringBuilder(second.dateTime.length() + 4 + second.offset.length());
+        sb.append(second.dateTime);
+        if(millis > 0) {
+            // as few digits as needed, like the formatter
+            sb.append('.').append((char) ('0' + millis / 100));
+            if(millis % 100 > 0) {
+                sb.append((char) ('0' + millis / 10 % 10));
+                if(millis % 10 > 0) {
+                    sb.append((char) ('0' + millis % 10));
+                }
+            }
+        }
+        return sb.append(second.offset).toString();
+    }
+}
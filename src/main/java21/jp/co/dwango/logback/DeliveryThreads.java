@@ -0,0 +1,35 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates virtual threads which posts run on.
+ *
+ * This is the version for Java 21 and later, packaged under <code>META-INF/versions/21</code>
+ * of the multi-release jar. A post blocked on the socket unmounts its virtual thread, so posts
+ * in flight do not hold platform threads.
+ */
+final class DeliveryThreads {
+    private DeliveryThreads() {
+    }
+
+    /**
+     * Checks whether the runtime has virtual threads
+     *
+     * @return true
+     */
+    static boolean isVirtualSupported() {
+        return true;
+    }
+
+    /**
+     * Creates an executor which runs each task on a new virtual thread
+     *
+     * @param name prefix of the names of threads
+     * @return executor
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name, 1).factory());
+    }
+}
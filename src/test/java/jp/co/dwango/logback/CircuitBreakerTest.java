@@ -0,0 +1,81 @@
+package jp.co.dwango.logback;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void testOpensAfterThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(3, 60_000);
+        Assert.assertFalse(breaker.onFailure());
+        Assert.assertFalse(breaker.onFailure());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.tryAcquire());
+
+        Assert.assertTrue(breaker.onFailure());
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertNull(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testSuccessResetsFailures() {
+        CircuitBreaker breaker = new CircuitBreaker(2, 60_000);
+        breaker.onFailure();
+        Assert.assertFalse(breaker.onSuccess());
+        Assert.assertFalse(breaker.onFailure());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testProbe() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        breaker.onFailure();
+        Assert.assertNull(breaker.tryAcquire());
+
+        Thread.sleep(60);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.tryAcquire());
+        // only one probe at a time
+        Assert.assertNull(breaker.tryAcquire());
+
+        // a failed probe opens the circuit again
+        Assert.assertTrue(breaker.onFailure());
+        Assert.assertNull(breaker.tryAcquire());
+
+        Thread.sleep(60);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.tryAcquire());
+        Assert.assertTrue(breaker.onSuccess());
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testLateFailuresDoNotPutProbeOff() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(1, 50);
+        Assert.assertTrue(breaker.onFailure());
+
+        Thread.sleep(40);
+        // a post which was in flight when the breaker opened
+        Assert.assertFalse(breaker.onFailure());
+        Thread.sleep(20);
+
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testDisabled() {
+        CircuitBreaker breaker = new CircuitBreaker(0, 60_000);
+        for (int i = 0; i < 100; i++) {
+            breaker.onFailure();
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.tryAcquire());
+    }
+
+    @Test
+    public void testSharedByWebhook() {
+        Assert.assertSame(
+            CircuitBreaker.forWebhook("https://example.com/a", 5, 1_000),
+            CircuitBreaker.forWebhook("https://example.com/a", 5, 1_000));
+        Assert.assertNotSame(
+            CircuitBreaker.forWebhook("https://example.com/a", 5, 1_000),
+            CircuitBreaker.forWebhook("https://example.com/b", 5, 1_000));
+    }
+}
@@ -0,0 +1,32 @@
+package jp.co.dwango.logback;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.LoggerContext;
+
+public class ContextPropertiesTest {
+
+    @Test
+    public void testSnapshotPerContextValueObject() {
+        LoggerContext context = new LoggerContext();
+        context.putProperty("HOSTNAME", "host-a");
+        context.putProperty("team", "logging");
+        ContextProperties properties = ContextProperties.of(context.getLoggerContextRemoteView());
+        Assert.assertSame(properties, ContextProperties.of(context.getLoggerContextRemoteView()));
+        Assert.assertEquals("host-a", properties.hostname());
+        Assert.assertEquals("logging", properties.get("team"));
+
+        context.putProperty("team", "payments");
+        ContextProperties changed = ContextProperties.of(context.getLoggerContextRemoteView());
+        Assert.assertNotSame(properties, changed);
+        Assert.assertEquals("payments", changed.get("team"));
+    }
+
+    @Test
+    public void testFallsBackToSystemProperties() {
+        ContextProperties properties = ContextProperties.of(null);
+        Assert.assertEquals(System.getProperty("java.version"), properties.get("java.version"));
+        Assert.assertNull(properties.get("jp.co.dwango.logback.undefined"));
+    }
+}
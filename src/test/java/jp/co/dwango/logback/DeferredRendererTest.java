@@ -0,0 +1,118 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.ContextBase;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+public class DeferredRendererTest {
+
+    private static final EventFields FIELDS = PayloadScript.analyze("return { text: event.getFormattedMessage() };");
+
+    private static final PayloadRenderer MESSAGE = new PayloadRenderer() {
+        @Override
+        public byte[] render(ILoggingEvent event) {
+            return event.getFormattedMessage().getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        public EventFields fields() {
+            return FIELDS;
+        }
+    };
+
+    @Test
+    public void testHoldsEventsUntilCompiled() throws Exception {
+        CountDownLatch compiling = new CountDownLatch(1);
+        AppenderMetrics metrics = metrics();
+        DeferredRenderer renderer = new DeferredRenderer(owner(), "", FIELDS, () -> {
+            compiling.await();
+            return MESSAGE;
+        }, metrics);
+        List<String> posted = new CopyOnWriteArrayList<>();
+        renderer.start("compile", event -> posted.add(render(renderer, event)));
+
+        for (int i = 0; i < DeferredRenderer.MAX_HELD + 1; i++) {
+            Assert.assertTrue(renderer.hold(event("held " + i)));
+        }
+        Assert.assertTrue(posted.isEmpty());
+        Assert.assertEquals(1, metrics.getEventsDropped());
+
+        compiling.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (renderer.hold(event("late")) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertFalse(renderer.hold(event("rendered")));
+
+        // held and late events are posted in order
+        Assert.assertTrue(posted.size() >= DeferredRenderer.MAX_HELD);
+        for (int i = 0; i < DeferredRenderer.MAX_HELD; i++) {
+            Assert.assertEquals("held " + i, posted.get(i));
+        }
+        for (String late : posted.subList(DeferredRenderer.MAX_HELD, posted.size())) {
+            Assert.assertEquals("late", late);
+        }
+    }
+
+    @Test
+    public void testDropsHeldEventsOnCompileError() throws Exception {
+        CountDownLatch compiling = new CountDownLatch(1);
+        AppenderMetrics metrics = metrics();
+        DeferredRenderer renderer = new DeferredRenderer(owner(), "", FIELDS, () -> {
+            compiling.await();
+            throw new IllegalArgumentException("syntax error");
+        }, metrics);
+        List<String> posted = new CopyOnWriteArrayList<>();
+        renderer.start("compile", event -> posted.add(render(renderer, event)));
+
+        Assert.assertTrue(renderer.hold(event("held")));
+        compiling.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!renderer.isFailed() && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        Assert.assertTrue(renderer.isFailed());
+        Assert.assertEquals(1, metrics.getEventsDropped());
+        Assert.assertTrue(posted.isEmpty());
+    }
+
+    private static String render(DeferredRenderer renderer, ILoggingEvent event) {
+        try {
+            return new String(renderer.render(event), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static AppenderMetrics metrics() {
+        return new AppenderMetrics(() -> 0, () -> "CLOSED");
+    }
+
+    private static ContextAwareBase owner() {
+        ContextAwareBase owner = new ContextAwareBase();
+        owner.setContext(new ContextBase());
+        return owner;
+    }
+
+    private static LoggingEvent event(String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.ERROR);
+        event.setLoggerName("test");
+        event.setMessage(message);
+        event.setLoggerContextRemoteView(new LoggerContextVO("test", Collections.emptyMap(), 0L));
+        return event;
+    }
+}
@@ -0,0 +1,101 @@
+package jp.co.dwango.logback;
+
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+/**
+ * Runs on the classes for the running Java version.
+ * <code>sbt testJava21</code> runs it on Java 21 with the classes of <code>src/main/java21</code>.
+ */
+public class DeliveryThreadsTest {
+
+    private static final long LATENCY_MILLIS = 300;
+
+    @Test
+    public void testVirtualSupportMatchesRuntime() {
+        String version = System.getProperty("java.specification.version");
+        int major = Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version.split("\\.")[0]);
+        Assert.assertEquals(major >= 21, DeliveryThreads.isVirtualSupported());
+    }
+
+    @Test
+    public void testPostsRunOnVirtualThreads() throws Exception {
+        Assume.assumeTrue(DeliveryThreads.isVirtualSupported());
+        ExecutorService executor = DeliveryThreads.newVirtualThreadPerTaskExecutor("test-");
+        try {
+            Thread thread = executor.submit(Thread::currentThread).get(10, TimeUnit.SECONDS);
+            Assert.assertEquals(Boolean.TRUE, Thread.class.getMethod("isVirtual").invoke(thread));
+            Assert.assertTrue(thread.getName(), thread.getName().startsWith("test-"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testCapsPostsPerWebhook() throws Exception {
+        try (FakeSlackServer server = new FakeSlackServer()) {
+            server.setLatency(LATENCY_MILLIS);
+            AsyncHttpTransport transport = transport(2);
+            try {
+                long start = System.nanoTime();
+                awaitAll(post(transport, server, 6));
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                // three round trips of two posts each
+                Assert.assertEquals(6, server.getAccepted().size());
+                Assert.assertTrue("took " + elapsedMillis + " ms", elapsedMillis >= 3 * LATENCY_MILLIS);
+            } finally {
+                transport.close();
+            }
+        }
+    }
+
+    @Test
+    public void testWebhooksDoNotShareCap() throws Exception {
+        try (FakeSlackServer first = new FakeSlackServer(); FakeSlackServer second = new FakeSlackServer()) {
+            first.setLatency(LATENCY_MILLIS);
+            second.setLatency(LATENCY_MILLIS);
+            AsyncHttpTransport transport = transport(1);
+            try {
+                long start = System.nanoTime();
+                List<CompletableFuture<Void>> futures = post(transport, first, 1);
+                futures.addAll(post(transport, second, 1));
+                awaitAll(futures);
+                long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+                Assert.assertEquals(1, first.getAccepted().size());
+                Assert.assertEquals(1, second.getAccepted().size());
+                Assert.assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 2 * LATENCY_MILLIS);
+            } finally {
+                transport.close();
+            }
+        }
+    }
+
+    private static AsyncHttpTransport transport(int maxInFlight) {
+        return new AsyncHttpTransport("test", 5_000, 5_000, maxInFlight, DeliveryThreads.isVirtualSupported());
+    }
+
+    private static List<CompletableFuture<Void>> post(AsyncHttpTransport transport, FakeSlackServer server, int n)
+            throws Exception {
+        URL url = new URL(server.url());
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            futures.add(transport.post(url, ("{\"text\":\"" + i + "\"}").getBytes(StandardCharsets.UTF_8)));
+        }
+        return futures;
+    }
+
+    private static void awaitAll(List<CompletableFuture<Void>> futures) throws Exception {
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(30, TimeUnit.SECONDS);
+    }
+}
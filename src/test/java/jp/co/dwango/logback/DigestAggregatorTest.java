@@ -0,0 +1,62 @@
+package jp.co.dwango.logback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.ContextBase;
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+public class DigestAggregatorTest {
+
+    @Test
+    public void testKeepsHeavyHittersAmongManyDistinctEvents() {
+        List<ILoggingEvent> published = new ArrayList<>();
+        DigestAggregator digest = new DigestAggregator(owner(), 60_000, Level.WARN, 3, published::add);
+        digest.start();
+
+        // distinct events far beyond the capacity of the table, interleaved with two heavy hitters
+        for (int i = 0; i < 100_000; i++) {
+            Assert.assertTrue(digest.count(event(Level.INFO, "com.example.Noise", "noise " + i)));
+            if (i % 10 == 0) {
+                digest.count(event(Level.WARN, "com.example.Dao", "slow query"));
+            }
+            if (i % 20 == 0) {
+                digest.count(event(Level.INFO, "com.example.Cache", "miss"));
+            }
+        }
+        Assert.assertFalse(digest.count(event(Level.ERROR, "com.example.Dao", "failed")));
+        digest.stop();
+
+        Assert.assertEquals(1, published.size());
+        String[] lines = published.get(0).getFormattedMessage().split("\n");
+        Assert.assertEquals(Level.WARN, published.get(0).getLevel());
+        Assert.assertTrue(lines[0], lines[0].startsWith("Digest of 115,000 logs in 1 s (WARN 10,000, INFO 105,000)"));
+        Assert.assertTrue(lines[1], lines[1].matches("~?1\\d,\\d{3}  WARN  com\\.example\\.Dao  slow query"));
+        Assert.assertTrue(lines[2], lines[2].matches("~?\\d,\\d{3}  INFO  com\\.example\\.Cache  miss"));
+        Assert.assertEquals(5, lines.length);
+        Assert.assertTrue(lines[4], lines[4].startsWith("+"));
+
+        // stopped
+        Assert.assertFalse(digest.count(event(Level.INFO, "com.example.Noise", "noise")));
+    }
+
+    private static ContextAwareBase owner() {
+        ContextAwareBase owner = new ContextAwareBase();
+        owner.setContext(new ContextBase());
+        return owner;
+    }
+
+    private static LoggingEvent event(Level level, String logger, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(level);
+        event.setLoggerName(logger);
+        event.setMessage(message);
+        return event;
+    }
+}
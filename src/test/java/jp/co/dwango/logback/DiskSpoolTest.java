@@ -0,0 +1,107 @@
+package jp.co.dwango.logback;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DiskSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testPeekAndCommit() throws IOException {
+        DiskSpool spool = new DiskSpool(folder.getRoot(), 1024, 4096);
+        Assert.assertTrue(spool.isEmpty());
+        spool.append(bytes("first"));
+        spool.append(bytes("second"));
+
+        Assert.assertEquals("first", string(spool.peek()));
+        Assert.assertEquals("first", string(spool.peek()));
+        spool.commit();
+        Assert.assertEquals("second", string(spool.peek()));
+        spool.commit();
+        Assert.assertNull(spool.peek());
+        Assert.assertTrue(spool.isEmpty());
+    }
+
+    @Test
+    public void testResumesAfterRestart() throws IOException {
+        DiskSpool spool = new DiskSpool(folder.getRoot(), 1024, 4096);
+        spool.append(bytes("first"));
+        spool.append(bytes("second"));
+        spool.peek();
+        spool.commit();
+        spool.flush();
+
+        DiskSpool reopened = new DiskSpool(folder.getRoot(), 1024, 4096);
+        Assert.assertEquals("second", string(reopened.peek()));
+        reopened.commit();
+        reopened.append(bytes("third"));
+        Assert.assertEquals("third", string(reopened.peek()));
+    }
+
+    @Test
+    public void testOverwritesTornRecordAfterRestart() throws IOException {
+        DiskSpool spool = new DiskSpool(folder.getRoot(), 1024, 4096);
+        spool.append(bytes("first"));
+        spool.append(bytes("second"));
+        spool.flush();
+
+        // corrupts the payload of the second record as if the crash tore it
+        File[] segments = folder.getRoot().listFiles((dir, name) -> name.endsWith(".spool"));
+        try (RandomAccessFile file = new RandomAccessFile(segments[0], "rw")) {
+            file.seek(8 + "first".length() + 8);
+            file.write('S');
+        }
+
+        DiskSpool reopened = new DiskSpool(folder.getRoot(), 1024, 4096);
+        reopened.append(bytes("third"));
+        Assert.assertEquals("first", string(reopened.peek()));
+        reopened.commit();
+        Assert.assertEquals("third", string(reopened.peek()));
+        reopened.commit();
+        Assert.assertNull(reopened.peek());
+        Assert.assertTrue(reopened.isEmpty());
+    }
+
+    @Test
+    public void testRotatesAndDiscardsOldest() throws IOException {
+        DiskSpool spool = new DiskSpool(folder.getRoot(), 64, 128);
+        for (int i = 0; i < 10; i++) {
+            spool.append(bytes("message-" + i + "-padding-padding"));
+        }
+
+        Assert.assertTrue(spool.getDiscarded() > 0);
+        File[] segments = folder.getRoot().listFiles((dir, name) -> name.endsWith(".spool"));
+        Assert.assertTrue(segments.length <= 2);
+
+        String last = null;
+        byte[] body;
+        while ((body = spool.peek()) != null) {
+            last = string(body);
+            spool.commit();
+        }
+        Assert.assertEquals("message-9-padding-padding", last);
+    }
+
+    @Test
+    public void testRejectsTooLargeMessage() throws IOException {
+        DiskSpool spool = new DiskSpool(folder.getRoot(), 64, 128);
+        Assert.assertFalse(spool.append(new byte[100]));
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return b == null ? null : new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,64 @@
+package jp.co.dwango.logback;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.MarkerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class EventFilterTest {
+
+    @Test
+    public void testNoRules() {
+        Assert.assertNull(EventFilter.compile(null, null, " ", null, null, null));
+    }
+
+    @Test
+    public void testLevelAndLoggers() {
+        EventFilter filter = EventFilter.compile("WARN", "com.example", "com.example.noisy", null, null, null);
+        Assert.assertTrue(filter.accepts(event(Level.WARN, "com.example.Service", "failed")));
+        Assert.assertFalse(filter.accepts(event(Level.INFO, "com.example.Service", "failed")));
+        Assert.assertFalse(filter.accepts(event(Level.ERROR, "org.example.Service", "failed")));
+        Assert.assertFalse(filter.accepts(event(Level.ERROR, "com.example.noisy.Poller", "failed")));
+    }
+
+    @Test
+    public void testMarkerMdcAndMessage() {
+        EventFilter filter = EventFilter.compile(null, null, null, "ALERT", "requestId", "time(d)? ?out");
+        Assert.assertFalse(filter.accepts(event(Level.ERROR, "com.example.Service", "connection timed out")));
+
+        LoggingEvent marked = event(Level.ERROR, "com.example.Service", "connection timed out");
+        marked.setMarker(MarkerFactory.getMarker("ALERT"));
+        Assert.assertFalse(filter.accepts(marked));
+
+        Assert.assertTrue(filter.accepts(event(Level.ERROR, "com.example.Service", "connection timed out", "ALERT", "requestId")));
+        Assert.assertFalse(filter.accepts(event(Level.ERROR, "com.example.Service", "connection refused", "ALERT", "requestId")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPattern() {
+        EventFilter.compile(null, null, null, null, null, "(unclosed");
+    }
+
+    private static LoggingEvent event(Level level, String logger, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(level);
+        event.setLoggerName(logger);
+        event.setMessage(message);
+        event.setMDCPropertyMap(Collections.<String, String>emptyMap());
+        return event;
+    }
+
+    private static LoggingEvent event(Level level, String logger, String message, String marker, String mdcKey) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(level);
+        event.setLoggerName(logger);
+        event.setMessage(message);
+        event.setMarker(MarkerFactory.getMarker(marker));
+        event.setMDCPropertyMap(Collections.singletonMap(mdcKey, "42"));
+        return event;
+    }
+}
@@ -0,0 +1,99 @@
+package jp.co.dwango.logback;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class EventSnapshotTest {
+
+    @Test
+    public void testTemplateFields() {
+        PayloadTemplate template = new PayloadTemplate("{\"text\": \"${emoji} ${message} ${mdc:requestId}\"}");
+        EventFields fields = template.fields();
+        Assert.assertTrue(fields.has(EventFields.LEVEL | EventFields.MESSAGE));
+        Assert.assertFalse(fields.has(EventFields.THREAD));
+        Assert.assertFalse(fields.has(EventFields.CONTEXT));
+        Assert.assertFalse(fields.has(EventFields.MDC));
+        Assert.assertEquals("level,message,mdc:requestId", fields.toString());
+
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("requestId", "42");
+        mdc.put("userId", "secret");
+        LoggingEvent event = event(Level.WARN, "hello");
+        event.setMDCPropertyMap(mdc);
+
+        EventSnapshot snapshot = fields.capture(event);
+        Assert.assertArrayEquals(template.render(event), template.render(snapshot));
+        Assert.assertNull(snapshot.getThreadName());
+        Assert.assertNull(snapshot.getLoggerContextVO());
+        Assert.assertEquals(1, snapshot.getMDCPropertyMap().size());
+        Assert.assertEquals("42", snapshot.getMDCPropertyMap().get("requestId"));
+    }
+
+    @Test
+    public void testScriptFields() {
+        EventFields fields = PayloadScript.analyze("{ text: emoji + ' ' + timestamp + ' ' + message }");
+        Assert.assertTrue(fields.has(EventFields.LEVEL | EventFields.MESSAGE | EventFields.TIMESTAMP | EventFields.CONTEXT));
+        Assert.assertFalse(fields.has(EventFields.THREAD));
+        Assert.assertFalse(fields.has(EventFields.MDC));
+        Assert.assertFalse(fields.has(EventFields.CALLER_DATA));
+
+        fields = PayloadScript.analyze("{ text: event.getThreadName() + event . loggerName + event.getMDCPropertyMap().get('a') }");
+        Assert.assertTrue(fields.has(EventFields.THREAD | EventFields.LOGGER | EventFields.MDC));
+        Assert.assertFalse(fields.has(EventFields.CALLER_DATA));
+
+        // the event escapes the analysis
+        Assert.assertTrue(PayloadScript.analyze("{ text: describe(event) }").has(EventFields.ALL));
+        Assert.assertTrue(PayloadScript.analyze("{ text: event['getCallerData']() }").has(EventFields.ALL));
+        Assert.assertTrue(PayloadScript.analyze("{ text: event.getNanoTime() }").has(EventFields.ALL));
+        Assert.assertTrue(PayloadScript.analyze("{ text: arguments[0].getCallerData() }").has(EventFields.ALL));
+
+        // other identifiers containing the name
+        Assert.assertFalse(PayloadScript.analyze("{ text: events.length + obj.event }").has(EventFields.ALL));
+    }
+
+    @Test
+    public void testScriptFieldsOfPreludeVariables() {
+        EventFields fields = PayloadScript.analyze("{ text: level, color: color }");
+        Assert.assertTrue(fields.has(EventFields.LEVEL | EventFields.CONTEXT));
+        Assert.assertFalse(fields.has(EventFields.MESSAGE));
+        Assert.assertFalse(fields.has(EventFields.TIMESTAMP));
+        Assert.assertFalse(fields.has(EventFields.THROWABLE));
+
+        fields = PayloadScript.analyze("{ text: messages.length + obj.timestamp }");
+        Assert.assertFalse(fields.has(EventFields.MESSAGE));
+        Assert.assertFalse(fields.has(EventFields.TIMESTAMP));
+
+        Assert.assertTrue(PayloadScript.analyze("{ text: stacktrace() }").has(EventFields.THROWABLE));
+    }
+
+    @Test
+    public void testCapturesOnCallingThread() throws Exception {
+        LoggingEvent event = event(Level.INFO, "hello {}");
+        event.setArgumentArray(new Object[] { "world" });
+        EventFields fields = new EventFields().require(EventFields.THREAD | EventFields.MESSAGE);
+
+        EventSnapshot snapshot = fields.capture(event);
+        String threadName = CompletableFuture.supplyAsync(snapshot::getThreadName).get();
+        Assert.assertEquals(Thread.currentThread().getName(), threadName);
+        Assert.assertEquals("hello world", snapshot.getFormattedMessage());
+        Assert.assertEquals(Level.INFO, snapshot.getLevel());
+        Assert.assertNull(snapshot.getMessage());
+        Assert.assertNull(snapshot.getCallerData());
+        Assert.assertFalse(snapshot.hasCallerData());
+    }
+
+    private static LoggingEvent event(Level level, String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(level);
+        event.setMessage(message);
+        event.setLoggerName("test");
+        return event;
+    }
+}
@@ -0,0 +1,204 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Fake incoming webhook on the loopback interface.
+ *
+ * Responses are scripted per request; when the script runs out, requests are accepted with 200 OK.
+ * Every request can also be delayed by a fixed latency, plus a random jitter.
+ */
+class FakeSlackServer implements AutoCloseable {
+
+    /**
+     * Scripted behavior for a request
+     */
+    static final class Response {
+        final int status;
+        final int retryAfterSeconds;
+        final boolean reset;
+        final long readDelayMillis;
+
+        private Response(int status, int retryAfterSeconds, boolean reset, long readDelayMillis) {
+            this.status = status;
+            this.retryAfterSeconds = retryAfterSeconds;
+            this.reset = reset;
+            this.readDelayMillis = readDelayMillis;
+        }
+    }
+
+    static Response ok() {
+        return new Response(200, -1, false, 0);
+    }
+
+    static Response rateLimited(int retryAfterSeconds) {
+        return new Response(429, retryAfterSeconds, false, 0);
+    }
+
+    static Response serverError(int status) {
+        return new Response(status, -1, false, 0);
+    }
+
+    /** closes the connection without responding */
+    static Response reset() {
+        return new Response(0, -1, true, 0);
+    }
+
+    /** reads the request body slowly, a chunk per delay */
+    static Response slowRead(long readDelayMillis) {
+        return new Response(200, -1, false, readDelayMillis);
+    }
+
+    private static final int READ_CHUNK_SIZE = 64;
+
+    static {
+        // the server writes headers and body separately, which Nagle would delay by the delayed ACK of the client.
+        // effective only before the first server is created in the JVM, so build.sbt sets it too
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final Queue<Response> script = new ConcurrentLinkedQueue<>();
+
+    private final Queue<String> accepted = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private volatile long latencyMillis;
+
+    private volatile long jitterMillis;
+
+    FakeSlackServer() throws IOException {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.executor = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "FakeSlackServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.createContext("/services", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String url() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/services/FAKE/" + System.identityHashCode(this);
+    }
+
+    void setLatency(long latencyMillis) {
+        setLatency(latencyMillis, 0);
+    }
+
+    /** delays every request by the latency plus a random time up to the jitter */
+    void setLatency(long latencyMillis, long jitterMillis) {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+    }
+
+    /** appends responses to the script */
+    void script(Response... responses) {
+        for (Response response : responses) {
+            script.add(response);
+        }
+    }
+
+    /** appends the same response several times to the script */
+    void script(Response response, int times) {
+        for (int i = 0; i < times; i++) {
+            script.add(response);
+        }
+    }
+
+    int getRequests() {
+        return requests.get();
+    }
+
+    /** bodies of accepted requests */
+    Queue<String> getAccepted() {
+        return accepted;
+    }
+
+    /** counts messages in accepted requests, a line of merged text each */
+    int countAcceptedMessages() {
+        int count = 0;
+        for (String body : accepted) {
+            count++;
+            for (int i = body.indexOf("\\n"); i >= 0; i = body.indexOf("\\n", i + 2)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        Response response = script.poll();
+        if (response == null) {
+            response = ok();
+        }
+        long jitter = jitterMillis;
+        sleep(latencyMillis + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) : 0));
+
+        byte[] body = read(exchange.getRequestBody(), response.readDelayMillis);
+        if (response.reset) {
+            // the server closes the connection when a handler fails
+            throw new IOException("reset by script");
+        }
+        if (response.status == 200) {
+            accepted.add(new String(body, StandardCharsets.UTF_8));
+        }
+        if (response.retryAfterSeconds >= 0) {
+            exchange.getResponseHeaders().add("Retry-After", Integer.toString(response.retryAfterSeconds));
+        }
+        byte[] content = (response.status == 200 ? "ok" : "error").getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(response.status, content.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(content);
+        }
+    }
+
+    private static byte[] read(InputStream is, long delayMillis) throws IOException {
+        try (InputStream in = is) {
+            JsonBuffer buffer = new JsonBuffer(1024);
+            byte[] chunk = new byte[delayMillis > 0 ? READ_CHUNK_SIZE : 4096];
+            int n;
+            while ((n = in.read(chunk)) >= 0) {
+                buffer.write(chunk, 0, n);
+                sleep(delayMillis);
+            }
+            return buffer.toByteArray();
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
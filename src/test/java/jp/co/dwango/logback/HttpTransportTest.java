@@ -0,0 +1,80 @@
+package jp.co.dwango.logback;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpServer;
+
+public class HttpTransportTest {
+
+    private HttpServer server;
+
+    private final List<Integer> remotePorts = new CopyOnWriteArrayList<>();
+
+    private volatile int status = 200;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/hook", exchange -> {
+            remotePorts.add(exchange.getRemoteAddress().getPort());
+            try (InputStream is = exchange.getRequestBody()) {
+                while (is.read() >= 0) {
+                    // discards
+                }
+            }
+            byte[] response = (status == 200 ? "ok" : "rate_limited").getBytes(StandardCharsets.UTF_8);
+            if (status == 429) {
+                exchange.getResponseHeaders().add("Retry-After", "3");
+            }
+            exchange.sendResponseHeaders(status, response.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(response);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testReusesConnection() throws IOException {
+        HttpTransport transport = new HttpTransport(url(), 5_000, 5_000);
+        transport.post("{\"text\":\"1\"}".getBytes(StandardCharsets.UTF_8));
+        transport.post("{\"text\":\"2\"}".getBytes(StandardCharsets.UTF_8));
+
+        Assert.assertEquals(2, remotePorts.size());
+        Assert.assertEquals(remotePorts.get(0), remotePorts.get(1));
+    }
+
+    @Test
+    public void testRateLimited() throws IOException {
+        status = 429;
+        HttpTransport transport = new HttpTransport(url(), 5_000, 5_000);
+        try {
+            transport.post("{\"text\":\"1\"}".getBytes(StandardCharsets.UTF_8));
+            Assert.fail();
+        } catch (SlackResponseException e) {
+            Assert.assertTrue(e.isRateLimited());
+            Assert.assertEquals(3_000, e.getRetryAfterMillis());
+        }
+    }
+
+    private URL url() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/hook");
+    }
+}
@@ -0,0 +1,61 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JsonBufferTest {
+
+    @Test
+    public void testEscapes() {
+        JsonBuffer buffer = new JsonBuffer(4);
+        buffer.writeQuoted("a\"b\\c\nd\re\tf\u0001g");
+
+        String actual = new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        Assert.assertEquals("\"a\\\"b\\\\c\\nd\\re\\tf\\u0001g\"", actual);
+    }
+
+    @Test
+    public void testEncodesUtf8() {
+        String text = "café 日本 😀";
+        JsonBuffer buffer = new JsonBuffer(1);
+        buffer.writeEscaped(text);
+
+        Assert.assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), buffer.toByteArray());
+    }
+
+    @Test
+    public void testWritesNull() {
+        JsonBuffer buffer = new JsonBuffer(16);
+        buffer.writeQuoted(null);
+
+        Assert.assertEquals("null", new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testReset() {
+        JsonBuffer buffer = new JsonBuffer(16);
+        buffer.writeEscaped("first");
+        buffer.reset();
+        buffer.writeEscaped("second");
+
+        Assert.assertEquals("second", new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTruncatesAtCharacterBoundary() {
+        JsonBuffer buffer = new JsonBuffer(1);
+        Assert.assertTrue(buffer.writeEscaped("short", 10));
+        Assert.assertTrue(buffer.writeEscaped("あい", 6));
+        Assert.assertEquals("shortあい", new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+
+        buffer.reset();
+        Assert.assertFalse(buffer.writeEscaped("あいう\n", 10));
+        Assert.assertEquals("あい…", new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+
+        buffer.reset();
+        Assert.assertFalse(buffer.writeEscaped("ab\ncd😀😀", 9));
+        Assert.assertEquals("ab\\ncd…", new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,93 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LaneQueueTest {
+
+    @Test
+    public void testStrictPriority() {
+        LaneQueue<String> queue = new LaneQueue<>(3, 10, null);
+        Assert.assertTrue(queue.offer(2, "info 1"));
+        Assert.assertTrue(queue.offer(1, "warn 1"));
+        Assert.assertTrue(queue.offer(2, "info 2"));
+        Assert.assertTrue(queue.offer(0, "error 1"));
+        Assert.assertEquals(4, queue.size());
+
+        Assert.assertEquals("error 1", queue.poll());
+        Assert.assertEquals("warn 1", queue.poll());
+        Assert.assertEquals("info 1", queue.poll());
+        Assert.assertEquals("info 2", queue.poll());
+        Assert.assertNull(queue.poll());
+        Assert.assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testWeightedFair() {
+        LaneQueue<String> queue = new LaneQueue<>(3, 20, new int[] { 3, 2, 1 });
+        for (int i = 0; i < 5; i++) {
+            queue.offer(0, "e" + i);
+            queue.offer(1, "w" + i);
+            queue.offer(2, "i" + i);
+        }
+        StringBuilder order = new StringBuilder();
+        String element;
+        while ((element = queue.poll()) != null) {
+            order.append(element).append(' ');
+        }
+        Assert.assertEquals("e0 e1 e2 w0 w1 i0 e3 e4 w2 w3 i1 w4 i2 i3 i4 ", order.toString());
+    }
+
+    @Test
+    public void testSharesCapacity() {
+        LaneQueue<String> queue = new LaneQueue<>(3, 3, null);
+        Assert.assertTrue(queue.offer(2, "info 1"));
+        Assert.assertTrue(queue.offer(1, "warn 1"));
+        Assert.assertTrue(queue.offer(2, "info 2"));
+        Assert.assertFalse(queue.offer(0, "error 1"));
+        Assert.assertEquals(2, queue.lowestNonEmpty());
+
+        Assert.assertEquals("info 1", queue.poll(2));
+        Assert.assertTrue(queue.offer(0, "error 1"));
+        Assert.assertEquals("error 1", queue.poll());
+    }
+
+    @Test
+    public void testConcurrentProducersDoNotExceedCapacity() throws InterruptedException {
+        LaneQueue<String> queue = new LaneQueue<>(3, 100, null);
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] producers = new Thread[8];
+        for (int t = 0; t < producers.length; t++) {
+            int lane = t % 3;
+            producers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 1_000; i++) {
+                    if (queue.offer(lane, "e")) {
+                        accepted.incrementAndGet();
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+
+        Assert.assertEquals(100, accepted.get());
+        int taken = 0;
+        while (queue.poll() != null) {
+            taken++;
+        }
+        Assert.assertEquals(100, taken);
+        Assert.assertTrue(queue.offer(2, "again"));
+    }
+}
@@ -0,0 +1,37 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testBuckets() {
+        long previous = -1;
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            Assert.assertTrue(value <= LatencyHistogram.upperBoundOf(bucket));
+            // relative error of at most 1/8
+            Assert.assertTrue(LatencyHistogram.upperBoundOf(bucket) - value <= value / 8);
+            Assert.assertTrue(bucket >= previous);
+            previous = bucket;
+        }
+        Assert.assertTrue(LatencyHistogram.upperBoundOf(LatencyHistogram.bucketOf(Long.MAX_VALUE)) == Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testSnapshot() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+        LatencySnapshot snapshot = histogram.snapshot();
+        Assert.assertEquals(100, snapshot.getCount());
+        Assert.assertEquals(50_500, snapshot.getMean());
+        Assert.assertEquals(100_000, snapshot.getMax());
+        Assert.assertTrue(snapshot.getP50() >= 50_000 && snapshot.getP50() <= 50_000 * 9 / 8);
+        Assert.assertTrue(snapshot.getP99() >= 99_000 && snapshot.getP99() <= 99_000 * 9 / 8);
+    }
+}
@@ -0,0 +1,98 @@
+package jp.co.dwango.logback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+
+/**
+ * Pumps events through an appender from several threads and measures the latency on the callers.
+ */
+class LoadDriver {
+
+    static final class Report {
+        final long events;
+        final long elapsedMillis;
+        final LatencySnapshot latency;
+
+        Report(long events, long elapsedMillis, LatencySnapshot latency) {
+            this.events = events;
+            this.elapsedMillis = elapsedMillis;
+            this.latency = latency;
+        }
+
+        @Override
+        public String toString() {
+            return events + " events in " + elapsedMillis + " ms, caller latency " + latency;
+        }
+    }
+
+    private final int threads;
+
+    private final int eventsPerThread;
+
+    LoadDriver(int threads, int eventsPerThread) {
+        this.threads = threads;
+        this.eventsPerThread = eventsPerThread;
+    }
+
+    /**
+     * Appends distinct events from all threads at once
+     *
+     * @param appender appender under test
+     * @return report
+     */
+    Report run(final Appender<ILoggingEvent> appender) throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < eventsPerThread; i++) {
+                        LoggingEvent event = event(thread + "-" + i);
+                        long begin = System.nanoTime();
+                        appender.doAppend(event);
+                        histogram.recordSince(begin);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            }, "LoadDriver-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        done.await();
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        return new Report((long) threads * eventsPerThread, elapsed, histogram.snapshot());
+    }
+
+    private static final Map<String, String> PROPERTIES = Collections.singletonMap("HOSTNAME", "load.local");
+
+    private static LoggingEvent event(String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.ERROR);
+        event.setLoggerName("load");
+        event.setThreadName(Thread.currentThread().getName());
+        event.setTimeStamp(System.currentTimeMillis());
+        event.setMessage(message);
+        event.setLoggerContextRemoteView(new LoggerContextVO("load", PROPERTIES, 0L));
+        return event;
+    }
+}
@@ -0,0 +1,121 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadMergerTest {
+
+    @Test
+    public void testMergesAttachments() {
+        List<String> actual = merge(
+            "{\"channel\":\"#c\",\"attachments\":[{\"title\":\"a\"}],\"link_names\":1}",
+            "{\"channel\":\"#c\",\"attachments\":[{\"title\":\"b\"},{\"title\":\"c\"}],\"link_names\":1}",
+            "{\"channel\":\"#c\",\"text\":\"plain\",\"link_names\":1}",
+            "{\"username\":\"u\"}");
+
+        Assert.assertEquals(Arrays.asList(
+            "{\"channel\":\"#c\",\"link_names\":1,\"attachments\":[{\"title\":\"a\"},{\"title\":\"b\"},{\"title\":\"c\"},{\"text\":\"plain\"}]}",
+            "{\"username\":\"u\"}"),
+            actual);
+    }
+
+    @Test
+    public void testWrapsTextBesideAttachments() {
+        List<String> actual = merge(
+            "{\"text\":\"first\",\"attachments\":[{\"title\":\"a\"}]}",
+            "{\"attachments\":[{\"title\":\"b\"}],\"text\":\"second\"}");
+
+        Assert.assertEquals(Arrays.asList(
+            "{\"attachments\":[{\"text\":\"first\"},{\"title\":\"a\"},{\"text\":\"second\"},{\"title\":\"b\"}]}"),
+            actual);
+    }
+
+    @Test
+    public void testMergesText() {
+        List<String> actual = merge(
+            "{ \"text\": \"first \\\"line\\\"\", \"username\": \"u\" }",
+            "{\"text\":\"second\", \"username\": \"u\"}",
+            "{\"attachments\":[{\"title\":\"alert\"}]}");
+
+        Assert.assertEquals(Arrays.asList(
+            "{ \"text\": \"first \\\"line\\\"\\nsecond\", \"username\": \"u\" }",
+            "{\"attachments\":[{\"title\":\"alert\"}]}"),
+            actual);
+    }
+
+    @Test
+    public void testPostsOtherSendersSeparately() {
+        List<String> text = merge(
+            "{\"text\":\"a\",\"channel\":\"#c\"}",
+            "{\"text\":\"b\",\"channel\":\"#other\"}",
+            "{\"text\":\"c\",\"channel\":\"#c\",\"icon_emoji\":\":fire:\"}",
+            "{\"text\":\"d\",\"channel\":\"#c\"}");
+
+        Assert.assertEquals(Arrays.asList(
+            "{\"text\":\"a\\nd\",\"channel\":\"#c\"}",
+            "{\"text\":\"b\",\"channel\":\"#other\"}",
+            "{\"text\":\"c\",\"channel\":\"#c\",\"icon_emoji\":\":fire:\"}"),
+            text);
+
+        List<String> blocks = merge(
+            "{\"username\":\"a\",\"blocks\":[{\"type\":\"divider\"}]}",
+            "{\"username\":\"b\",\"blocks\":[{\"type\":\"divider\"}]}");
+
+        Assert.assertEquals(Arrays.asList(
+            "{\"username\":\"a\",\"blocks\":[{\"type\":\"divider\"}]}",
+            "{\"username\":\"b\",\"blocks\":[{\"type\":\"divider\"}]}"),
+            blocks);
+    }
+
+    @Test
+    public void testContinuesTextOverLimit() {
+        char[] line = new char[PayloadMerger.MAX_TEXT_BYTES / 2 - 1];
+        Arrays.fill(line, 'x');
+        String payload = "{\"text\":\"" + new String(line) + "\"}";
+
+        List<String> actual = merge(payload, payload, payload);
+
+        Assert.assertEquals(2, actual.size());
+        Assert.assertEquals("{\"text\":\"" + new String(line) + "\\n" + new String(line) + "\"}", actual.get(0));
+        Assert.assertEquals(payload, actual.get(1));
+    }
+
+    @Test
+    public void testAddsOverflowMarker() {
+        List<byte[]> payloads = new ArrayList<>();
+        for (int i = 0; i < PayloadMerger.MAX_BLOCKS + 5; i++) {
+            payloads.add(("{\"blocks\":[{\"type\":\"divider\"}]}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        List<byte[]> merged = PayloadMerger.merge(payloads);
+        Assert.assertEquals(1, merged.size());
+        String actual = new String(merged.get(0), StandardCharsets.UTF_8);
+
+        Assert.assertTrue(actual.endsWith("{\"type\":\"context\",\"elements\":[{\"type\":\"mrkdwn\",\"text\":\"+6 more\"}]}]}"));
+        Assert.assertEquals(PayloadMerger.MAX_BLOCKS - 1, actual.split("divider").length - 1);
+    }
+
+    @Test
+    public void testCannotMerge() {
+        Assert.assertNull(PayloadMerger.merge(Arrays.asList(
+            "{\"username\":\"u\"}".getBytes(StandardCharsets.UTF_8),
+            "{\"text\":\"t\"}".getBytes(StandardCharsets.UTF_8))));
+    }
+
+    private static List<String> merge(String... payloads) {
+        List<byte[]> bytes = new ArrayList<>();
+        for (String payload : payloads) {
+            bytes.add(payload.getBytes(StandardCharsets.UTF_8));
+        }
+        List<String> merged = new ArrayList<>();
+        for (byte[] body : PayloadMerger.merge(bytes)) {
+            merged.add(new String(body, StandardCharsets.UTF_8));
+        }
+        return merged;
+    }
+}
@@ -0,0 +1,80 @@
+package jp.co.dwango.logback;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class PayloadScriptTest {
+
+    @Test
+    public void testRendersOnManyThreads() throws Exception {
+        PayloadScript script = new PayloadScript("{ text: level + ' ' + message }");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                String message = "message " + i;
+                Callable<String> render = () -> new String(script.render(event(message)), StandardCharsets.UTF_8);
+                results.add(executor.submit(render));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                Assert.assertEquals("{\"text\":\"ERROR message " + i + "\"}", results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testFormatsOnlyReferredVariables() throws Exception {
+        PayloadScript script = new PayloadScript("{ text: level, defined: typeof message + ' ' + typeof timestamp }");
+        LoggingEvent event = event("unused");
+
+        Assert.assertEquals("{\"text\":\"ERROR\",\"defined\":\"string string\"}",
+            new String(script.render(event), StandardCharsets.UTF_8));
+
+        script = new PayloadScript("{ text: level }");
+        EventSnapshot snapshot = script.fields().capture(event);
+        Assert.assertNull(snapshot.getFormattedMessage());
+        Assert.assertEquals("{\"text\":\"ERROR\"}", new String(script.render(snapshot), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testCollectedWhileThreadsWhichRenderedLive() throws Exception {
+        WeakReference<PayloadScript> reference = renderAndForget();
+        for (int i = 0; i < 50 && reference.get() != null; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        // the thread which rendered is still alive, and must not keep the script and its scopes
+        Assert.assertNull(reference.get());
+    }
+
+    private static WeakReference<PayloadScript> renderAndForget() throws Exception {
+        PayloadScript script = new PayloadScript("{ text: message }");
+        script.render(event("rendered"));
+        return new WeakReference<>(script);
+    }
+
+    private static LoggingEvent event(String message) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.ERROR);
+        event.setLoggerName("test");
+        event.setMessage(message);
+        event.setLoggerContextRemoteView(new LoggerContextVO("test", Collections.emptyMap(), 0L));
+        return event;
+    }
+}
@@ -0,0 +1,93 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PayloadSplitterTest {
+
+    @Test
+    public void testKeepsSmallPayloads() {
+        byte[] body = bytes("{\"text\":\"short\"}");
+        List<byte[]> parts = new PayloadSplitter(100, 5).split(body);
+        Assert.assertEquals(1, parts.size());
+        Assert.assertSame(body, parts.get(0));
+        byte[] large = bytes("{\"text\":\"" + repeat("a", 1000) + "\"}");
+        Assert.assertSame(large, new PayloadSplitter(0, 5).split(large).get(0));
+    }
+
+    @Test
+    public void testSplitsTextAtLineBreaks() {
+        String line = repeat("a", 30);
+        byte[] body = bytes("{\"text\":\"" + line + "\\n" + line + "\\n" + line + "\",\"username\":\"u\"}");
+        List<byte[]> parts = new PayloadSplitter(80, 5).split(body);
+        Assert.assertEquals(3, parts.size());
+        for (byte[] part : parts) {
+            Assert.assertEquals("{\"text\":\"" + line + "\",\"username\":\"u\"}", string(part));
+        }
+    }
+
+    @Test
+    public void testNeverCutsInsideSequences() {
+        String text = repeat("\\u0001あ\\\"", 20);
+        byte[] body = bytes("{\"text\":\"" + text + "\"}");
+        List<byte[]> parts = new PayloadSplitter(40, 100).split(body);
+        Assert.assertTrue(parts.size() > 1);
+        StringBuilder joined = new StringBuilder();
+        for (byte[] part : parts) {
+            Assert.assertTrue(part.length <= 40);
+            String s = string(part);
+            Assert.assertTrue(s, s.matches("\\{\"text\":\"(\\\\u0001|あ|\\\\\")+\"\\}"));
+            joined.append(s, 9, s.length() - 2);
+        }
+        Assert.assertEquals(text, joined.toString());
+    }
+
+    @Test
+    public void testTruncatesOverMaxParts() {
+        byte[] body = bytes("{\"text\":\"" + repeat("あ", 100) + "\"}");
+        List<byte[]> parts = new PayloadSplitter(50, 2).split(body);
+        Assert.assertEquals(2, parts.size());
+        Assert.assertTrue(parts.get(1).length <= 50);
+        Assert.assertTrue(string(parts.get(1)).endsWith("あ…\"}"));
+    }
+
+    @Test
+    public void testPacksAttachments() {
+        String item = "{\"text\":\"" + repeat("a", 20) + "\"}";
+        StringBuilder json = new StringBuilder("{\"channel\":\"c\",\"attachments\":[");
+        for (int i = 0; i < 10; i++) {
+            json.append(i > 0 ? "," : "").append(item);
+        }
+        json.append("]}");
+        List<byte[]> parts = new PayloadSplitter(100, 3).split(bytes(json.toString()));
+        Assert.assertEquals(3, parts.size());
+        Assert.assertEquals("{\"channel\":\"c\",\"attachments\":[" + item + "," + item + "]}", string(parts.get(0)));
+        Assert.assertEquals("{\"channel\":\"c\",\"attachments\":[" + item + "," + item + "]}", string(parts.get(1)));
+        Assert.assertEquals("{\"channel\":\"c\",\"attachments\":[" + item + ",{\"text\":\"+5 more\"}]}", string(parts.get(2)));
+    }
+
+    @Test
+    public void testKeepsUnsplittablePayloads() {
+        byte[] body = bytes("[" + repeat("1,", 100) + "1]");
+        Assert.assertSame(body, new PayloadSplitter(10, 5).split(body).get(0));
+    }
+
+    private static String repeat(String s, int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class PayloadTemplateTest {
+
+    @Test
+    public void testRendersPlaceholders() {
+        PayloadTemplate template = new PayloadTemplate(
+            "{ \"icon_emoji\": ${emoji}, \"attachments\": [{ " +
+            "  \"title\": \"${level} (${hostname})\", " +
+            "  \"color\": \"${color}\", " +
+            "  \"text\": ${message}, " +
+            "  \"footer\": \"${property:CONTEXT_NAME} / ${mdc:requestId}\" " +
+            "}] }");
+
+        Map<String, String> properties = new HashMap<>();
+        properties.put("CONTEXT_NAME", "testContext");
+        properties.put("HOSTNAME", "test.local");
+        Map<String, String> mdc = new HashMap<>();
+        mdc.put("requestId", "42");
+
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.ERROR);
+        event.setMessage("line \"1\"\nline 2");
+        event.setLoggerContextRemoteView(new LoggerContextVO("test", properties, 123L));
+        event.setMDCPropertyMap(mdc);
+
+        String actual = new String(template.render(event), StandardCharsets.UTF_8);
+        String expected =
+            "{ \"icon_emoji\": \":ng_woman:\", \"attachments\": [{ " +
+            "  \"title\": \"ERROR (test.local)\", " +
+            "  \"color\": \"danger\", " +
+            "  \"text\": \"line \\\"1\\\"\\nline 2\", " +
+            "  \"footer\": \"testContext / 42\" " +
+            "}] }";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testMissingValues() {
+        PayloadTemplate template = new PayloadTemplate("{\"a\": ${mdc:missing}, \"b\": \"[${mdc:missing}]\"}");
+
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.INFO);
+        event.setMessage("message");
+
+        String actual = new String(template.render(event), StandardCharsets.UTF_8);
+        Assert.assertEquals("{\"a\": null, \"b\": \"[]\"}", actual);
+    }
+
+    @Test
+    public void testKeepsEscapedQuotes() {
+        PayloadTemplate template = new PayloadTemplate("{\"text\": \"say \\\"${level}\\\"\"}");
+
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.WARN);
+
+        String actual = new String(template.render(event), StandardCharsets.UTF_8);
+        Assert.assertEquals("{\"text\": \"say \\\"WARN\\\"\"}", actual);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUnknownPlaceholder() {
+        new PayloadTemplate("{\"text\": ${unknown}}");
+    }
+}
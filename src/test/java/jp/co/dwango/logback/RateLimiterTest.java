@@ -0,0 +1,49 @@
+package jp.co.dwango.logback;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RateLimiterTest {
+
+    @Test
+    public void testBurstThenWait() {
+        RateLimiter limiter = new RateLimiter(1, 3);
+        Assert.assertEquals(0, limiter.tryAcquire());
+        Assert.assertEquals(0, limiter.tryAcquire());
+        Assert.assertEquals(0, limiter.tryAcquire());
+
+        long wait = limiter.tryAcquire();
+        Assert.assertTrue(wait > 0);
+        Assert.assertTrue(wait <= 1_000_000_000L);
+    }
+
+    @Test
+    public void testUnlimited() {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        for (int i = 0; i < 1_000; i++) {
+            Assert.assertEquals(0, limiter.tryAcquire());
+        }
+    }
+
+    @Test
+    public void testPause() throws InterruptedException {
+        RateLimiter limiter = new RateLimiter(0, 1);
+        limiter.pause(50);
+        Assert.assertTrue(limiter.isPaused());
+        Assert.assertTrue(limiter.tryAcquire() > 0);
+
+        Thread.sleep(60);
+        Assert.assertEquals(0, limiter.tryAcquire());
+        Assert.assertFalse(limiter.isPaused());
+    }
+
+    @Test
+    public void testSharedByWebhook() {
+        Assert.assertSame(
+            RateLimiter.forWebhook("https://example.com/a", 1, 1),
+            RateLimiter.forWebhook("https://example.com/a", 1, 1));
+        Assert.assertNotSame(
+            RateLimiter.forWebhook("https://example.com/a", 1, 1),
+            RateLimiter.forWebhook("https://example.com/b", 1, 1));
+    }
+}
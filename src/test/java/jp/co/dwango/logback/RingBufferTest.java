@@ -0,0 +1,64 @@
+package jp.co.dwango.logback;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RingBufferTest {
+
+    @Test
+    public void testOfferAndPollInOrder() {
+        RingBuffer<Integer> buffer = new RingBuffer<>(3);
+        Assert.assertTrue(buffer.offer(1));
+        Assert.assertTrue(buffer.offer(2));
+        Assert.assertTrue(buffer.offer(3));
+        Assert.assertFalse(buffer.offer(4));
+        Assert.assertEquals(3, buffer.size());
+
+        Assert.assertEquals(Integer.valueOf(1), buffer.poll());
+        Assert.assertTrue(buffer.offer(4));
+        Assert.assertEquals(Integer.valueOf(2), buffer.poll());
+        Assert.assertEquals(Integer.valueOf(3), buffer.poll());
+        Assert.assertEquals(Integer.valueOf(4), buffer.poll());
+        Assert.assertNull(buffer.poll());
+        Assert.assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int threads = 4, perThread = 10_000;
+        final RingBuffer<Integer> buffer = new RingBuffer<>(64);
+        final Set<Integer> received = ConcurrentHashMap.newKeySet();
+
+        Thread consumer = new Thread(() -> {
+            while (received.size() < threads * perThread) {
+                Integer value = buffer.poll();
+                if (value != null) {
+                    received.add(value);
+                }
+            }
+        });
+        consumer.start();
+
+        Thread[] producers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int base = t * perThread;
+            producers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    while (!buffer.offer(base + i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producers[t].start();
+        }
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        consumer.join(10_000);
+
+        Assert.assertEquals(threads * perThread, received.size());
+    }
+}
@@ -0,0 +1,72 @@
+package jp.co.dwango.logback;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.MarkerFactory;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggingEvent;
+
+public class RouteTableTest {
+
+    @Test
+    public void testPrefixTrie() {
+        PrefixTrie trie = new PrefixTrie();
+        trie.add("com.example", 1);
+        trie.add("com.example.db.", 2);
+        trie.add("org", 4);
+
+        Assert.assertEquals(1, trie.match("com.example"));
+        Assert.assertEquals(1, trie.match("com.example.Foo"));
+        Assert.assertEquals(3, trie.match("com.example.db.Pool"));
+        Assert.assertEquals(0, trie.match("com.examples.Foo"));
+        Assert.assertEquals(4, trie.match("org.slf4j.Logger"));
+        Assert.assertEquals(0, trie.match("organization"));
+        Assert.assertEquals(0, trie.match(null));
+    }
+
+    @Test
+    public void testMatch() {
+        SlackRoute errors = new SlackRoute();
+        errors.setLevel("ERROR");
+        SlackRoute db = new SlackRoute();
+        db.setLogger("com.example.db, com.example.cache");
+        SlackRoute audit = new SlackRoute();
+        audit.setMarker("AUDIT");
+        SlackRoute requests = new SlackRoute();
+        requests.setLevel("WARN");
+        requests.setMdcKey("requestId");
+        RouteTable table = new RouteTable(Arrays.asList(errors, db, audit, requests));
+
+        Assert.assertEquals(0b0001, table.match(event(Level.ERROR, "com.example.web", null)));
+        Assert.assertEquals(0b0011, table.match(event(Level.ERROR, "com.example.db.Pool", null)));
+        Assert.assertEquals(0b0010, table.match(event(Level.DEBUG, "com.example.cache", null)));
+        Assert.assertEquals(0, table.match(event(Level.INFO, "com.example.web", null)));
+
+        LoggingEvent marked = event(Level.INFO, "com.example.web", null);
+        marked.setMarker(MarkerFactory.getMarker("AUDIT"));
+        Assert.assertEquals(0b0100, table.match(marked));
+
+        Assert.assertEquals(0b1000, table.match(event(Level.WARN, "com.example.web", "requestId")));
+        Assert.assertEquals(0, table.match(event(Level.INFO, "com.example.web", "requestId")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLevel() {
+        SlackRoute route = new SlackRoute();
+        route.setLevel("LOUD");
+        new RouteTable(Collections.singletonList(route));
+    }
+
+    private static LoggingEvent event(Level level, String logger, String mdcKey) {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(level);
+        event.setLoggerName(logger);
+        event.setMDCPropertyMap(mdcKey != null
+            ? Collections.singletonMap(mdcKey, "value") : Collections.<String, String>emptyMap());
+        return event;
+    }
+}
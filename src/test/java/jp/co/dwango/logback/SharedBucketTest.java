@@ -0,0 +1,130 @@
+package jp.co.dwango.logback;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SharedBucketTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Takes tokens from a shared bucket during a time window in another process, and prints how many it took
+     */
+    public static final class Worker {
+        public static void main(String[] args) throws Exception {
+            File directory = new File(args[0]);
+            double rate = Double.parseDouble(args[2]);
+            long startAt = Long.parseLong(args[3]);
+            long endAt = Long.parseLong(args[4]);
+            RateLimiter limiter = RateLimiter.forWebhook(args[1], rate, 1, directory);
+            while (System.currentTimeMillis() < startAt) {
+                Thread.sleep(1);
+            }
+            long taken = 0;
+            while (System.currentTimeMillis() < endAt) {
+                long wait = limiter.tryAcquire();
+                if (wait == 0) {
+                    taken++;
+                } else {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(wait, TimeUnit.MILLISECONDS.toNanos(5)));
+                }
+            }
+            System.out.println(taken);
+        }
+    }
+
+    @Test
+    public void testBurstThenWait() throws Exception {
+        SharedBucket bucket = SharedBucket.forWebhook(folder.getRoot(), "https://example.com/burst");
+        long interval = TimeUnit.SECONDS.toNanos(1);
+        Assert.assertEquals(0, bucket.tryAcquire(interval, 2 * interval));
+        Assert.assertEquals(0, bucket.tryAcquire(interval, 2 * interval));
+        Assert.assertEquals(0, bucket.tryAcquire(interval, 2 * interval));
+
+        long wait = bucket.tryAcquire(interval, 2 * interval);
+        Assert.assertTrue(wait > 0);
+        Assert.assertTrue(wait <= interval);
+    }
+
+    @Test
+    public void testSharedByFile() throws Exception {
+        Assert.assertSame(
+            SharedBucket.forWebhook(folder.getRoot(), "https://example.com/a"),
+            SharedBucket.forWebhook(folder.getRoot(), "https://example.com/a"));
+        Assert.assertNotSame(
+            SharedBucket.forWebhook(folder.getRoot(), "https://example.com/a"),
+            SharedBucket.forWebhook(folder.getRoot(), "https://example.com/b"));
+    }
+
+    @Test
+    public void testPauseIsShared() throws Exception {
+        File directory = folder.getRoot();
+        RateLimiter pausing = RateLimiter.forWebhook("https://example.com/pause", 0, 1, directory);
+        RateLimiter other = new RateLimiter(0, 1, SharedBucket.forWebhook(directory, "https://example.com/pause"));
+        pausing.pause(200);
+        Assert.assertTrue(other.tryAcquire() > 0);
+    }
+
+    @Test
+    public void testUnlimitedDoesNotLock() throws Exception {
+        SharedBucket bucket = SharedBucket.forWebhook(folder.getRoot(), "https://example.com/unlimited");
+        bucket.pause(0);
+        File[] files = folder.getRoot().listFiles();
+        Assert.assertEquals(1, files.length);
+        try (RandomAccessFile other = new RandomAccessFile(files[0], "rw")) {
+            // a second lock in the same process would throw OverlappingFileLockException
+            FileLock lock = other.getChannel().lock();
+            try {
+                Assert.assertEquals(0, bucket.tryAcquire(0, 0));
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    @Test
+    public void testBudgetSharedAcrossProcesses() throws Exception {
+        int processes = 3;
+        double rate = 20;
+        long durationMillis = 2_000;
+        long startAt = System.currentTimeMillis() + 2_000;
+        long endAt = startAt + durationMillis;
+
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> workers = new ArrayList<>();
+        for (int i = 0; i < processes; i++) {
+            workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Worker.class.getName(),
+                folder.getRoot().getPath(), "https://example.com/processes", String.valueOf(rate),
+                String.valueOf(startAt), String.valueOf(endAt)).redirectErrorStream(true).start());
+        }
+
+        long total = 0;
+        for (Process worker : workers) {
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(worker.getInputStream(), StandardCharsets.UTF_8))) {
+                String line = reader.readLine();
+                Assert.assertTrue(worker.waitFor(30, TimeUnit.SECONDS));
+                Assert.assertEquals(0, worker.exitValue());
+                total += Long.parseLong(line.trim());
+            }
+        }
+
+        // one budget of rate per second plus the burst, not one per process
+        long budget = (long) (rate * durationMillis / 1_000) + 1;
+        Assert.assertTrue("taken " + total, total <= budget + 2);
+        Assert.assertTrue("taken " + total, total >= budget / 2);
+    }
+}
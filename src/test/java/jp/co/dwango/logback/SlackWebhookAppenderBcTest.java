@@ -1,6 +1,10 @@
 package jp.co.dwango.logback;
 
+import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+import ch.qos.logback.core.status.Status;
+import ch.qos.logback.core.status.StatusUtil;
 import org.junit.Assert;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -21,6 +25,15 @@ public class SlackWebhookAppenderBcTest {
         }
     }
 
+    static class LegacyAppenderForTest extends SlackWebhookAppenderBc {
+        public byte[] body = null;
+
+        @Override
+        protected void post(byte[] body) throws IOException {
+            this.body = body;
+        }
+    }
+
     @Test
     @SuppressWarnings("deprecation")
     public void testBuildsMessage() {
@@ -41,6 +54,88 @@ public class SlackWebhookAppenderBcTest {
         Assert.assertEquals(expected, actual);
     }
 
+    @Test
+    public void testEscapesMultiLineMessage() {
+        LegacyAppenderForTest appender = new LegacyAppenderForTest();
+        appender.setChannel("channel");
+        appender.setUsername("user\\name");
+        appender.setLinkNames(false);
+
+        LoggingEvent event = new LoggingEvent();
+        event.setMessage("line 1\n\tat C:\\path\r\n\u0007");
+
+        appender.append(event);
+
+        String actual = new String(appender.body, StandardCharsets.UTF_8);
+        String expected = "{ \"text\": \"line 1\\n\\tat C:\\\\path\\r\\n\\u0007\", \"channel\": \"channel\", \"username\": \"user\\\\name\" }";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testAppendsStackTrace() {
+        LegacyAppenderForTest appender = new LegacyAppenderForTest();
+        appender.setChannel("channel");
+        appender.setUsername("username");
+        appender.setLinkNames(false);
+        appender.setStackTrace(true);
+        appender.setMaxStackDepth(1);
+
+        Exception e = new IllegalStateException("boom");
+        e.setStackTrace(new StackTraceElement[] {
+            new StackTraceElement("com.example.Service", "run", "Service.java", 10),
+            new StackTraceElement("com.example.Main", "main", "Main.java", 30),
+        });
+        LoggingEvent event = new LoggingEvent();
+        event.setMessage("failed");
+        event.setThrowableProxy(new ThrowableProxy(e));
+
+        appender.append(event);
+
+        String actual = new String(appender.body, StandardCharsets.UTF_8);
+        String expected = "{ \"text\": \"failed\\njava.lang.IllegalStateException: boom\\n\\tat com.example.Service.run(Service.java:10)\\n\\t... 1 more\", \"channel\": \"channel\", \"username\": \"username\" }";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testReportsMissingChannelWhenAppending() {
+        LegacyAppenderForTest appender = new LegacyAppenderForTest();
+        appender.setContext(new LoggerContext());
+        appender.setUsername("username");
+        appender.start();
+        Assert.assertTrue(appender.isStarted());
+
+        LoggingEvent event = new LoggingEvent();
+        event.setMessage("text");
+        appender.append(event);
+
+        Assert.assertNull(appender.body);
+        Assert.assertEquals(Status.ERROR, new StatusUtil(appender.getContext()).getHighestLevel(0));
+    }
+
+    @Test
+    public void testPostsInDefaultMode() throws Exception {
+        try (FakeSlackServer server = new FakeSlackServer()) {
+            SlackWebhookAppender appender = new SlackWebhookAppender();
+            appender.setContext(new LoggerContext());
+            appender.setJmx(false);
+            appender.setWebhookUrl(server.url());
+            appender.setChannel("channel");
+            appender.setUsername("username");
+            appender.start();
+            Assert.assertTrue(appender.isStarted());
+
+            LoggingEvent event = new LoggingEvent();
+            event.setMessage("text");
+            appender.doAppend(event);
+            appender.stop();
+
+            Assert.assertEquals(1, server.getAccepted().size());
+            Assert.assertEquals("{ \"text\": \"text\", \"channel\": \"channel\", \"username\": \"username\", \"link_names\": 1 }",
+                server.getAccepted().peek());
+            Assert.assertTrue(new StatusUtil(appender.getContext()).getHighestLevel(0) < Status.WARN);
+        }
+    }
+
     @Ignore
     public void testPost() {
         Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -0,0 +1,272 @@
+package jp.co.dwango.logback;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * End-to-end tests against {@link FakeSlackServer}.
+ * Run with <code>-Dslack.load.events=1000000</code> to pump more events per thread.
+ */
+public class SlackWebhookAppenderLoadTest {
+
+    private static final int EVENTS_PER_THREAD = Integer.getInteger("slack.load.events", 2_000);
+
+    private static final int THREADS = 8;
+
+    private FakeSlackServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new FakeSlackServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void testAsyncUnderLatency() throws Exception {
+        server.setLatency(5);
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setBatchSize(100);
+        appender.setBatchWindow(20);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(THREADS, EVENTS_PER_THREAD).run(appender);
+        appender.stop();
+        System.out.println("testAsyncUnderLatency: " + report);
+
+        AppenderMetricsMXBean metrics = appender.getMetrics();
+        Assert.assertEquals(report.events, metrics.getEventsSeen());
+        Assert.assertEquals(report.events, server.countAcceptedMessages() + metrics.getEventsDropped());
+    }
+
+    @Test
+    public void testManyInFlightUnderLatency() throws Exception {
+        server.setLatency(50);
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setMaxInFlight(8);
+        appender.setOrdered(false);
+        appender.start();
+
+        long start = System.nanoTime();
+        LoadDriver.Report report = new LoadDriver(THREADS, 25).run(appender);
+        appender.stop();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("testManyInFlightUnderLatency: " + report + ", drained in " + elapsedMillis + " ms");
+
+        // one post per round trip would take 10 seconds
+        Assert.assertEquals(report.events, server.countAcceptedMessages());
+        Assert.assertTrue(elapsedMillis < 5_000);
+    }
+
+    @Test
+    public void testVirtualThreadsUnderLatency() throws Exception {
+        server.setLatency(50);
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setVirtualThreads(true);
+        appender.setMaxInFlight(64);
+        appender.setOrdered(false);
+        appender.start();
+
+        long start = System.nanoTime();
+        LoadDriver.Report report = new LoadDriver(THREADS, 25).run(appender);
+        appender.stop();
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("testVirtualThreadsUnderLatency: " + report + ", drained in " + elapsedMillis + " ms"
+            + (DeliveryThreads.isVirtualSupported() ? "" : " on platform threads"));
+
+        Assert.assertEquals(report.events, server.countAcceptedMessages());
+        Assert.assertTrue(elapsedMillis < 5_000);
+    }
+
+    @Test
+    public void testRetriesWithManyInFlight() throws Exception {
+        server.script(FakeSlackServer.serverError(503), 10);
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setQueueSize(THREADS * 100);
+        appender.setMaxInFlight(4);
+        appender.setMaxRetries(20);
+        appender.setMaxRetryBackoff(5);
+        appender.setCircuitBreakerThreshold(0);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(THREADS, 100).run(appender);
+        appender.stop();
+
+        Assert.assertEquals(report.events, server.countAcceptedMessages());
+        Assert.assertEquals(report.events + 10, server.getRequests());
+    }
+
+    @Test
+    public void testOrderedUnderRandomLatency() throws Exception {
+        server.setLatency(0, 20);
+        for (int i = 0; i < 10; i++) {
+            server.script(FakeSlackServer.ok(), FakeSlackServer.ok(), FakeSlackServer.serverError(503),
+                FakeSlackServer.ok(), FakeSlackServer.reset(), FakeSlackServer.rateLimited(0));
+        }
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setMaxInFlight(8);
+        appender.setMaxRetries(20);
+        appender.setMaxRetryBackoff(5);
+        appender.setCircuitBreakerThreshold(0);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(1, 100).run(appender);
+        appender.stop();
+
+        // retried messages hold back the ones behind them
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < report.events; i++) {
+            expected.add("{\"text\":\"0-" + i + "\"}");
+        }
+        Assert.assertEquals(expected, new ArrayList<>(server.getAccepted()));
+    }
+
+    @Test
+    public void testRetriesServerErrors() throws Exception {
+        server.script(FakeSlackServer.serverError(503), 10);
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setQueueSize(THREADS * 100);
+        appender.setMaxRetries(20);
+        appender.setMaxRetryBackoff(5);
+        appender.setCircuitBreakerThreshold(0);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(THREADS, 100).run(appender);
+        appender.stop();
+
+        Assert.assertEquals(report.events, server.countAcceptedMessages());
+        Assert.assertEquals(report.events + 10, server.getRequests());
+    }
+
+    @Test
+    public void testCircuitOpensDuringOutage() throws Exception {
+        server.script(FakeSlackServer.serverError(500), 1_000);
+        SlackWebhookAppender appender = syncAppender();
+        appender.setCircuitBreakerThreshold(3);
+        appender.setCircuitBreakerOpenTime(60_000);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(1, 100).run(appender);
+        Assert.assertEquals("OPEN", appender.getCircuitState());
+        appender.stop();
+
+        // fails fast without calling Slack once the circuit is open
+        Assert.assertEquals(3, server.getRequests());
+        Assert.assertEquals(report.events, appender.getMetrics().getEventsDropped());
+    }
+
+    @Test
+    public void testHoldsWhileRateLimited() throws Exception {
+        server.script(FakeSlackServer.rateLimited(1));
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setQueueSize(THREADS * 10);
+        appender.setBatchSize(10);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(THREADS, 10).run(appender);
+        appender.stop();
+
+        Assert.assertEquals(report.events, server.countAcceptedMessages());
+    }
+
+    @Test
+    public void testRetriesConnectionResets() throws Exception {
+        server.script(FakeSlackServer.reset(), 3);
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setQueueSize(THREADS * 10);
+        appender.setMaxRetries(10);
+        appender.setMaxRetryBackoff(5);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(THREADS, 10).run(appender);
+        appender.stop();
+
+        Assert.assertEquals(report.events, server.countAcceptedMessages());
+    }
+
+    @Test
+    public void testSlowReadsDoNotBlockCallers() throws Exception {
+        server.script(FakeSlackServer.slowRead(50), 5);
+        SlackWebhookAppender appender = asyncAppender();
+        appender.setQueueSize(THREADS * 10);
+        appender.start();
+
+        LoadDriver.Report report = new LoadDriver(THREADS, 10).run(appender);
+        appender.stop();
+        System.out.println("testSlowReadsDoNotBlockCallers: " + report);
+
+        Assert.assertEquals(report.events, server.countAcceptedMessages());
+        Assert.assertTrue(report.latency.getP50() < 50_000);
+    }
+
+    @Test
+    public void testCongestedRouteDoesNotDelayOthers() throws Exception {
+        try (FakeSlackServer congested = new FakeSlackServer()) {
+            congested.setLatency(2_000);
+            SlackWebhookAppender appender = new SlackWebhookAppender();
+            appender.setJmx(false);
+            appender.setTemplate("{\"text\":${message}}");
+            appender.setMaxFlushTime(0);
+            SlackRoute slow = new SlackRoute();
+            slow.setName("slow");
+            slow.setWebhookUrl(congested.url());
+            appender.addRoute(slow);
+            SlackRoute fast = new SlackRoute();
+            fast.setName("fast");
+            fast.setWebhookUrl(server.url());
+            fast.setBatchSize(100);
+            appender.addRoute(fast);
+            appender.start();
+
+            LoadDriver.Report report = new LoadDriver(THREADS, 10).run(appender);
+            long deadline = System.currentTimeMillis() + 1_500;
+            while (server.countAcceptedMessages() < report.events && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(report.events, server.countAcceptedMessages());
+            Assert.assertTrue(congested.getAccepted().isEmpty());
+            appender.stop();
+        }
+    }
+
+    @Test
+    public void testLegacyStyle() throws Exception {
+        SlackWebhookAppender appender = new SlackWebhookAppender();
+        appender.setJmx(false);
+        appender.setWebhookUrl(server.url());
+        appender.setChannel("#channel");
+        appender.setUsername("username");
+        appender.start();
+
+        new LoadDriver(1, 3).run(appender);
+        appender.stop();
+
+        Assert.assertEquals(3, server.getAccepted().size());
+    }
+
+    private SlackWebhookAppender asyncAppender() {
+        SlackWebhookAppender appender = syncAppender();
+        appender.setAsync(true);
+        appender.setQueueSize(1_024);
+        appender.setRetryBackoff(1);
+        appender.setMaxFlushTime(30_000);
+        return appender;
+    }
+
+    private SlackWebhookAppender syncAppender() {
+        SlackWebhookAppender appender = new SlackWebhookAppender();
+        appender.setJmx(false);
+        appender.setWebhookUrl(server.url());
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setTimeout(5_000);
+        return appender;
+    }
+}
@@ -1,9 +1,26 @@
 package jp.co.dwango.logback;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
 
 import org.junit.Assert;
 import org.junit.Ignore;
@@ -12,8 +29,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.spi.LoggerContextVO;
 import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.status.Status;
+import ch.qos.logback.core.status.StatusUtil;
 
 public class SlackWebhookAppenderTest {
 
@@ -92,6 +112,567 @@ public class SlackWebhookAppenderTest {
         Assert.assertArrayEquals(body, appender.body);
     }
 
+    /**
+     * Test discarding events by filter rules before the payload script runs
+     */
+    @Test
+    public void testFilterRules() {
+        AppenderForTest appender = new AppenderForTest();
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setPayload("if (level != 'ERROR') throw 'rendered'; return {text: event.getFormattedMessage()};");
+        appender.setMinLevel("ERROR");
+        appender.setExcludeLoggers("com.example.noisy");
+        appender.start();
+
+        appender.append(event(Level.WARN, "warned"));
+        LoggingEvent noisy = event(Level.ERROR, "noisy");
+        noisy.setLoggerName("com.example.noisy.Poller");
+        appender.append(noisy);
+        Assert.assertNull(appender.body);
+        Assert.assertEquals(2, appender.getMetrics().getEventsFiltered());
+
+        appender.append(event(Level.ERROR, "posted"));
+        Assert.assertEquals("{\"text\":\"posted\"}", new String(appender.body, StandardCharsets.UTF_8));
+        appender.stop();
+    }
+
+    /**
+     * Test failing to start with a payload script which does not compile
+     */
+    @Test
+    public void testFailsToStartOnCompileErrors() {
+        AppenderForTest appender = new AppenderForTest();
+        appender.setContext(new LoggerContext());
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setWarmUp(false);
+        appender.setPayload("{ text: ");
+        appender.start();
+        Assert.assertFalse(appender.isStarted());
+        Assert.assertEquals(Status.ERROR, new StatusUtil(appender.getContext()).getHighestLevel(0));
+    }
+
+    /**
+     * Test reporting a payload script which fails to compile after start
+     */
+    @Test
+    public void testReportsCompileErrors() throws Exception {
+        AppenderForTest appender = new AppenderForTest();
+        appender.setContext(new LoggerContext());
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setWarmUp(false);
+        appender.setBackgroundCompile(true);
+        appender.setPayload("{ text: ");
+        appender.start();
+        Assert.assertTrue(appender.isStarted());
+
+        StatusUtil statuses = new StatusUtil(appender.getContext());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (statuses.getHighestLevel(0) < Status.ERROR && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(Status.ERROR, statuses.getHighestLevel(0));
+
+        appender.append(event(Level.ERROR, "discarded"));
+        Assert.assertNull(appender.body);
+        Assert.assertEquals(1, appender.getMetrics().getEventsDropped());
+        appender.stop();
+    }
+
+    /**
+     * Test rendering with a template instead of a payload script
+     */
+    @Test
+    public void testBuildsMessageFromTemplate() {
+        AppenderForTest appender = new AppenderForTest();
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"icon_emoji\":${emoji},\"text\":\"${level} (${hostname}) ${message}\"}");
+        appender.start();
+
+        appender.append(event(Level.WARN, "text \"quoted\""));
+
+        String actual = new String(appender.body, StandardCharsets.UTF_8);
+        String expected = "{\"icon_emoji\":\":ok_woman:\",\"text\":\"WARN (test.local) text \\\"quoted\\\"\"}";
+        Assert.assertEquals(expected, actual);
+    }
+
+    /**
+     * Test posting from the sender thread in async mode
+     */
+    @Test
+    public void testAsyncPost() throws InterruptedException {
+        final BlockingQueue<byte[]> posted = new LinkedBlockingQueue<>();
+        final CountDownLatch release = new CountDownLatch(1);
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                posted.add(body);
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setPayload("{ \"text\": message }");
+        appender.setAsync(true);
+        appender.setQueueSize(2);
+        appender.setDropPolicy(DropPolicy.DROP_OLDEST);
+        appender.start();
+
+        // the sender takes the first message and blocks in post()
+        appender.append(event(Level.INFO, "first"));
+        while (appender.getQueueDepth() > 0) {
+            Thread.sleep(1);
+        }
+        // "second" is evicted by "fourth"
+        appender.append(event(Level.INFO, "second"));
+        appender.append(event(Level.INFO, "third"));
+        appender.append(event(Level.INFO, "fourth"));
+
+        release.countDown();
+        appender.stop();
+
+        Assert.assertEquals("{\"text\":\"first\"}", new String(posted.poll(), StandardCharsets.UTF_8));
+        Assert.assertEquals("{\"text\":\"third\"}", new String(posted.poll(), StandardCharsets.UTF_8));
+        Assert.assertEquals("{\"text\":\"fourth\"}", new String(posted.poll(), StandardCharsets.UTF_8));
+        Assert.assertNull(posted.poll());
+    }
+
+    /**
+     * Test merging messages into one post
+     */
+    @Test
+    public void testBatchPost() throws InterruptedException {
+        final BlockingQueue<byte[]> posted = new LinkedBlockingQueue<>();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                posted.add(body);
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"attachments\":[{\"text\":${message}}]}");
+        appender.setAsync(true);
+        appender.setBatchSize(3);
+        appender.setBatchWindow(10_000);
+        appender.start();
+
+        appender.append(event(Level.INFO, "a"));
+        appender.append(event(Level.INFO, "b"));
+        appender.append(event(Level.INFO, "c"));
+        appender.append(event(Level.INFO, "d"));
+
+        byte[] first = posted.poll(5, TimeUnit.SECONDS);
+        appender.stop();
+
+        Assert.assertEquals("{\"attachments\":[{\"text\":\"a\"},{\"text\":\"b\"},{\"text\":\"c\"}]}", new String(first, StandardCharsets.UTF_8));
+        Assert.assertEquals("{\"attachments\":[{\"text\":\"d\"}]}", new String(posted.poll(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Test holding a message while Slack is rate limiting
+     */
+    @Test
+    public void testHoldsWhileRateLimited() throws InterruptedException {
+        final BlockingQueue<byte[]> posted = new LinkedBlockingQueue<>();
+        final AtomicInteger attempts = new AtomicInteger();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                if (attempts.incrementAndGet() == 1) {
+                    throw new SlackResponseException("Too Many Requests", 429, 100);
+                }
+                posted.add(body);
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/RATELIMITED");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setAsync(true);
+        appender.start();
+
+        appender.append(event(Level.ERROR, "held"));
+
+        byte[] body = posted.poll(5, TimeUnit.SECONDS);
+        appender.stop();
+
+        Assert.assertEquals("{\"text\":\"held\"}", new String(body, StandardCharsets.UTF_8));
+        Assert.assertEquals(2, attempts.get());
+        Assert.assertEquals(1, appender.getMetrics().getEventsThrottled());
+        Assert.assertEquals(0, appender.getMetrics().getEventsFailed());
+    }
+
+    /**
+     * Test giving up a message which Slack keeps rate limiting
+     */
+    @Test
+    public void testGivesUpHoldingAfterLimit() {
+        final AtomicInteger attempts = new AtomicInteger();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                attempts.incrementAndGet();
+                throw new SlackResponseException("Too Many Requests", 429, 0);
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/ALWAYSRATELIMITED");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setAsync(true);
+        appender.start();
+
+        appender.append(event(Level.ERROR, "held"));
+        appender.stop();
+
+        Assert.assertEquals(Delivery.MAX_HOLDS + 1, attempts.get());
+        Assert.assertEquals(Delivery.MAX_HOLDS + 1, appender.getMetrics().getEventsThrottled());
+        Assert.assertEquals(0, appender.getMetrics().getEventsFailed());
+        Assert.assertEquals(1, appender.getMetrics().getEventsDropped());
+    }
+
+    /**
+     * Test retrying transient failures and opening the circuit breaker
+     */
+    @Test
+    public void testRetriesThenOpensCircuit() throws InterruptedException {
+        final BlockingQueue<byte[]> posted = new LinkedBlockingQueue<>();
+        final AtomicInteger attempts = new AtomicInteger();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                int attempt = attempts.incrementAndGet();
+                if (attempt <= 2 || attempt >= 4) {
+                    throw new SlackResponseException("Service Unavailable", 503, -1);
+                }
+                posted.add(body);
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/UNAVAILABLE");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setAsync(true);
+        appender.setRetryBackoff(1);
+        appender.setMaxRetries(2);
+        appender.setCircuitBreakerThreshold(3);
+        appender.start();
+
+        appender.append(event(Level.ERROR, "retried"));
+        byte[] body = posted.poll(5, TimeUnit.SECONDS);
+        Assert.assertEquals("{\"text\":\"retried\"}", new String(body, StandardCharsets.UTF_8));
+        Assert.assertEquals(3, attempts.get());
+        Assert.assertEquals("CLOSED", appender.getCircuitState());
+
+        // fails 3 times in a row, which opens the circuit
+        appender.append(event(Level.ERROR, "lost"));
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!"OPEN".equals(appender.getCircuitState()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals("OPEN", appender.getCircuitState());
+        Assert.assertEquals(6, attempts.get());
+
+        appender.append(event(Level.ERROR, "rejected"));
+        appender.stop();
+        Assert.assertEquals(6, attempts.get());
+    }
+
+    /**
+     * Test sending errors before a backlog of other events, and shedding the backlog first
+     */
+    @Test
+    public void testPriorityLanes() throws InterruptedException {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> posted = new ArrayList<>();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                synchronized (posted) {
+                    posted.add(new String(body, StandardCharsets.UTF_8));
+                }
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setAsync(true);
+        appender.setQueueSize(3);
+        appender.setPriorityLanes(true);
+        appender.setMaxFlushTime(5_000);
+        appender.start();
+
+        appender.append(event(Level.INFO, "in flight"));
+        Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        appender.append(event(Level.INFO, "info 1"));
+        appender.append(event(Level.WARN, "warn 1"));
+        appender.append(event(Level.INFO, "info 2"));
+        appender.append(event(Level.ERROR, "error 1"));
+        appender.append(event(Level.ERROR, "error 2"));
+        Assert.assertEquals(2, appender.getMetrics().getEventsDropped());
+
+        release.countDown();
+        appender.stop();
+        Assert.assertEquals(Arrays.asList("{\"text\":\"in flight\"}", "{\"text\":\"error 1\"}",
+            "{\"text\":\"error 2\"}", "{\"text\":\"warn 1\"}"), posted);
+    }
+
+    /**
+     * Test dropping an event of an empty lane when higher lanes fill the queue
+     */
+    @Test
+    public void testPriorityLanesFullOfHigherLanes() throws Exception {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<String> posted = new ArrayList<>();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                synchronized (posted) {
+                    posted.add(new String(body, StandardCharsets.UTF_8));
+                }
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setAsync(true);
+        appender.setQueueSize(2);
+        appender.setPriorityLanes(true);
+        appender.setDropPolicy(DropPolicy.DROP_OLDEST);
+        appender.setMaxFlushTime(5_000);
+        appender.start();
+
+        appender.append(event(Level.INFO, "in flight"));
+        Assert.assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        appender.append(event(Level.ERROR, "error 1"));
+        appender.append(event(Level.ERROR, "error 2"));
+
+        // nothing in the lane of infos to evict, so the info is dropped instead of spinning
+        CompletableFuture<Void> info = CompletableFuture.runAsync(() -> appender.append(event(Level.INFO, "info 1")));
+        info.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, appender.getMetrics().getEventsDropped());
+
+        release.countDown();
+        appender.stop();
+        Assert.assertEquals(Arrays.asList("{\"text\":\"in flight\"}", "{\"text\":\"error 1\"}",
+            "{\"text\":\"error 2\"}"), posted);
+    }
+
+    /**
+     * Test counting events and exposing them through JMX
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        AppenderForTest appender = new AppenderForTest();
+        appender.setName("metrics");
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setDuplicateWindow(60_000);
+        appender.start();
+
+        appender.doAppend(event(Level.ERROR, "first"));
+        appender.doAppend(event(Level.ERROR, "first"));
+        appender.doAppend(event(Level.ERROR, "second"));
+
+        AppenderMetricsMXBean metrics = appender.getMetrics();
+        Assert.assertEquals(3, metrics.getEventsSeen());
+        Assert.assertEquals(1, metrics.getEventsSuppressed());
+        Assert.assertEquals(2, metrics.getEventsRendered());
+        Assert.assertEquals(2, metrics.getEventsPosted());
+        Assert.assertEquals(2, metrics.getHttpLatency().getCount());
+        Assert.assertEquals("CLOSED", metrics.getCircuitState());
+
+        ObjectName name = new ObjectName("jp.co.dwango.logback:type=SlackWebhookAppender,name=\"metrics\"");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Assert.assertEquals(2L, server.getAttribute(name, "EventsPosted"));
+        Assert.assertEquals(2L, ((CompositeData) server.getAttribute(name, "RenderLatency")).get("count"));
+
+        appender.stop();
+        Assert.assertFalse(server.isRegistered(name));
+    }
+
+    /**
+     * Test routing events to webhooks by level and logger
+     */
+    @Test
+    public void testRoutes() throws InterruptedException {
+        final BlockingQueue<String> posted = new LinkedBlockingQueue<>();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                posted.add("default " + new String(body, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            protected void post(SlackRoute route, byte[] body) throws IOException {
+                posted.add(route.getName() + " " + new String(body, StandardCharsets.UTF_8));
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"text\":${message}}");
+        SlackRoute errors = new SlackRoute();
+        errors.setName("errors");
+        errors.setLevel("ERROR");
+        errors.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/ERRORS");
+        appender.addRoute(errors);
+        SlackRoute db = new SlackRoute();
+        db.setName("db");
+        db.setLogger("com.example.db");
+        db.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/DB");
+        db.setTemplate("{\"text\":\"db: ${message}\"}");
+        appender.addRoute(db);
+        appender.start();
+
+        appender.append(event(Level.INFO, "unrouted"));
+        LoggingEvent dbError = event(Level.ERROR, "pool exhausted");
+        dbError.setLoggerName("com.example.db.Pool");
+        appender.append(dbError);
+
+        Set<String> actual = new HashSet<>();
+        for (int i = 0; i < 3; i++) {
+            actual.add(posted.poll(5, TimeUnit.SECONDS));
+        }
+        appender.stop();
+
+        Assert.assertEquals(new HashSet<>(Arrays.asList(
+            "default {\"text\":\"unrouted\"}",
+            "errors {\"text\":\"pool exhausted\"}",
+            "db {\"text\":\"db: pool exhausted\"}")), actual);
+        Assert.assertTrue(posted.isEmpty());
+    }
+
+    /**
+     * Test counting repeats of an event and posting a summary
+     */
+    @Test
+    public void testSuppressesDuplicates() {
+        final List<String> posted = new ArrayList<>();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                posted.add(new String(body, StandardCharsets.UTF_8));
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setDuplicateWindow(60_000);
+        appender.start();
+
+        for (int i = 0; i < 5; i++) {
+            LoggingEvent event = event(Level.ERROR, "failed {}");
+            event.setArgumentArray(new Object[] { i });
+            appender.append(event);
+        }
+        appender.append(event(Level.ERROR, "another"));
+        Assert.assertEquals(Arrays.asList("{\"text\":\"failed 0\"}", "{\"text\":\"another\"}"), posted);
+
+        appender.stop();
+        Assert.assertEquals(3, posted.size());
+        Assert.assertEquals("{\"text\":\"failed 0 (repeated 4 times in 1 s)\"}", posted.get(2));
+    }
+
+    /**
+     * Test counting noisy events and posting a digest of them
+     */
+    @Test
+    public void testDigest() {
+        final List<String> posted = new ArrayList<>();
+        SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                posted.add(new String(body, StandardCharsets.UTF_8));
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setTemplate("{\"text\":${message}}");
+        appender.setDigestInterval(60_000);
+        appender.setDigestSize(2);
+        appender.start();
+
+        for (int i = 0; i < 5; i++) {
+            LoggingEvent event = event(Level.WARN, "slow query {}");
+            event.setLoggerName("com.example.Dao");
+            event.setArgumentArray(new Object[] { i });
+            appender.append(event);
+        }
+        for (int i = 0; i < 3; i++) {
+            LoggingEvent event = event(Level.WARN, "retrying");
+            event.setLoggerName("com.example.Client");
+            appender.append(event);
+        }
+        LoggingEvent info = event(Level.INFO, "started");
+        info.setLoggerName("com.example.Main");
+        appender.append(info);
+        appender.append(event(Level.ERROR, "failed"));
+        Assert.assertEquals(Arrays.asList("{\"text\":\"failed\"}"), posted);
+        Assert.assertEquals(9, appender.getMetrics().getEventsSuppressed());
+
+        appender.stop();
+        Assert.assertEquals(2, posted.size());
+        Assert.assertEquals("{\"text\":\"Digest of 9 logs in 1 s (WARN 8, INFO 1)"
+            + "\\n5  WARN  com.example.Dao  slow query {}"
+            + "\\n3  WARN  com.example.Client  retrying"
+            + "\\n+1 others\"}", posted.get(1));
+    }
+
+    /**
+     * Test rendering from many threads at once
+     */
+    @Test
+    public void testConcurrentRendering() throws InterruptedException {
+        final Set<String> posted = ConcurrentHashMap.newKeySet();
+        final SlackWebhookAppender appender = new SlackWebhookAppender() {
+            @Override
+            protected void post(byte[] body) throws IOException {
+                posted.add(new String(body, StandardCharsets.UTF_8));
+            }
+        };
+        appender.setWebhookUrl("https://hooks.slack.com/services/ABCDEF/GHIJK/LMNOPQR");
+        appender.setPayload("var text = message; return { \"text\": text };");
+        appender.start();
+
+        final int threads = 8, perThread = 200;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    appender.append(event(Level.INFO, id + "-" + i));
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        Assert.assertEquals(threads * perThread, posted.size());
+        for (int t = 0; t < threads; t++) {
+            for (int i = 0; i < perThread; i++) {
+                Assert.assertTrue(posted.contains("{\"text\":\"" + t + "-" + i + "\"}"));
+            }
+        }
+    }
+
+    private static LoggingEvent event(Level level, String message) {
+        Map<String, String> properties = new HashMap<>();
+        properties.put("HOSTNAME", "test.local");
+
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(level);
+        event.setMessage(message);
+        event.setLoggerContextRemoteView(new LoggerContextVO("test", properties, 123L));
+        return event;
+    }
+
     @Ignore
     public void testPost() {
         Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -0,0 +1,113 @@
+package jp.co.dwango.logback;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.LoggerContextVO;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.classic.spi.ThrowableProxy;
+
+public class ThrowableRendererTest {
+
+    @Test
+    public void testCollapsesFilteredFrames() {
+        Exception e = new IllegalStateException("outer", new IllegalArgumentException("inner"));
+        e.setStackTrace(new StackTraceElement[] {
+            new StackTraceElement("com.example.Service", "run", "Service.java", 10),
+            new StackTraceElement("org.framework.Proxy", "invoke", "Proxy.java", 20),
+            new StackTraceElement("org.framework.Proxy", "invoke", "Proxy.java", 21),
+            new StackTraceElement("com.example.Main", "main", "Main.java", 30),
+        });
+        e.getCause().setStackTrace(new StackTraceElement[] {
+            new StackTraceElement("com.example.Dao", "find", "Dao.java", 40),
+            new StackTraceElement("com.example.Main", "main", "Main.java", 30),
+        });
+
+        String actual = new ThrowableRenderer("org.framework", 30, 4000).render(new ThrowableProxy(e));
+        String expected =
+            "java.lang.IllegalStateException: outer\n" +
+            "\tat com.example.Service.run(Service.java:10)\n" +
+            "\t... 2 frames filtered\n" +
+            "\tat com.example.Main.main(Main.java:30)\n" +
+            "Caused by: java.lang.IllegalArgumentException: inner\n" +
+            "\tat com.example.Dao.find(Dao.java:40)\n" +
+            "\t... 1 common frames omitted";
+        Assert.assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testLimitsDepthAndLength() {
+        Exception e = new RuntimeException("deep");
+        StackTraceElement[] frames = new StackTraceElement[200];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new StackTraceElement("com.example.Recursive", "call", "Recursive.java", i);
+        }
+        e.setStackTrace(frames);
+
+        String deep = new ThrowableRenderer(null, 3, 4000).render(new ThrowableProxy(e));
+        Assert.assertEquals(5, deep.split("\n").length);
+        Assert.assertTrue(deep.endsWith("\n\t... 197 more"));
+
+        String cut = new ThrowableRenderer(null, 200, 100).render(new ThrowableProxy(e));
+        Assert.assertEquals(100 + "\n\t... truncated".length(), cut.length());
+        Assert.assertTrue(cut.endsWith("\n\t... truncated"));
+    }
+
+    @Test
+    public void testTellsApartFramesWithSameHash() {
+        // the hash of frames leaves out file names
+        Exception compiled = new IllegalStateException("boom");
+        compiled.setStackTrace(new StackTraceElement[] { new StackTraceElement("com.example.A", "run", "A.java", 10) });
+        Exception generated = new IllegalStateException("boom");
+        generated.setStackTrace(new StackTraceElement[] { new StackTraceElement("com.example.A", "run", null, 10) });
+
+        ThrowableRenderer renderer = new ThrowableRenderer(null, 30, 4000);
+        Assert.assertEquals("java.lang.IllegalStateException: boom\n\tat com.example.A.run(A.java:10)",
+            renderer.render(new ThrowableProxy(compiled)));
+        Assert.assertEquals("java.lang.IllegalStateException: boom\n\tat com.example.A.run(Unknown Source)",
+            renderer.render(new ThrowableProxy(generated)));
+    }
+
+    @Test
+    public void testReusesFramesAndEscapes() {
+        ThrowableRenderer renderer = new ThrowableRenderer(null, 30, 4000);
+        for (String message : new String[] { "first \"quoted\"", "second あ" }) {
+            ThrowableProxy proxy = new ThrowableProxy(fail(message));
+            JsonBuffer out = new JsonBuffer(16);
+            Assert.assertTrue(renderer.writeEscaped(proxy, out));
+            String expected = new String(JsonBuffer.escape(renderer.render(proxy)), StandardCharsets.UTF_8);
+            Assert.assertEquals(expected, new String(out.toByteArray(), StandardCharsets.UTF_8));
+            Assert.assertTrue(expected.startsWith("java.lang.IllegalStateException: " + message.replace("\"", "\\\"") + "\\n\\tat "));
+        }
+        Assert.assertFalse(renderer.writeEscaped(null, new JsonBuffer(16)));
+        Assert.assertNull(renderer.render(null));
+    }
+
+    @Test
+    public void testPayloads() throws Exception {
+        LoggingEvent event = new LoggingEvent();
+        event.setLevel(Level.ERROR);
+        event.setMessage("failed");
+        event.setLoggerContextRemoteView(new LoggerContextVO("test", Collections.emptyMap(), 0L));
+        event.setThrowableProxy(new ThrowableProxy(fail("boom")));
+        ThrowableRenderer renderer = new ThrowableRenderer(null, 1, 4000);
+        String trace = renderer.render(event.getThrowableProxy());
+
+        byte[] template = new PayloadTemplate("{\"text\": \"${message}\\n${stacktrace}\"}", renderer, 0).render(event);
+        Assert.assertEquals("{\"text\": \"failed\\n" + new String(JsonBuffer.escape(trace), StandardCharsets.UTF_8) + "\"}",
+            new String(template, StandardCharsets.UTF_8));
+
+        PayloadScript payloadScript = new PayloadScript("{ text: stacktrace() }", renderer);
+        byte[] script = payloadScript.render(payloadScript.fields().capture(event));
+        Assert.assertEquals("{\"text\":\"" + new String(JsonBuffer.escape(trace), StandardCharsets.UTF_8) + "\"}",
+            new String(script, StandardCharsets.UTF_8));
+    }
+
+    private static Exception fail(String message) {
+        return new IllegalStateException(message);
+    }
+}
@@ -0,0 +1,38 @@
+package jp.co.dwango.logback;
+
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TimestampFormatterTest {
+
+    @Test
+    public void testSameAsIsoOffsetDateTime() {
+        for (String id : new String[] { "UTC", "Asia/Tokyo", "America/St_Johns", "Europe/Amsterdam" }) {
+            ZoneId zone = ZoneId.of(id);
+            TimestampFormatter formatter = new TimestampFormatter(zone);
+            long[] timestamps = { 0, 1, 10, 100, 120, 123, 999, 1_000, -1, -1_001, 1_500_000_000_000L, 1_500_000_000_450L,
+                -2_000_000_000_000L, 253_402_300_799_999L, 253_402_300_800_000L };
+            for (long timestamp : timestamps) {
+                Assert.assertEquals(id + " " + timestamp, expected(timestamp, zone), formatter.format(timestamp));
+            }
+        }
+    }
+
+    @Test
+    public void testAcrossSeconds() {
+        ZoneId zone = ZoneId.of("Asia/Tokyo");
+        TimestampFormatter formatter = new TimestampFormatter(zone);
+        for (long timestamp = 1_500_000_000_000L; timestamp < 1_500_000_003_000L; timestamp += 7) {
+            Assert.assertEquals(expected(timestamp, zone), formatter.format(timestamp));
+        }
+    }
+
+    private static String expected(long timestamp, ZoneId zone) {
+        return DateTimeFormatter.ISO_OFFSET_DATE_TIME.format(OffsetDateTime.ofInstant(Instant.ofEpochMilli(timestamp), zone));
+    }
+}